@@ -0,0 +1,6 @@
+#!/bin/bash
+
+# Benchmarks exercise SDK functionality not yet in a released jar, so
+#  build against the locally built SDK (run java/build.sh first)
+cd java
+javac -cp ../../java/lib/libthrift-0.11.0.jar:../../java/lib/slf4j-api.jar:../../java/yaskawa-ext-2.2.0.jar *.java
@@ -0,0 +1,94 @@
+import java.util.*;
+
+import yaskawa.ext.*;
+import yaskawa.ext.api.Any;
+import yaskawa.ext.api.Position;
+
+
+/**
+ * Compares conversion of values to Any by the previous instanceof chain (legacyToAny) against
+ *  AnyConverter (as now used by Extension.toAny()): time & heap allocation per conversion, for
+ *  scalars, lists, maps and numeric arrays (as List<Double> vs double[]).
+ *
+ * usage: run.sh AnyConversionBenchmark [iterations]
+ */
+public class AnyConversionBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        Object[] scalars = { true, false, 42, 123456789L, 3.14, "", "label", 7 };
+        var doubles = new double[256];
+        var doubleList = new ArrayList<Double>(doubles.length);
+        for(int i=0; i<doubles.length; i++) {
+            doubles[i] = Math.sin(i * 0.1);
+            doubleList.add(doubles[i]);
+        }
+        var map = new LinkedHashMap<String,Object>();
+        map.put("visible", true);
+        map.put("text", "Speed");
+        map.put("value", 75);
+        map.put("scale", 1.5);
+        map.put("color", "#ff0000");
+        map.put("items", List.of("a", "b", "c"));
+        map.put("enabled", false);
+        map.put("width", 120);
+
+        Bench.measure("scalars   legacy  ", Math.min(iterations, 10000), iterations, () -> {
+            int n = 0;
+            for(var s : scalars)
+                n += (legacyToAny(s) != null) ? 1 : 0;
+            return n;
+        });
+        Bench.measure("scalars   dispatch", Math.min(iterations, 10000), iterations, () -> {
+            int n = 0;
+            for(var s : scalars)
+                n += (Extension.toAny(s) != null) ? 1 : 0;
+            return n;
+        });
+
+        Bench.measure("map       legacy  ", Math.min(iterations, 10000), iterations, () -> (legacyToAny(map) != null) ? 1 : 0);
+        Bench.measure("map       dispatch", Math.min(iterations, 10000), iterations, () -> (Extension.toAny(map) != null) ? 1 : 0);
+
+        int arrayIterations = Math.max(1, iterations / 16);
+        Bench.measure("List<Double> legacy  ", Math.min(arrayIterations, 10000), arrayIterations, () -> (legacyToAny(doubleList) != null) ? 1 : 0);
+        Bench.measure("List<Double> dispatch", Math.min(arrayIterations, 10000), arrayIterations, () -> (Extension.toAny(doubleList) != null) ? 1 : 0);
+        Bench.measure("double[]     vector  ", Math.min(arrayIterations, 10000), arrayIterations, () -> (Extension.toAny(doubles) != null) ? 1 : 0);
+    }
+
+
+    // conversion as previously implemented by Extension.toAny()
+    static Any legacyToAny(Object o)
+    {
+        if (o instanceof Boolean)
+            return Any.bValue((Boolean)o);
+        else if (o instanceof Integer)
+            return Any.iValue((Integer)o);
+        else if (o instanceof Long)
+            return Any.iValue((Long)o);
+        else if (o instanceof Double)
+            return Any.rValue((Double)o);
+        else if (o instanceof String)
+            return Any.sValue((String)o);
+        else if (o instanceof Position)
+            return Any.pValue((Position)o);
+        else if (o instanceof List) {
+            var a = new ArrayList<Any>( ((List<?>)o).size() );
+            for(var e : (List<?>)o)
+                a.add(legacyToAny(e));
+            return Any.aValue(a);
+        }
+        else if (o instanceof Map) {
+            Map<?,?> map = (Map<?,?>)o;
+            var m = new HashMap<String,Any>();
+            for(Object k : map.keySet()) {
+                if (!(k instanceof String))
+                    throw new RuntimeException("Maps with non-String keys unsupported");
+                m.put(legacyToAny(k).getSValue(), legacyToAny(map.get(k)));
+            }
+            return Any.mValue(m);
+        }
+        throw new RuntimeException("Unsupported conversion to Any from "+o.getClass().getSimpleName());
+    }
+}
@@ -0,0 +1,56 @@
+import java.lang.management.ManagementFactory;
+
+
+/**
+ * Timing & heap allocation harness shared by the benchmarks.
+ *
+ * Allocation is measured for the calling thread only (via com.sun.management.ThreadMXBean).
+ */
+public class Bench
+{
+    public interface Body
+    {
+        /** Run once, returning a result (summed, so the work isn't optimised away) */
+        int run() throws Exception;
+    }
+
+    /** As measure(label, warmup, iterations, 1, "op", body) */
+    public static void measure(String label, int warmup, int iterations, Body body) throws Exception
+    {
+        measure(label, warmup, iterations, 1, "op", body);
+    }
+
+    /**
+     * Run body warmup times, then iterations times, printing label followed by the time &
+     *  bytes allocated per unit (of units per run of body)
+     */
+    public static void measure(String label, int warmup, int iterations, double units, String unit, Body body) throws Exception
+    {
+        var threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for(int i=0; i<warmup; i++)
+            body.run();
+
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        int sink = 0;
+        for(int i=0; i<iterations; i++)
+            sink += body.run();
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        double n = units * iterations;
+        System.out.println(label+String.format("%s/%s %10.1f bytes/%s  (%d)", time(elapsed/n), unit, allocated/n, unit, sink));
+    }
+
+    // nanos in ns, us or ms, as appropriate
+    static String time(double nanos)
+    {
+        if (nanos < 1e4)
+            return String.format("%10.1f ns", nanos);
+        if (nanos < 1e7)
+            return String.format("%10.2f us", nanos/1e3);
+        return String.format("%10.2f ms", nanos/1e6);
+    }
+}
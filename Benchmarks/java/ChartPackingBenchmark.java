@@ -0,0 +1,116 @@
+import java.util.*;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TTransport;
+
+import yaskawa.ext.*;
+import yaskawa.ext.api.DataPoint;
+
+
+/**
+ * Compares sending chart points as list<DataPoint> (appendChartPoints) against packed
+ *  little-endian doubles (appendChartPointsPacked):
+ *   - message size, encode time & heap allocation, offline (encoding into memory)
+ *   - points/sec sent to an API service (an in-process MockMotionServer if no host given)
+ *
+ * usage: run.sh ChartPackingBenchmark [host port] [points per call]
+ */
+public class ChartPackingBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        String host = args.length > 1 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 10082;
+        int points = args.length > 2 ? Integer.parseInt(args[2]) : (args.length == 1 ? Integer.parseInt(args[0]) : 1000);
+
+        var x = new double[points];
+        var y = new double[points];
+        for(int i=0; i<points; i++) {
+            x[i] = i * 0.001;
+            y[i] = Math.sin(x[i]);
+        }
+        int iterations = Math.max(100, 2000000 / points);
+
+        // offline encoding
+        var buffer = new CountingTransport();
+        var client = new yaskawa.ext.api.Pendant.Client(new TBinaryProtocol(buffer));
+        int[] size = new int[2];
+
+        Bench.measure("encode list<DataPoint> ", Math.min(iterations, 1000), iterations, () -> {
+            var list = new ArrayList<DataPoint>(points);
+            for(int i=0; i<points; i++)
+                list.add(new DataPoint(x[i], y[i]));
+            buffer.written = 0;
+            client.appendChartPoints(1, "chart", "key", list, false);
+            size[0] = buffer.written;
+            return size[0];
+        });
+        var packed = new PackedPoints(2, points);
+        Bench.measure("encode packed          ", Math.min(iterations, 1000), iterations, () -> {
+            packed.clear();
+            for(int i=0; i<points; i++)
+                packed.add(x[i], y[i]);
+            buffer.written = 0;
+            client.appendChartPointsPacked(1, "chart", "key", packed.bytes(), 2, false);
+            size[1] = buffer.written;
+            return size[1];
+        });
+        System.out.println(String.format("message bytes: list %d (%.1f/point)  packed %d (%.1f/point)  ratio %.2f",
+                                         size[0], (double)size[0]/points, size[1], (double)size[1]/points, (double)size[0]/size[1]));
+
+        // sending
+        if (args.length <= 1) {
+            var server = MockMotionServer.start(port);
+            var serving = new Thread(server::serve);
+            serving.setDaemon(true);
+            serving.start();
+            Thread.sleep(200);
+        }
+        var extension = new Extension("yii.benchmark.chartpacking", new Version(1,0,0), "Yaskawa", Set.of("en"), host, port);
+        try {
+            var pendant = extension.pendant();
+            int calls = Math.max(10, 200000 / points);
+
+            long start = System.nanoTime();
+            for(int c=0; c<calls; c++) {
+                var list = new ArrayList<DataPoint>(points);
+                for(int i=0; i<points; i++)
+                    list.add(new DataPoint(x[i], y[i]));
+                pendant.appendChartPoints("chart", "key", list, false);
+            }
+            extension.ping(); // oneway calls processed
+            report("send list<DataPoint>", calls * (long)points, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for(int c=0; c<calls; c++) {
+                packed.clear();
+                for(int i=0; i<points; i++)
+                    packed.add(x[i], y[i]);
+                pendant.appendChartPoints("chart", "key", packed, false);
+            }
+            extension.ping();
+            report("send packed         ", calls * (long)points, System.nanoTime() - start);
+            System.out.println("packed chart data supported: "+pendant.packedChartData());
+        } finally {
+            extension.close();
+        }
+        System.exit(0);
+    }
+
+    // discards (but counts) bytes written
+    static class CountingTransport extends TTransport
+    {
+        public boolean isOpen() { return true; }
+        public void open() {}
+        public void close() {}
+        public int read(byte[] buf, int off, int len) { return 0; }
+        public void write(byte[] buf, int off, int len) { written += len; }
+
+        int written;
+    }
+
+    static void report(String label, long points, long nanos)
+    {
+        System.out.println(label+String.format(" %12.0f points/s", points / (nanos / 1e9)));
+    }
+}
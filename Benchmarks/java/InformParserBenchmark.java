@@ -0,0 +1,92 @@
+import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import yaskawa.ext.*;
+
+
+/**
+ * Parses a large synthetic INFORM job with InformParser (whole-string and in 64KiB UTF-8 chunks)
+ *  and compares against typical hand-rolled split()-based scanning for CALL JOB: targets & variables.
+ * Runs offline - no pendant connection required.
+ *
+ * usage: run.sh InformParserBenchmark [instructions] [iterations]
+ */
+public class InformParserBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int instructions = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        String source = syntheticJob(instructions);
+        byte[] utf8 = source.getBytes(StandardCharsets.UTF_8);
+        System.out.println("Synthetic job: "+instructions+" instructions, "+utf8.length+" bytes, "+iterations+" iterations");
+
+        var parser = new InformParser();
+        Bench.measure("InformParser (String)       ", 3, iterations, instructions, "line", () -> {
+            parser.accept(source);
+            return parser.finish().referenceCount();
+        });
+        Bench.measure("InformParser (64KiB chunks) ", 3, iterations, instructions, "line", () -> {
+            var all = ByteBuffer.wrap(utf8);
+            while (all.hasRemaining()) {
+                var chunk = all.slice();
+                chunk.limit(Math.min(chunk.remaining(), 64*1024));
+                all.position(all.position() + chunk.limit());
+                parser.accept(chunk);
+            }
+            return parser.finish().referenceCount();
+        });
+        Bench.measure("split() + regex             ", 3, iterations, instructions, "line", () -> naive(source));
+
+        var job = InformParser.parse(source);
+        System.out.println(job+"; "+job.variables().size()+" variables, "+job.io().size()+" IO, "+job.labels().size()+" labels");
+    }
+
+
+    static String syntheticJob(int instructions)
+    {
+        var sb = new StringBuilder(instructions*24);
+        sb.append("/JOB\n//NAME SYNTH\n//POS\n///NPOS 100,0,0,0,0,0\n///TOOL 0\n///POSTYPE PULSE\n///PULSE\n");
+        for(int p=0; p<100; p++)
+            sb.append(String.format("C%05d=%d,%d,%d,0,0,0\n", p, p*10, -p*5, p*2));
+        sb.append("//INST\n///DATE 2020/01/01 00:00\n///ATTR SC,RW\n///GROUP1 RB1\nNOP\n");
+        var rnd = new Random(1);
+        for(int i=0; i<instructions; i++) {
+            switch (i % 10) {
+                case 0: sb.append("*L").append(i/10).append('\n'); break;
+                case 1: sb.append("MOVJ C").append(String.format("%05d", rnd.nextInt(100))).append(" VJ=50.00\n"); break;
+                case 2: sb.append("SET LD").append(String.format("%03d", rnd.nextInt(10))).append(" I").append(String.format("%03d", rnd.nextInt(100))).append('\n'); break;
+                case 3: sb.append("ADD LD005 I095\n"); break;
+                case 4: sb.append("CALL JOB:SUB").append(rnd.nextInt(20)).append(" ARGFLD007 ARGF1\n"); break;
+                case 5: sb.append("\t WAIT IN#(").append(1+rnd.nextInt(64)).append(")=ON\n"); break;
+                case 6: sb.append("DOUT OT#(").append(1+rnd.nextInt(64)).append(") ON\n"); break;
+                case 7: sb.append("TIMER T=0.050\n"); break;
+                case 8: sb.append("'synthetic comment line\n"); break;
+                default: sb.append("JUMP *L").append(i/10).append(" IF IN#(1)=OFF\n"); break;
+            }
+        }
+        sb.append("END\n");
+        return sb.toString();
+    }
+
+    static final java.util.regex.Pattern variable = java.util.regex.Pattern.compile("\\b(L?(?:B|I|D|R|S|P))\\d+");
+
+    static int naive(String source)
+    {
+        var calls = new HashSet<String>();
+        var vars = new HashSet<String>();
+        for(var line : source.split("\n")) {
+            var tokens = line.trim().split("\\s+");
+            for(var t : tokens) {
+                if (t.startsWith("JOB:"))
+                    calls.add(t.substring(4));
+            }
+            var m = variable.matcher(line);
+            while (m.find())
+                vars.add(m.group());
+        }
+        return calls.size() + vars.size();
+    }
+}
@@ -0,0 +1,46 @@
+import java.io.*;
+import java.util.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.thrift.TException;
+
+import yaskawa.ext.*;
+
+
+/**
+ * Compares heap allocation & time of reading a job source in one piece via jobSource()
+ *  against the chunked readJobSource() variants.
+ *
+ * usage: run.sh JobSourceBenchmark <host> <port> <jobName> [iterations]
+ */
+public class JobSourceBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : -1;
+        String job = args.length > 2 ? args[2] : "";
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        var extension = new Extension("yii.benchmark.jobsource", new Version(1,0,0), "Yaskawa", Set.of("en"), host, port);
+        try {
+            var controller = extension.controller();
+            if (job.isEmpty())
+                job = controller.currentJob();
+            final String name = job;
+            Path tmp = Files.createTempFile("jobsource", ".jbi");
+
+            System.out.println("Job "+name+" ("+controller.jobSource(name).length()+" chars), "+iterations+" iterations, chunk size "+controller.jobSourceChunkSize);
+
+            Bench.measure("jobSource()                 ", 1, iterations, () -> controller.jobSource(name).length());
+            Bench.measure("readJobSource(Writer)       ", 1, iterations, () -> { controller.readJobSource(name, Writer.nullWriter()); return 0; });
+            Bench.measure("readJobSource(Path)         ", 1, iterations, () -> { controller.readJobSource(name, tmp); return 0; });
+            Bench.measure("jobSourceData() (off-heap)  ", 1, iterations, () -> controller.jobSourceData(name).remaining());
+
+            Files.deleteIfExists(tmp);
+        } finally {
+            extension.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.*;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import yaskawa.ext.*;
+import yaskawa.ext.api.Any;
+import yaskawa.ext.api.ControllerEvent;
+import yaskawa.ext.api.ControllerEventType;
+
+
+/**
+ * Compares decoding a list of IOValueChanged events (as returned by events()) fully into
+ *  ControllerEvents against LazyEvents views, reading one property of each event:
+ *  time & heap allocation per event.
+ *
+ * usage: run.sh LazyEventBenchmark [events per list]
+ */
+public class LazyEventBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        // encode event list
+        var buffer = new TMemoryBuffer(events * 128);
+        var out = new TBinaryProtocol(buffer);
+        out.writeListBegin(new TList(TType.STRUCT, events));
+        for(int i=0; i<events; i++) {
+            var e = new ControllerEvent();
+            e.setEventType(ControllerEventType.IOValueChanged);
+            var props = new HashMap<String, Any>();
+            props.put("address", Any.iValue(10010 + i % 64));
+            props.put("name", Any.sValue("IN#"+(i % 64)));
+            props.put("value", Any.iValue(i & 1));
+            e.setProps(props);
+            e.write(out);
+        }
+        out.writeListEnd();
+        var bytes = Arrays.copyOf(buffer.getArray(), buffer.length());
+        System.out.println(String.format("%d events, %d bytes", events, bytes.length));
+
+        var input = new TMemoryInputTransport(bytes);
+        var protocol = new TBinaryProtocol(input);
+        int iterations = Math.max(100, 2000000 / events);
+
+        Bench.measure("decoded ControllerEvent", Math.min(iterations, 1000), iterations, events, "event", () -> {
+            input.reset(bytes);
+            var list = protocol.readListBegin();
+            int sum = 0;
+            for(int i=0; i<list.size; i++) {
+                var e = new ControllerEvent();
+                e.read(protocol);
+                sum += (int)e.getProps().get("value").getIValue();
+            }
+            protocol.readListEnd();
+            return sum;
+        });
+
+        var lazy = new LazyEvents();
+        Bench.measure("LazyEvent              ", Math.min(iterations, 1000), iterations, events, "event", () -> {
+            input.reset(bytes);
+            lazy.read(protocol);
+            int sum = 0;
+            for(var e : lazy)
+                sum += (int)e.intProp("value");
+            return sum;
+        });
+    }
+}
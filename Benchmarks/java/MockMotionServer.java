@@ -0,0 +1,245 @@
+import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TMultiplexedProcessor;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.transport.TServerSocket;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Minimal stand-in for the API service, for benchmarking without a pendant.
+ *
+ * Accepts any extension registration and serves a single 6-axis robot moving along a
+ *  synthetic (sinusoidal) path, via jointPosition(), toolTipPosition() and the
+ *  subscribePositions()/positionSamples() stream.  Property & chart updates are accepted
+ *  (and chart points counted) but otherwise ignored.  Calls to anything else fail with
+ *  an UNKNOWN_METHOD application exception, as for an older service.
+ *
+ * usage: run.sh MockMotionServer [port]
+ */
+public class MockMotionServer
+{
+    public static void main(String[] args) throws Exception
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 10080;
+        System.out.println("Mock API service on port "+port);
+        start(port).serve();
+    }
+
+    /** Server ready to serve() (e.g. on a background thread) */
+    public static TServer start(int port) throws Exception
+    {
+        var mock = new MockMotionServer();
+        var processor = new TMultiplexedProcessor();
+        processor.registerProcessor("Extension", new yaskawa.ext.api.Extension.Processor<>(mock.handler(yaskawa.ext.api.Extension.Iface.class)));
+        processor.registerProcessor("Controller", new yaskawa.ext.api.Controller.Processor<>(mock.handler(yaskawa.ext.api.Controller.Iface.class)));
+        processor.registerProcessor("Pendant", new yaskawa.ext.api.Pendant.Processor<>(mock.handler(yaskawa.ext.api.Pendant.Iface.class)));
+        processor.registerProcessor("Robot", new yaskawa.ext.api.Robot.Processor<>(mock.handler(yaskawa.ext.api.Robot.Iface.class)));
+        return new TThreadPoolServer(new TThreadPoolServer.Args(new TServerSocket(port)).processor(processor));
+    }
+
+
+    public static final int dof = 6;
+
+    /** Synthetic joint angles (radians) at time t (secs) */
+    public static void joints(double t, double[] out)
+    {
+        for(int j=0; j<dof; j++)
+            out[j] = (0.8 / (j+1)) * Math.sin(2*Math.PI*(0.2 + 0.1*j)*t + j);
+    }
+
+    /** Synthetic ToolTip x,y,z (mm), rx,ry,rz (deg) at time t (secs) */
+    public static void tcp(double t, double[] out)
+    {
+        out[0] = 500 + 100*Math.sin(2*Math.PI*0.5*t);
+        out[1] = 100*Math.sin(2*Math.PI*0.7*t);
+        out[2] = 400 + 50*Math.sin(2*Math.PI*0.3*t);
+        out[3] = 180;
+        out[4] = 0;
+        out[5] = 20*Math.sin(2*Math.PI*0.1*t);
+    }
+
+
+    protected <T> T handler(Class<T> iface)
+    {
+        InvocationHandler h = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "registerExtension": return 1L;
+                case "unregisterExtension": return null;
+                case "ping": return null;
+                case "apiVersion": return new Version((short)2, (short)2, (short)0);
+                case "controller": return 1L;
+                case "pendant": return 1L;
+                case "events": return new ArrayList<Object>();
+                case "logEvents": return new ArrayList<Object>();
+                case "subscribeEventTypes": return null;
+                case "unsubscribeEventTypes": return null;
+                case "connected": return true;
+                case "robotCount": return (byte)1;
+                case "currentRobot": return 0;
+                case "dof": return dof;
+                case "activeTool": return 0;
+                case "jointPosition": return jointPosition();
+                case "toolTipPosition": return toolTipPosition((CoordinateFrame)args[1]);
+                case "subscribePositions": return subscribePositions((Double)args[1], (Integer)args[2]);
+                case "positionSamples": return positionSamples((Long)args[0], (Integer)args[1], (Integer)args[2]);
+                case "unsubscribePositions": streams.remove((Long)args[0]); return null;
+                case "setProperty": return null;
+                case "setProperties": return null;
+                case "appendChartPoints": chartPoints.addAndGet(((List<?>)args[3]).size()); return null;
+                case "appendChartPointsPacked": chartPoints.addAndGet(((ByteBuffer)args[3]).remaining() / (8 * (Integer)args[4])); return null;
+                case "setChartSeriesPacked": return setChartSeriesPacked((String)args[1], (ByteBuffer)args[3]);
+                case "updateCharts": return updateCharts((List<?>)args[1]);
+                case "addChartKey": return null;
+                case "hideChartKey": return null;
+                case "incrementChartKey": return null;
+                default: throw new TApplicationException(TApplicationException.UNKNOWN_METHOD, method.getName());
+            }
+        };
+        return iface.cast(Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] { iface }, h));
+    }
+
+    protected double now()
+    {
+        return (System.nanoTime() - startTime) / 1e9;
+    }
+
+    protected Position jointPosition()
+    {
+        var values = new double[dof];
+        joints(now(), values);
+        var frame = new CoordinateFrame();
+        frame.setRep(CoordFrameRepresentation.Implicit);
+        frame.setPredefined(PredefinedCoordFrameType.Joint);
+        var p = new Position();
+        p.setFrame(frame);
+        p.setOrientUnit(OrientationUnit.Radian);
+        p.setJoints(list(values, 0, dof));
+        return p;
+    }
+
+    protected Position toolTipPosition(CoordinateFrame frame)
+    {
+        var values = new double[6];
+        tcp(now(), values);
+        var orient = new Orient();
+        orient.setRep(OrientationRepresentation.EulerRPY);
+        orient.setV(list(values, 3, 3));
+        var p = new Position();
+        p.setFrame(frame);
+        p.setDistUnit(DistanceUnit.Millimeter);
+        p.setOrientUnit(OrientationUnit.Degree);
+        p.setPos(list(values, 0, 3));
+        p.setOrient(orient);
+        return p;
+    }
+
+    protected static List<Double> list(double[] values, int offset, int count)
+    {
+        var l = new ArrayList<Double>(count);
+        for(int i=0; i<count; i++)
+            l.add(values[offset+i]);
+        return l;
+    }
+
+
+    protected static class Stream
+    {
+        double period;      // secs between retained samples
+        double start;       // time of sample 0
+        long next;          // sequence of next sample to return
+    }
+
+    protected long subscribePositions(double rate, int decimation)
+    {
+        var s = new Stream();
+        s.period = Math.max(1, decimation) / rate;
+        s.start = now();
+        long id = nextStreamID.incrementAndGet();
+        streams.put(id, s);
+        return id;
+    }
+
+    protected PositionSamples positionSamples(long id, int maxSamples, int timeout) throws Exception
+    {
+        var s = streams.get(id);
+        if (s == null)
+            throw new IllegalArgument("Unknown position stream "+id);
+
+        // samples are generated on demand for the times they would have been taken
+        double deadline = now() + timeout/1000.0;
+        long available = (long)((now() - s.start) / s.period) + 1 - s.next;
+        while (available <= 0 && now() < deadline) {
+            double due = s.start + s.next*s.period;
+            LockSupport.parkNanos((long)((Math.min(due, deadline) - now())*1e9));
+            available = (long)((now() - s.start) / s.period) + 1 - s.next;
+        }
+        if (available > bufferSamples) {
+            s.next += available - bufferSamples;
+            available = bufferSamples;
+        }
+
+        int count = (int)Math.max(0, Math.min(available, maxSamples));
+        var buffer = ByteBuffer.allocate(count * (1 + dof + 6) * 8).order(ByteOrder.LITTLE_ENDIAN);
+        var j = new double[dof];
+        var c = new double[6];
+        for(int i=0; i<count; i++) {
+            double t = s.start + (s.next + i)*s.period;
+            joints(t, j);
+            tcp(t, c);
+            buffer.putDouble(t);
+            for(double v : j)
+                buffer.putDouble(v);
+            for(double v : c)
+                buffer.putDouble(v);
+        }
+        buffer.flip();
+
+        var samples = new PositionSamples();
+        samples.setFirstSequence(s.next);
+        samples.setSampleCount(count);
+        samples.setDof(dof);
+        samples.setSamples(buffer);
+        s.next += count;
+        return samples;
+    }
+
+
+    protected Object setChartSeriesPacked(String chartID, ByteBuffer x) throws IllegalArgument
+    {
+        if (chartID.isEmpty())
+            throw new IllegalArgument("Unknown chart");
+        chartPoints.addAndGet(x.remaining() / 8);
+        return null;
+    }
+
+
+    protected Object updateCharts(List<?> updates)
+    {
+        for(var o : updates) {
+            var u = (ChartKeyUpdate)o;
+            if (u.isSetPoints())
+                chartPoints.addAndGet(u.bufferForPoints().remaining() / (8 * (u.isSetDims() ? u.getDims() : 2)));
+        }
+        return null;
+    }
+
+    /** Chart points received (all connections) */
+    public static final AtomicLong chartPoints = new AtomicLong();
+
+    // samples the service retains per stream before dropping the oldest
+    public static int bufferSamples = 10000;
+
+    protected final long startTime = System.nanoTime();
+    protected final Map<Long, Stream> streams = new ConcurrentHashMap<Long, Stream>();
+    protected final AtomicLong nextStreamID = new AtomicLong();
+}
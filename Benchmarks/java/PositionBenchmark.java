@@ -0,0 +1,110 @@
+import java.util.*;
+
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import yaskawa.ext.*;
+import yaskawa.ext.api.CoordinateFrame;
+import yaskawa.ext.api.CoordFrameRepresentation;
+import yaskawa.ext.api.DistanceUnit;
+import yaskawa.ext.api.Orient;
+import yaskawa.ext.api.OrientationRepresentation;
+import yaskawa.ext.api.OrientationUnit;
+import yaskawa.ext.api.Position;
+import yaskawa.ext.api.PredefinedCoordFrameType;
+
+
+/**
+ * Compares time & heap allocation of decoding Position via the generated (boxed) code
+ *  against decoding directly into a reused PositionD, both offline from serialized
+ *  bytes and via Robot calls (against an in-process MockMotionServer if no host given).
+ *
+ * usage: run.sh PositionBenchmark [host port] [iterations]
+ */
+public class PositionBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        String host = args.length > 1 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 10081;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : (args.length == 1 ? Integer.parseInt(args[0]) : 100000);
+
+        // offline decoding
+        var serializer = new TSerializer(new TBinaryProtocol.Factory());
+        for(var p : List.of(jointPosition(), cartesianPosition())) {
+            byte[] bytes = serializer.serialize(p);
+            var transport = new TMemoryInputTransport(bytes);
+            var protocol = new TBinaryProtocol(transport);
+            var into = new PositionD();
+            String kind = p.isSetJoints() ? "joint    " : "cartesian";
+
+            Bench.measure("decode "+kind+" Position  ", Math.min(iterations, 1000), iterations, () -> {
+                transport.reset(bytes);
+                var decoded = new Position();
+                decoded.read(protocol);
+                return decoded.getOrientUnit().getValue();
+            });
+            Bench.measure("decode "+kind+" PositionD ", Math.min(iterations, 1000), iterations, () -> {
+                transport.reset(bytes);
+                into.read(protocol);
+                return into.orientUnit().getValue();
+            });
+        }
+
+        // calls
+        if (args.length <= 1) {
+            var server = MockMotionServer.start(port);
+            var serving = new Thread(server::serve);
+            serving.setDaemon(true);
+            serving.start();
+            Thread.sleep(200);
+        }
+        var extension = new Extension("yii.benchmark.position", new Version(1,0,0), "Yaskawa", Set.of("en"), host, port);
+        try {
+            var robot = extension.controller().currentRobot();
+            var world = new CoordinateFrame();
+            world.setRep(CoordFrameRepresentation.Implicit);
+            world.setPredefined(PredefinedCoordFrameType.World);
+            var into = new PositionD();
+            int calls = Math.min(iterations, 10000);
+
+            Bench.measure("jointPosition(unit)              ", Math.min(calls, 1000), calls, () -> robot.jointPosition(OrientationUnit.Radian).getJoints().size());
+            Bench.measure("jointPosition(unit, PositionD)   ", Math.min(calls, 1000), calls, () -> robot.jointPosition(OrientationUnit.Radian, into).jointCount());
+            Bench.measure("toolTipPosition(frame, tool)     ", Math.min(calls, 1000), calls, () -> robot.toolTipPosition(world, 0).getPos().size());
+            Bench.measure("toolTipPosition(.., PositionD)   ", Math.min(calls, 1000), calls, () -> robot.toolTipPosition(world, 0, into).orientCount());
+        } finally {
+            extension.close();
+        }
+        System.exit(0);
+    }
+
+    static Position jointPosition()
+    {
+        var frame = new CoordinateFrame();
+        frame.setRep(CoordFrameRepresentation.Implicit);
+        frame.setPredefined(PredefinedCoordFrameType.Joint);
+        var p = new Position();
+        p.setFrame(frame);
+        p.setOrientUnit(OrientationUnit.Radian);
+        p.setJoints(List.of(0.1, -0.5, 1.2, 0.0, 0.7, -3.1));
+        return p;
+    }
+
+    static Position cartesianPosition()
+    {
+        var frame = new CoordinateFrame();
+        frame.setRep(CoordFrameRepresentation.Implicit);
+        frame.setPredefined(PredefinedCoordFrameType.World);
+        var orient = new Orient();
+        orient.setRep(OrientationRepresentation.EulerRPY);
+        orient.setV(List.of(180.0, 0.0, 45.0));
+        var p = new Position();
+        p.setFrame(frame);
+        p.setDistUnit(DistanceUnit.Millimeter);
+        p.setOrientUnit(OrientationUnit.Degree);
+        p.setPos(List.of(500.0, 120.5, 300.25));
+        p.setOrient(orient);
+        return p;
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.*;
+import java.lang.management.ManagementFactory;
+
+import yaskawa.ext.*;
+import yaskawa.ext.api.CoordinateFrame;
+import yaskawa.ext.api.CoordFrameRepresentation;
+import yaskawa.ext.api.OrientationUnit;
+import yaskawa.ext.api.PredefinedCoordFrameType;
+
+
+/**
+ * Compares tracking robot motion by polling jointPosition() & toolTipPosition()
+ *  against Robot.streamPositions(), in achieved sample rate and heap allocation per sample.
+ *
+ * With no host given, runs against an in-process MockMotionServer.
+ *
+ * usage: run.sh PositionStreamBenchmark [host port] [rate] [seconds]
+ */
+public class PositionStreamBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        String host = args.length > 1 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 10080;
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 1000;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 5;
+
+        if (args.length <= 1) {
+            var server = MockMotionServer.start(port);
+            var serving = new Thread(server::serve);
+            serving.setDaemon(true);
+            serving.start();
+            Thread.sleep(200);
+        }
+
+        var extension = new Extension("yii.benchmark.positionstream", new Version(1,0,0), "Yaskawa", Set.of("en"), host, port);
+        try {
+            var robot = extension.controller().currentRobot();
+            var world = new CoordinateFrame();
+            world.setRep(CoordFrameRepresentation.Implicit);
+            world.setPredefined(PredefinedCoordFrameType.World);
+
+            System.out.println("Target "+rate+" Hz for "+seconds+" s");
+
+            // polling, as fast as the round trips allow (upto the target rate)
+            var threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+            long thread = Thread.currentThread().getId();
+            long polled = 0;
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            long end = start + (long)(seconds*1e9);
+            long period = (long)(1e9/rate);
+            for(long next = start; System.nanoTime() < end; next += period) {
+                while (System.nanoTime() < next)
+                    Thread.onSpinWait();
+                robot.jointPosition(OrientationUnit.Radian);
+                robot.toolTipPosition(world, 0);
+                polled++;
+            }
+            report("polling ", polled, System.nanoTime() - start, threads.getThreadAllocatedBytes(thread) - allocated, 0);
+
+            // streaming; allocation measured on the stream thread from the first to the last sample
+            var first = new long[] { -1, 0 };
+            var last = new long[1];
+            start = System.nanoTime();
+            var stream = robot.streamPositions(rate, 1, (sequence, time, joints, tcp) -> {
+                long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                if (first[0] < 0) {
+                    first[0] = bytes;
+                    first[1] = sequence;
+                }
+                last[0] = bytes;
+            });
+            Thread.sleep((long)(seconds*1000));
+            stream.close();
+            report(stream.streaming() ? "stream  " : "stream (polled fallback)", stream.received(), System.nanoTime() - start, last[0] - first[0], stream.dropped());
+        } finally {
+            extension.close();
+        }
+        System.exit(0);
+    }
+
+    static void report(String label, long samples, long nanos, long bytes, long dropped)
+    {
+        System.out.printf("%s %8d samples %9.1f/s %9.1f bytes/sample %6d dropped%n",
+                          label, samples, samples / (nanos/1e9), (double)bytes / Math.max(1, samples), dropped);
+    }
+}
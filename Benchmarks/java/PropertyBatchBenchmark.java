@@ -0,0 +1,101 @@
+import java.util.*;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TTransport;
+
+import yaskawa.ext.*;
+
+
+/**
+ * Compares building (and encoding) a frame of property updates as a List<PropValue>
+ *  converted by Pendant.propValues() (as setProperties(List<PropValue>) does) against a
+ *  reused PropertyBatch: time & heap allocation per frame.
+ *
+ * usage: run.sh PropertyBatchBenchmark [items] [properties per item]
+ */
+public class PropertyBatchBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int perItem = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int iterations = Math.max(1000, 2000000 / (items * perItem));
+
+        var itemIDs = new String[items];
+        for(int i=0; i<items; i++)
+            itemIDs[i] = "item"+i;
+        String[] names = { "text", "color", "visible", "value", "enabled", "width" };
+
+        var transport = new CountingTransport();
+        var client = new yaskawa.ext.api.Pendant.Client(new TBinaryProtocol(transport));
+
+        Bench.measure("List<PropValue> build ", Math.min(iterations, 1000), iterations, 1, "frame", () -> {
+            var list = new ArrayList<Pendant.PropValue>();
+            for(int p=0; p<perItem; p++)
+                for(int i=0; i<items; i++)
+                    list.add(property(itemIDs[i], names[p % names.length], i + p));
+            return Pendant.propValues(list).size();
+        });
+
+        var batch = new PropertyBatch(items);
+        Bench.measure("PropertyBatch build   ", Math.min(iterations, 1000), iterations, 1, "frame", () -> {
+            batch.reset();
+            for(int p=0; p<perItem; p++)
+                for(int i=0; i<items; i++)
+                    set(batch, itemIDs[i], names[p % names.length], i + p);
+            return batch.items();
+        });
+
+        Bench.measure("List<PropValue> encode", Math.min(iterations, 1000), iterations, 1, "frame", () -> {
+            var list = new ArrayList<Pendant.PropValue>();
+            for(int p=0; p<perItem; p++)
+                for(int i=0; i<items; i++)
+                    list.add(property(itemIDs[i], names[p % names.length], i + p));
+            transport.written = 0;
+            client.setProperties(1, Pendant.propValues(list));
+            return transport.written;
+        });
+
+        Bench.measure("PropertyBatch encode  ", Math.min(iterations, 1000), iterations, 1, "frame", () -> {
+            batch.reset();
+            for(int p=0; p<perItem; p++)
+                for(int i=0; i<items; i++)
+                    set(batch, itemIDs[i], names[p % names.length], i + p);
+            transport.written = 0;
+            client.setProperties(1, batch.propValues());
+            return transport.written;
+        });
+    }
+
+    // a mix of value types, as typical of a frame of UI updates
+    static Pendant.PropValue property(String itemID, String name, int v)
+    {
+        switch (v % 3) {
+            case 0: return Pendant.propValue(itemID, name, v % 2 == 0);
+            case 1: return Pendant.propValue(itemID, name, v);
+            default: return Pendant.propValue(itemID, name, "value "+(v % 10));
+        }
+    }
+
+    static void set(PropertyBatch batch, String itemID, String name, int v)
+    {
+        switch (v % 3) {
+            case 0: batch.set(itemID, name, v % 2 == 0); break;
+            case 1: batch.set(itemID, name, v); break;
+            default: batch.set(itemID, name, "value "+(v % 10));
+        }
+    }
+
+
+    // discards (but counts) bytes written
+    static class CountingTransport extends TTransport
+    {
+        public boolean isOpen() { return true; }
+        public void open() {}
+        public void close() {}
+        public int read(byte[] buf, int off, int len) { return 0; }
+        public void write(byte[] buf, int off, int len) { written += len; }
+
+        int written;
+    }
+}
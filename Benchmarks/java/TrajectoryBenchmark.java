@@ -0,0 +1,79 @@
+import java.util.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import yaskawa.ext.*;
+
+
+/**
+ * Measures TrajectoryRecorder throughput and compression ratio, and TrajectoryReader
+ *  range query & downsampled read speed, for synthetic 6-axis motion (joints + ToolTip)
+ *  sampled at 1kHz, alternating moving and stationary periods (as a robot cycling a job).
+ *
+ * usage: run.sh TrajectoryBenchmark [seconds of motion] [directory]
+ */
+public class TrajectoryBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3600;
+        Path directory = args.length > 1 ? Path.of(args[1]) : Files.createTempDirectory("trajectory");
+        int channels = 12;
+        long samples = seconds * 1000L;
+
+        var values = new double[channels];
+        var joints = new double[6];
+        var tcp = new double[6];
+        long start = System.nanoTime();
+        try (var recorder = new TrajectoryRecorder(directory, channels)) {
+            for(long i=0; i<samples; i++) {
+                long micros = i * 1000;
+                // moving for 10s, stationary for 5s
+                double t = (micros % 15_000_000L) < 10_000_000L ? micros / 1e6 : Math.floor(micros / 15e6) * 15 + 10;
+                MockMotionServer.joints(t, joints);
+                MockMotionServer.tcp(t, tcp);
+                System.arraycopy(joints, 0, values, 0, 6);
+                System.arraycopy(tcp, 0, values, 6, 6);
+                recorder.record(micros, values, 0);
+            }
+            recorder.flush();
+            long elapsed = System.nanoTime() - start;
+            long raw = samples * (8 + 8L*channels);
+            System.out.println(String.format("record     %10.0f samples/s  %8.1f ns/sample", samples / (elapsed / 1e9), (double)elapsed / samples));
+            System.out.println(String.format("size       %10d bytes (raw %d)  ratio %.2f  %.2f bytes/sample",
+                                             recorder.bytesWritten(), raw, (double)raw / recorder.bytesWritten(), (double)recorder.bytesWritten() / samples));
+        }
+
+        try (var reader = new TrajectoryReader(directory)) {
+            long[] sink = new long[1];
+            TrajectoryReader.Visitor visitor = (time, v) -> sink[0] += time;
+
+            start = System.nanoTime();
+            long read = reader.read(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("read all   %10.0f samples/s  %8.1f ns/sample", read / (elapsed / 1e9), (double)elapsed / read));
+
+            // random 1 minute windows
+            var random = new Random(1);
+            int queries = 200;
+            long range = 60_000_000L;
+            read = 0;
+            start = System.nanoTime();
+            for(int q=0; q<queries; q++) {
+                long from = (long)(random.nextDouble() * Math.max(1, samples * 1000 - range));
+                read += reader.read(from, from + range, visitor);
+            }
+            elapsed = System.nanoTime() - start;
+            System.out.println(String.format("range 60s  %10.1f us/query  (%d samples)", elapsed / 1e3 / queries, read / queries));
+
+            for(var mode : TrajectoryReader.Downsample.values()) {
+                start = System.nanoTime();
+                read = reader.read(reader.startTime(), reader.endTime(), 100_000L, mode, visitor);
+                elapsed = System.nanoTime() - start;
+                System.out.println(String.format("10Hz %-5s %10.1f ms  (%d samples)", mode, elapsed / 1e6, read));
+            }
+            System.out.println("("+sink[0]+")");
+        }
+        System.exit(0);
+    }
+}
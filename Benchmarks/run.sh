@@ -0,0 +1,5 @@
+#!/bin/bash
+
+# usage: run.sh <BenchmarkClass> [args...]
+cd java
+java -cp ../../java/yaskawa-ext-2.2.0.jar:../../java/lib/libthrift-0.11.0.jar:../../java/lib/slf4j-api.jar:../../java/lib/slf4j-simple.jar:. "$@"
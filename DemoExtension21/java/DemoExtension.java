@@ -41,13 +41,11 @@ import yaskawa.ext.*;
 import yaskawa.ext.api.Data;
 import yaskawa.ext.api.Series;
 import yaskawa.ext.api.Category;
-import yaskawa.ext.api.DataPoint;
 import static yaskawa.ext.Pendant.propValue;
 
 import java.text.MessageFormat;
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DemoExtension {
 
@@ -149,17 +147,20 @@ public class DemoExtension {
           ));
 
 
+        // UI assets are collected, then registered together (pipelined)
+        var assets = new AssetRegistrar(pendant);
+
         // register language .properties file for YML string translation in UI
         //  (only current language needs to be registered)
         if (translatedLanguageLocales.contains(localeName))
-            pendant.registerTranslationFile(lang,"LanguageBundle_"+localeName+".properties");
+            assets.translation(lang,"LanguageBundle_"+localeName+".properties");
         else
-            pendant.registerTranslationFile("en","LanguageBundle_en.properties");
+            assets.translation("en","LanguageBundle_en.properties");
 
-        pendant.registerImageFile("images/MotoMINI_InHand.png");
-        pendant.registerImageFile("images/fast-forward-icon.png");
-        pendant.registerImageFile("images/d-icon-256.png");
-        pendant.registerImageFile("images/d-icon-lt-256.png");
+        assets.image("images/MotoMINI_InHand.png");
+        assets.image("images/fast-forward-icon.png");
+        assets.image("images/d-icon-256.png");
+        assets.image("images/d-icon-lt-256.png");
 
 
         // if support for multiple languages is anticipated, it is good
@@ -172,7 +173,7 @@ public class DemoExtension {
         if (!(f.exists() && !f.isDirectory())) // non-existent
             helpFile = "help/en/something-help.html";
 
-        pendant.registerHTMLFile(helpFile);
+        assets.html(helpFile);
 
 
         // Register all our YML files
@@ -191,37 +192,42 @@ public class DemoExtension {
             "NavPanel.yml"
           );
         for(var ymlFile : ymlFiles)
-            pendant.registerYMLFile(ymlFile);
+            assets.yml(ymlFile);
 
 
         // A Utility window
-        pendant.registerUtilityWindow("demoWindow",    // id
-                                      "UtilWindow",    // Item type
-                                      "Demo Extension",// Menu name
-                                      "Demo Utility"); // Window title
+        assets.utilityWindow("demoWindow",    // id
+                             "UtilWindow",    // Item type
+                             "Demo Extension",// Menu name
+                             "Demo Utility"); // Window title
 
         // A Navigatio panel (main programming screen)
-        pendant.registerIntegration("navpanel", // id
-                                    IntegrationPoint.NavigationPanel, // where
-                                    "NavPanel", // YML Item type
-                                    "Demo",     // Button label
-                                    "images/d-icon-256.png"); // Button icon
+        assets.integration("navpanel", // id
+                           IntegrationPoint.NavigationPanel, // where
+                           "NavPanel", // YML Item type
+                           "Demo",     // Button label
+                           "images/d-icon-256.png"); // Button icon
 
         // place a button with icon on each jogging panel integration point
         //  (may have icon and/or short label, but width is limited)
         String jogPanelIconLight = "images/d-icon-lt-256.png";
         String jogPanelIconDark = "images/d-icon-256.png";
-        //                          id                 where displayed                                      label    icon
-        pendant.registerIntegration("jogTopLeft",      IntegrationPoint.SmartFrameJogPanelTopLeft,      "", "TPL",   jogPanelIconLight);
-        pendant.registerIntegration("jogTopRight",     IntegrationPoint.SmartFrameJogPanelTopRight,     "", "TPR",   jogPanelIconLight);
-        pendant.registerIntegration("jogBottomLeft",   IntegrationPoint.SmartFrameJogPanelBottomLeft,   "", "BTL",   jogPanelIconDark);
-        pendant.registerIntegration("jogBottomCenter", IntegrationPoint.SmartFrameJogPanelBottomCenter, "", "BTCTR", jogPanelIconDark);
-        pendant.registerIntegration("jogBottomRight",  IntegrationPoint.SmartFrameJogPanelBottomRight,  "", "BTR",   jogPanelIconDark);
+        //                 id                 where displayed                                      label    icon
+        assets.integration("jogTopLeft",      IntegrationPoint.SmartFrameJogPanelTopLeft,      "", "TPL",   jogPanelIconLight);
+        assets.integration("jogTopRight",     IntegrationPoint.SmartFrameJogPanelTopRight,     "", "TPR",   jogPanelIconLight);
+        assets.integration("jogBottomLeft",   IntegrationPoint.SmartFrameJogPanelBottomLeft,   "", "BTL",   jogPanelIconDark);
+        assets.integration("jogBottomCenter", IntegrationPoint.SmartFrameJogPanelBottomCenter, "", "BTCTR", jogPanelIconDark);
+        assets.integration("jogBottomRight",  IntegrationPoint.SmartFrameJogPanelBottomRight,  "", "BTR",   jogPanelIconDark);
         // unlike the integration points above, which only show when the jogging mode is 'smart frame', this one
         //  remains for all jogging modes:
-        pendant.registerIntegration("JogTopCenter",    IntegrationPoint.JogPanelTopCenter,              "", "TOP",   jogPanelIconLight);
+        assets.integration("JogTopCenter",    IntegrationPoint.JogPanelTopCenter,              "", "TOP",   jogPanelIconLight);
+
+        assets.integration("test2",    IntegrationPoint.SmartFrameJogPanelBottomAny,              "", "ANY",   jogPanelIconLight);
 
-        pendant.registerIntegration("test2",    IntegrationPoint.SmartFrameJogPanelBottomAny,              "", "ANY",   jogPanelIconLight);
+        var report = assets.register();
+        System.out.println(report);
+        if (!report.errors().isEmpty())
+            throw new Exception("Error registering "+report.errors().keySet());
 
         // call onControlsItemClicked() for buttons on ControlsTab
         pendant.addItemEventConsumer("successbutton", PendantEventType.Clicked, this::onControlsItemClicked);
@@ -625,6 +631,7 @@ public class DemoExtension {
                 init = true;
                 updRate = 50;
                 chartScale = 1.0;
+                frames = new FrameScheduler(pendant, 20); // UI updates sent in frames, 20 times/sec
 
                 // Scatter Chart
                 pendant.setChartConfig("exampleScatter", Map.of(
@@ -723,48 +730,47 @@ public class DemoExtension {
                 System.out.println("Exception in run init: " + exceptionMessage(ex));
             }
 
-            /* start a data producing thread */
-            updThread = new Thread(() -> {
-                while (run.get()) {
-                    try {
-                        Thread.sleep(updRate);
-                        update.set(true);
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    }
-                }
-            });
-            updThread.start();
+            /* produce chart data each frame */
+            if (frames != null)
+                frames.addHandler(this::updateChart);
         }
     }
 
-    public boolean updateChart()
+    // called by FrameScheduler each frame; adds a point each updRate millisecs
+    public void updateChart(long frame)
     {
-        if (update.compareAndSet(true, false)) {
-            try {
-                DataPoint pt = new DataPoint(time, Math.sin(time));
-                pendant.appendChartPoint("exampleLine", "Series 3", pt, true);
-                pendant.incrementChartKey("exampleBar", "Darker", 1.0);
+        // report any failure of previous frames (which continue regardless)
+        long failures = frames.failures();
+        if (failures != reportedFailures) {
+            reportedFailures = failures;
+            System.out.println("updateChart: " + exceptionMessage(frames.failure()));
+        }
 
-                time += 0.1;
+        long now = System.currentTimeMillis();
+        if (now - lastUpdate < updRate)
+            return;
+        lastUpdate = now;
 
-                if (time > 12) {
-                    time = 0;
-                }
-            } catch (Exception ex) { 
-                System.out.println("appendChartPoint: " + ex);
-            }
-        }
+        var charts = frames.charts();
+        charts.stream("exampleLine", "Series 3", true).append(time, Math.sin(time));
+        charts.stream("exampleBar", "Darker").increment(1.0);
+
+        time += 0.1;
 
-        return false;
+        if (time > 12) {
+            time = 0;
+        }
     }
 
 
     public void close()
     {
-        run.set(false);
         try {
-            updThread.join();
+            if (frames != null) {
+                frames.close();
+                if (frames.failures() > reportedFailures)
+                    System.out.println("updateChart: " + exceptionMessage(frames.failure()));
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -793,7 +799,7 @@ public class DemoExtension {
 
             // run 'forever' (or until API service shutsdown)
             try {
-                thisExtension.extension.run(thisExtension::updateChart);
+                thisExtension.extension.run(() -> false);
             } catch (Exception e) {
                 System.out.println("Exception occured:"+exceptionMessage(e));
             }
@@ -808,12 +814,12 @@ public class DemoExtension {
         }
     }
 
-    protected Thread updThread;
+    protected FrameScheduler frames;
+    protected long reportedFailures;
+    protected long lastUpdate;
     protected int updRate;
     protected double chartScale;
     protected double time;
-    protected AtomicBoolean run = new AtomicBoolean(true);
-    protected AtomicBoolean update = new AtomicBoolean(false);
 
     protected Extension extension;
     protected final Pendant pendant;
@@ -233,6 +233,17 @@ union Data {
 
 typedef map<string, Data> DataSet;
 
+/** An update of one chart key (see Pendant.updateCharts()) */
+struct ChartKeyUpdate {
+    1: string chartID;
+    2: string key;
+    3: optional bool right;        // key of the right hand scale dataset
+    4: optional binary points;     // points to append, as little-endian doubles (see appendChartPointsPacked)
+    5: optional i32 dims;          // values per point in points: 2 (x,y) or 3 (x,y,z)
+    6: optional double increment;  // category value increment
+    7: optional bool hidden;       // hide/show key
+}
+
 
 /**
   The Extension API.
@@ -542,6 +553,26 @@ service Pendant
     void incrementChartKey(1:PendantID p, 2:string chartID, 3:string key, 4:double val)
         throws (1:IllegalArgument e);
 
+    /** As appendChartPoints(), with the points packed as little-endian doubles - x,y per point
+        (x,y,z if dims is 3) - avoiding the per-element encoding of list<DataPoint>.
+    */
+    oneway void appendChartPointsPacked(1:PendantID p, 2:string chartID, 3:string key,
+                    4:binary points, 5:i32 dims, 6:bool right);
+
+    /** Set (or add) the Series data of a chart key, with x, y and z (empty if none) packed as
+        little-endian doubles.  Other Series fields (color, maxPts etc.) are taken from
+        attributes (whose x & y are ignored).
+    */
+    void setChartSeriesPacked(1:PendantID p, 2:string chartID, 3:string key, 4:binary x, 5:binary y, 6:binary z,
+                    7:Series attributes, 8:bool right)
+        throws (1:IllegalArgument e);
+
+    /** Update many chart keys in one call - appending points, incrementing category values
+        and hiding/showing keys, of any charts - applied in the order given.
+    */
+    void updateCharts(1:PendantID p, 2:list<ChartKeyUpdate> updates)
+        throws (1:IllegalArgument e);
+
     /** Export the current chart contents to the specified filename (must be uniquely named, with .jpg or .png).
         Calls exportChartImageData if the extension is unable to access the file.
     */
@@ -616,6 +647,8 @@ typedef i32 RobotIndex
 typedef i32 ToolIndex
 typedef i32 UserFrameIndex
 typedef i32 ZoneIndex
+typedef i64 JobTransferID
+typedef i64 PositionStreamID
 
 enum ControllerEventType {
     Connected = 0,
@@ -639,7 +672,7 @@ enum ControllerEventType {
     JoggingActive,
     JoggingSpeedChanged,
     JoggingModeChanged,
-    RobotTCPPosition, // unused/future
+    RobotTCPPosition, // unused/future (see Robot.subscribePositions())
     BrakeRelease, // unused/future
     SoftLimitRelease,
     SelfInterferenceRelease
@@ -725,6 +758,14 @@ struct ControlGroup {
     4: optional CombinedControlGroup cgroup;
 }
 
+/** Position of one control group within a multi-group sample (see Controller positions()) */
+struct ControlGroupPosition {
+    1: ControlGroup group;
+    2: double time;                 // sample time (secs)
+    3: Position joints;
+    4: optional Position toolTip;   // Robot groups only
+}
+
 
 struct RobotJobInfo {
     1: string name;
@@ -738,6 +779,22 @@ struct RobotJobInfo {
     9: ControlGroup controlling;
 }
 
+/** Replacement of a range of lines of a job source (see patchJobSource()).
+    Replaces lineCount lines from startLine (1-based) of the base source with lines;
+    a lineCount of 0 inserts lines before startLine.
+*/
+struct JobSourcePatch {
+    1: i32 startLine;
+    2: i32 lineCount;
+    3: list<string> lines;
+}
+
+/** Handle to an open chunked job source transfer (see openJobSourceRead()) */
+struct JobSourceTransfer {
+    1: JobTransferID handle;
+    2: i64 length; // source length in bytes (UTF-8), -1 if unknown
+}
+
 
 struct Tool {
     1: ToolIndex index;
@@ -959,6 +1016,41 @@ service Controller
     */
     void storeJobSource(1:ControllerID c, 2:string name, 3:string programmingLanguage, 4:string sourceCode) throws (1:IllegalArgument e);
 
+    /** Begin a chunked read of the source code for the named job.
+        Chunks are subsequently obtained via readJobSourceChunk() and the transfer
+        released via closeJobSourceTransfer().  Other calls may be made between chunks.
+    */
+    JobSourceTransfer openJobSourceRead(1:ControllerID c, 2:string name) throws (1:IllegalArgument e);
+
+    /** Read the next chunk (upto maxBytes) of UTF-8 encoded job source.
+        Returns an empty chunk once the whole source has been read.
+    */
+    binary readJobSourceChunk(1:ControllerID c, 2:JobTransferID handle, 3:i32 maxBytes) throws (1:IllegalArgument e);
+
+    /** Begin a chunked store of source code for the named job, in given programmingLanguage (e.g. "INFORM").
+        Chunks are appended via writeJobSourceChunk() and the job replaced only once commitJobSource() is called.
+    */
+    JobTransferID openJobSourceWrite(1:ControllerID c, 2:string name, 3:string programmingLanguage) throws (1:IllegalArgument e);
+
+    /** Append a chunk of UTF-8 encoded job source to an open write transfer */
+    void writeJobSourceChunk(1:ControllerID c, 2:JobTransferID handle, 3:binary chunk) throws (1:IllegalArgument e);
+
+    /** Replace the job with the source written to the transfer.
+        Will throw if syntax errors in source.  The transfer is closed in either case.
+    */
+    void commitJobSource(1:ControllerID c, 2:JobTransferID handle) throws (1:IllegalArgument e);
+
+    /** Release a read transfer, or abandon an uncommitted write transfer (no effect if already closed) */
+    void closeJobSourceTransfer(1:ControllerID c, 2:JobTransferID handle);
+
+    /** Modify named job by applying line patches to its source, as of the job version last edited at
+        baseTimestamp (see RobotJobInfo.timestamp).  Patches must be in ascending, non-overlapping line order,
+        with line numbers relative to the base source.
+        Returns the new job timestamp, or -1 if the job timestamp no longer matches baseTimestamp
+        (in which case the job is unchanged).  Will throw if syntax errors in resulting source.
+    */
+    i64 patchJobSource(1:ControllerID c, 2:string name, 3:i64 baseTimestamp, 4:list<JobSourcePatch> patches) throws (1:IllegalArgument e);
+
 
 
     //
@@ -1078,6 +1170,11 @@ service Controller
     */
     RobotIndex currentRobot(1:ControllerID c);
 
+    /** Joint (and, for Robot groups, ToolTip) positions of the given simple control groups,
+        all sampled in the same controller cycle (in the order given).  ToolTip is in tcpFrame, for each robot's active tool. */
+    list<ControlGroupPosition> positions(1:ControllerID c, 2:list<ControlGroup> groups,
+                                         3:OrientationUnit jointUnit, 4:CoordinateFrame tcpFrame) throws (1:IllegalArgument e);
+
 
     //
     // Variables
@@ -1177,6 +1274,19 @@ service Controller
 }
 
 
+/** Samples from a robot position stream (see Robot.subscribePositions())
+    samples holds sampleCount records, each of (1 + dof + 6) little-endian doubles:
+      sample time (secs), dof joint values, ToolTip x,y,z,rx,ry,rz
+    Sequence numbers are consecutive, so a gap from the last batch indicates dropped samples.
+*/
+struct PositionSamples {
+    1: i64 firstSequence;
+    2: i32 sampleCount;
+    3: i32 dof;
+    4: binary samples;
+}
+
+
 /** Represents a single robot 
 
     Often there will only be one robot connected to a given controller
@@ -1216,5 +1326,17 @@ service Robot
     /** Set the currently active tool */
     void setActiveTool(1:RobotIndex r, 2:ToolIndex tool);
 
+
+    /** Start streaming joint & ToolTip positions, sampled at rate (Hz), keeping every decimation-th sample.
+        Joint values are in jointUnit, ToolTip in tcpFrame for the given tool (active tool if -1).
+        Samples are buffered by the service (oldest dropped on overflow) until retrieved via positionSamples(). */
+    PositionStreamID subscribePositions(1:RobotIndex r, 2:double rate, 3:i32 decimation,
+                                        4:OrientationUnit jointUnit, 5:CoordinateFrame tcpFrame, 6:ToolIndex tool) throws (1:IllegalArgument e);
+
+    /** Retrieve upto maxSamples buffered samples, waiting upto timeout millisecs if none are pending */
+    PositionSamples positionSamples(1:PositionStreamID s, 2:i32 maxSamples, 3:i32 timeout) throws (1:IllegalArgument e);
+
+    void unsubscribePositions(1:PositionStreamID s);
+
 }
 
@@ -0,0 +1,225 @@
+package yaskawa.ext;
+
+import java.util.*;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Conversion of Java values to Any (as used by Extension.toAny()).
+ *
+ * The conversion for each class is looked up once (per class, via a ClassValue) rather
+ *  than by testing each value against a chain of types.  In addition to the boxed
+ *  primitives, String, Position, Lists & Maps (with String keys), it converts:
+ *   - double[] & float[] to a Vector (vValue), without boxing a list of Doubles
+ *   - long[], int[], short[], boolean[] & Object arrays to an array (aValue)
+ *   - other Collections to an array (aValue)
+ *
+ * Each call returns new Any values (which callers may modify).  Within the SDK, where an
+ *  Any isn't handed back to the caller (e.g. by PropertyBatch), shared() returns shared
+ *  constants for true, false, "" & small integers instead.
+ */
+public class AnyConverter
+{
+    public static Any toAny(Object o)
+    {
+        if (o == null)
+            throw new RuntimeException("Unsupported conversion to Any from null");
+        // most common (final) scalar classes first, by identity
+        var type = o.getClass();
+        if (type == String.class)
+            return toAny((String)o);
+        if (type == Integer.class)
+            return toAny((long)(Integer)o);
+        if (type == Double.class)
+            return Any.rValue((Double)o);
+        if (type == Boolean.class)
+            return toAny((boolean)(Boolean)o);
+        if (type == Long.class)
+            return toAny((long)(Long)o);
+        return converters.get(type).convert(o);
+    }
+
+    public static Any toAny(boolean b)
+    {
+        return Any.bValue(b);
+    }
+
+    public static Any toAny(long i)
+    {
+        return Any.iValue(i);
+    }
+
+    public static Any toAny(double r)
+    {
+        return Any.rValue(r);
+    }
+
+    public static Any toAny(String s)
+    {
+        return Any.sValue(s);
+    }
+
+    // shared constants where possible - only for Any values not handed back to the caller,
+    //  as they must not be modified
+    static Any shared(boolean b)
+    {
+        return b ? TRUE : FALSE;
+    }
+
+    static Any shared(long i)
+    {
+        return (i >= smallIntMin && i <= smallIntMax) ? smallInts[(int)i - smallIntMin] : Any.iValue(i);
+    }
+
+    static Any shared(String s)
+    {
+        return s.isEmpty() ? EMPTY_STRING : Any.sValue(s);
+    }
+
+    /** values[offset..offset+length) as a Vector */
+    public static Any toAny(double[] values, int offset, int length)
+    {
+        return Any.vValue(new DoubleList(Arrays.copyOfRange(values, offset, offset + length)));
+    }
+
+    public static Any toAny(List<?> list)
+    {
+        var a = new ArrayList<Any>(list.size());
+        for(var e : list)
+            a.add(toAny(e));
+        return Any.aValue(a);
+    }
+
+    public static Any toAny(Map<?,?> map)
+    {
+        var m = new HashMap<String,Any>(capacity(map.size()));
+        for(var e : map.entrySet()) {
+            if (!(e.getKey() instanceof String))
+                throw new RuntimeException("Maps with non-String keys unsupported");
+            m.put((String)e.getKey(), toAny(e.getValue()));
+        }
+        return Any.mValue(m);
+    }
+
+
+    protected interface Converter
+    {
+        Any convert(Object o);
+    }
+
+    protected static final ClassValue<Converter> converters = new ClassValue<Converter>() {
+        protected Converter computeValue(Class<?> type) { return converterFor(type); }
+    };
+
+    protected static Converter converterFor(Class<?> type)
+    {
+        if (type == Boolean.class)
+            return o -> toAny(((Boolean)o).booleanValue());
+        if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class)
+            return o -> toAny(((Number)o).longValue());
+        if (type == Double.class || type == Float.class)
+            return o -> toAny(((Number)o).doubleValue());
+        if (type == String.class)
+            return o -> toAny((String)o);
+        if (Position.class.isAssignableFrom(type))
+            return o -> Any.pValue((Position)o);
+
+        if (type == double[].class)
+            return o -> Any.vValue(new DoubleList(((double[])o).clone()));
+        if (type == float[].class)
+            return o -> {
+                var f = (float[])o;
+                var d = new double[f.length];
+                for(int i=0; i<f.length; i++)
+                    d[i] = f[i];
+                return Any.vValue(new DoubleList(d));
+            };
+        if (type == long[].class)
+            return o -> {
+                var v = (long[])o;
+                var a = new ArrayList<Any>(v.length);
+                for(var e : v)
+                    a.add(toAny(e));
+                return Any.aValue(a);
+            };
+        if (type == int[].class)
+            return o -> {
+                var v = (int[])o;
+                var a = new ArrayList<Any>(v.length);
+                for(var e : v)
+                    a.add(toAny(e));
+                return Any.aValue(a);
+            };
+        if (type == short[].class)
+            return o -> {
+                var v = (short[])o;
+                var a = new ArrayList<Any>(v.length);
+                for(var e : v)
+                    a.add(toAny(e));
+                return Any.aValue(a);
+            };
+        if (type == boolean[].class)
+            return o -> {
+                var v = (boolean[])o;
+                var a = new ArrayList<Any>(v.length);
+                for(var e : v)
+                    a.add(toAny(e));
+                return Any.aValue(a);
+            };
+        if (type.isArray() && !type.getComponentType().isPrimitive())
+            return o -> {
+                var v = (Object[])o;
+                var a = new ArrayList<Any>(v.length);
+                for(var e : v)
+                    a.add(toAny(e));
+                return Any.aValue(a);
+            };
+
+        if (List.class.isAssignableFrom(type))
+            return o -> toAny((List<?>)o);
+        if (Collection.class.isAssignableFrom(type))
+            return o -> {
+                var c = (Collection<?>)o;
+                var a = new ArrayList<Any>(c.size());
+                for(var e : c)
+                    a.add(toAny(e));
+                return Any.aValue(a);
+            };
+        if (Map.class.isAssignableFrom(type))
+            return o -> toAny((Map<?,?>)o);
+
+        return o -> { throw new RuntimeException("Unsupported conversion to Any from "+type.getSimpleName()); };
+    }
+
+    // HashMap capacity to hold size entries without rehashing
+    protected static int capacity(int size)
+    {
+        return (size < 3) ? size + 1 : (int)(size / 0.75f + 1.0f);
+    }
+
+
+    /** Read-only List<Double> view of a double[] (boxing elements only as they are read) */
+    protected static class DoubleList extends AbstractList<Double> implements RandomAccess
+    {
+        DoubleList(double[] values) { this.values = values; }
+
+        public Double get(int index) { return values[index]; }
+        public int size() { return values.length; }
+
+        protected final double[] values;
+    }
+
+
+    protected static final Any TRUE = Any.bValue(true);
+    protected static final Any FALSE = Any.bValue(false);
+    protected static final Any EMPTY_STRING = Any.sValue("");
+
+    protected static final int smallIntMin = -128;
+    protected static final int smallIntMax = 1023;
+    protected static final Any[] smallInts = new Any[smallIntMax - smallIntMin + 1];
+    static {
+        for(int i=smallIntMin; i<=smallIntMax; i++)
+            smallInts[i - smallIntMin] = Any.iValue(i);
+    }
+}
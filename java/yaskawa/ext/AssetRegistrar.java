@@ -0,0 +1,436 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TType;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Registers an extension's UI assets - translations, images, HTML, YML, utility windows &
+ *  integrations - with a Pendant at startup, from a manifest, a directory or calls.
+ *
+ * Registrations are pipelined: each call is sent without waiting for the reply to the one
+ *  before (up to window calls ahead), on the Pendant's connection, so the service still
+ *  processes them in order (translations, images, HTML, YML, windows then integrations).
+ * Whether files are registered by name (read by the service) or sent as data is decided
+ *  once per session (see Pendant filePathAccess()) by the first file(s) registered one at a
+ *  time, and files sent are read memory-mapped.
+ *
+ *   var report = new AssetRegistrar(pendant).addManifest(Paths.get("assets.txt")).register();
+ *   System.out.println(report);
+ *
+ * Manifest lines (# for comments, double quotes around arguments containing spaces):
+ *   translation <locale> <file>
+ *   image <file>
+ *   html <file>
+ *   yml <file>
+ *   directory <directory>
+ *   window <identifier> <itemType> <menuItemName> <windowTitle>
+ *   integration <identifier> <IntegrationPoint> <itemType> <buttonLabel> <buttonImage>
+ * File names are registered as given (so relative to the working directory).
+ */
+public class AssetRegistrar
+{
+    public enum Phase { Translations, Images, HTML, YML, Windows, Integrations }
+
+    public AssetRegistrar(Pendant pendant)
+    {
+        this.pendant = pendant;
+        assets = new ArrayList<Asset>();
+    }
+
+    public AssetRegistrar translation(String locale, String file) { return add(Phase.Translations, file, locale); }
+    public AssetRegistrar image(String file) { return add(Phase.Images, file); }
+    public AssetRegistrar html(String file) { return add(Phase.HTML, file); }
+    public AssetRegistrar yml(String file) { return add(Phase.YML, file); }
+
+    public AssetRegistrar utilityWindow(String identifier, String itemType, String menuItemName, String windowTitle)
+    {
+        return add(Phase.Windows, identifier, itemType, menuItemName, windowTitle);
+    }
+
+    public AssetRegistrar integration(String identifier, IntegrationPoint integrationPoint, String itemType, String buttonLabel, String buttonImage)
+    {
+        return add(Phase.Integrations, identifier, String.valueOf(integrationPoint.getValue()), itemType, buttonLabel, buttonImage);
+    }
+
+    /** Add the images (.png, .jpg), .html & .yml files of directory (each by name order) */
+    public AssetRegistrar addDirectory(Path directory) throws IOException
+    {
+        var files = new ArrayList<Path>();
+        try (var stream = Files.newDirectoryStream(directory)) {
+            for(var file : stream)
+                if (Files.isRegularFile(file))
+                    files.add(file);
+        }
+        Collections.sort(files);
+        for(var file : files) {
+            var name = file.getFileName().toString().toLowerCase();
+            if (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg"))
+                image(file.toString());
+            else if (name.endsWith(".html") || name.endsWith(".htm"))
+                html(file.toString());
+            else if (name.endsWith(".yml"))
+                yml(file.toString());
+        }
+        return this;
+    }
+
+    /** Add the assets listed by manifest (see class description) */
+    public AssetRegistrar addManifest(Path manifest) throws IOException
+    {
+        int lineNumber = 0;
+        for(var line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            var args = tokens(line);
+            if (args.isEmpty())
+                continue;
+            var kind = args.get(0);
+            int n = args.size() - 1;
+            if (kind.equals("translation") && n == 2)
+                translation(args.get(1), args.get(2));
+            else if (kind.equals("image") && n == 1)
+                image(args.get(1));
+            else if (kind.equals("html") && n == 1)
+                html(args.get(1));
+            else if (kind.equals("yml") && n == 1)
+                yml(args.get(1));
+            else if (kind.equals("directory") && n == 1)
+                addDirectory(Paths.get(args.get(1)));
+            else if (kind.equals("window") && n == 4)
+                utilityWindow(args.get(1), args.get(2), args.get(3), args.get(4));
+            else if (kind.equals("integration") && n == 5) {
+                IntegrationPoint point;
+                try {
+                    point = IntegrationPoint.valueOf(args.get(2));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(manifest+":"+lineNumber+": unknown integration point "+args.get(2));
+                }
+                integration(args.get(1), point, args.get(3), args.get(4), args.get(5));
+            }
+            else
+                throw new IOException(manifest+":"+lineNumber+": invalid asset '"+line.trim()+"'");
+        }
+        return this;
+    }
+
+    public int size() { return assets.size(); }
+
+
+    /**
+     * Register all the assets added, returning a Report of the errors (of assets that failed
+     *  to register) & time taken by each phase
+     */
+    public Report register() throws TException
+    {
+        var ordered = new ArrayList<Asset>(assets);
+        ordered.sort(Comparator.comparing(a -> a.phase)); // (stable)
+        var report = new Report();
+        long start = System.nanoTime();
+
+        // find whether files can be registered by name, with the first file(s)
+        //  (until one is accepted by name or only as data - not failing for reasons of its own)
+        for(var it = ordered.iterator(); it.hasNext() && pendant.filePathAccess == null; ) {
+            var asset = it.next();
+            if (asset.phase.compareTo(Phase.HTML) > 0)
+                break;
+            long t = System.nanoTime();
+            try {
+                switch (asset.phase) {
+                    case Translations: pendant.registerTranslationFile(asset.args[0], asset.name); break;
+                    case Images: pendant.registerImageFile(asset.name); break;
+                    default: pendant.registerHTMLFile(asset.name);
+                }
+            } catch (IllegalArgument e) {
+                report.error(asset.name, e.getMsg());
+            } catch (TApplicationException e) {
+                report.error(asset.name, e.getMessage());
+            } catch (IOException e) {
+                report.error(asset.name, e.toString());
+            }
+            report.sent(asset.phase, t, 0);
+            report.received(asset.phase);
+            it.remove();
+        }
+        report.filePaths = (pendant.filePathAccess == Boolean.TRUE);
+
+        if (ordered.stream().anyMatch(a -> a.phase == Phase.YML))
+            pendant.invalidateShadow(); // items may be recreated
+
+        synchronized(pendant.extension) {
+            var direct = pendant.direct;
+            var inFlight = new ArrayDeque<Call>();
+            try {
+                for(var asset : ordered) {
+                    while (inFlight.size() >= window)
+                        receive(inFlight.poll(), report);
+                    long t = System.nanoTime();
+                    long bytes;
+                    try {
+                        bytes = send(asset, report.filePaths);
+                    } catch (IOException e) {
+                        report.error(asset.name, e.toString());
+                        continue;
+                    }
+                    report.sent(asset.phase, t, bytes);
+                    inFlight.add(new Call(asset, asset.method(report.filePaths), direct.seqid()));
+                }
+                while (!inFlight.isEmpty())
+                    receive(inFlight.poll(), report);
+            } finally {
+                drain(inFlight, report);
+            }
+        }
+
+        report.totalNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    // send registration call for asset, returning bytes of file data sent
+    protected long send(Asset asset, boolean filePaths) throws TException, IOException
+    {
+        var direct = pendant.direct;
+        long bytes = 0;
+        switch (asset.phase) {
+            case Translations:
+            case Images:
+            case HTML: {
+                ByteBuffer data = null;
+                if (!filePaths) {
+                    data = map(asset.name);
+                    bytes = data.remaining();
+                }
+                direct.begin(asset.method(filePaths));
+                direct.i64(1, pendant.id);
+                int field = 2;
+                if (asset.phase == Phase.Translations)
+                    direct.string(field++, asset.args[0]);
+                if (filePaths)
+                    direct.string(field, asset.name);
+                else {
+                    direct.bytes(field, TType.STRING, data);
+                    direct.string(field+1, asset.name);
+                }
+                break;
+            }
+            case YML: {
+                var source = map(asset.name);
+                bytes = source.remaining();
+                direct.begin(asset.method(filePaths));
+                direct.i64(1, pendant.id);
+                direct.bytes(2, TType.STRING, source); // (UTF-8)
+                break;
+            }
+            case Windows:
+                direct.begin(asset.method(filePaths));
+                direct.i64(1, pendant.id);
+                direct.string(2, asset.name);
+                for(int i=0; i<3; i++)
+                    direct.string(i+3, asset.args[i]);
+                break;
+            case Integrations:
+                direct.begin(asset.method(filePaths));
+                direct.i64(1, pendant.id);
+                direct.string(2, asset.name);
+                direct.i32(3, Integer.parseInt(asset.args[0]));
+                for(int i=1; i<4; i++)
+                    direct.string(i+3, asset.args[i]);
+                break;
+        }
+        direct.send();
+        return bytes;
+    }
+
+    protected void receive(Call call, Report report) throws TException
+    {
+        var direct = pendant.direct;
+        var asset = call.asset;
+        try {
+            if (asset.phase == Phase.YML) {
+                var errors = direct.receiveStringList(call.method, call.seqid);
+                if (!errors.isEmpty())
+                    report.errors.put(asset.name, errors);
+            }
+            else
+                direct.receiveVoid(call.method, call.seqid);
+        } catch (IllegalArgument e) {
+            report.error(asset.name, e.getMsg());
+        } catch (TApplicationException e) {
+            if (e.getType() == TApplicationException.BAD_SEQUENCE_ID)
+                throw e; // replies no longer match calls
+            report.error(asset.name, e.getMessage());
+        }
+        report.received(asset.phase);
+    }
+
+    // after a failure, read replies still due so the connection stays usable (closing it if they can't be)
+    protected void drain(Deque<Call> inFlight, Report report)
+    {
+        try {
+            while (!inFlight.isEmpty())
+                receive(inFlight.poll(), report);
+        } catch (TException | RuntimeException e) {
+            pendant.extension.transport.close();
+        }
+    }
+
+    protected static ByteBuffer map(String file) throws IOException
+    {
+        try (var channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // split line into whitespace separated tokens (or "quoted"), ignoring # comments
+    protected static List<String> tokens(String line)
+    {
+        var tokens = new ArrayList<String>();
+        int i = 0, n = line.length();
+        while (i < n) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c))
+                i++;
+            else if (c == '#')
+                break;
+            else if (c == '"') {
+                int end = line.indexOf('"', i+1);
+                if (end < 0)
+                    end = n;
+                tokens.add(line.substring(i+1, end));
+                i = end + 1;
+            }
+            else {
+                int end = i;
+                while (end < n && !Character.isWhitespace(line.charAt(end)))
+                    end++;
+                tokens.add(line.substring(i, end));
+                i = end;
+            }
+        }
+        return tokens;
+    }
+
+    protected AssetRegistrar add(Phase phase, String name, String... args)
+    {
+        assets.add(new Asset(phase, name, args));
+        return this;
+    }
+
+
+    /** Outcome of register() */
+    public static class Report
+    {
+        /** Errors of assets that failed to register (by file name or identifier) */
+        public Map<String, List<String>> errors() { return errors; }
+
+        /** Whether files were registered by name (rather than sent as data) */
+        public boolean filePaths() { return filePaths; }
+
+        public int count(Phase phase) { return count[phase.ordinal()]; }
+        /** File data sent (bytes) */
+        public long bytes(Phase phase) { return bytes[phase.ordinal()]; }
+        /** Time from the first call of phase being sent, to the last reply (nanosecs) */
+        public long phaseNanos(Phase phase) { return end[phase.ordinal()] - start[phase.ordinal()]; }
+        public long totalNanos() { return totalNanos; }
+
+        public String toString()
+        {
+            int total = 0;
+            for(var c : count)
+                total += c;
+            var s = new StringBuilder(String.format("Registered %d assets (%s) in %.1f ms", total,
+                                                    filePaths ? "by file name" : "as data", totalNanos / 1e6));
+            for(var phase : Phase.values()) {
+                if (count(phase) > 0)
+                    s.append(String.format("%n  %-13s %4d %10.1f KB %8.1f ms", phase, count(phase), bytes(phase) / 1024.0, phaseNanos(phase) / 1e6));
+            }
+            for(var entry : errors.entrySet())
+                s.append(String.format("%n  %s: %s", entry.getKey(), String.join("; ", entry.getValue())));
+            return s.toString();
+        }
+
+        void sent(Phase phase, long time, long size)
+        {
+            int p = phase.ordinal();
+            if (count[p] == 0)
+                start[p] = time;
+            count[p]++;
+            bytes[p] += size;
+        }
+
+        void received(Phase phase)
+        {
+            end[phase.ordinal()] = System.nanoTime();
+        }
+
+        void error(String asset, String message)
+        {
+            errors.put(asset, List.of(String.valueOf(message)));
+        }
+
+        protected final Map<String, List<String>> errors = new LinkedHashMap<String, List<String>>();
+        protected boolean filePaths;
+        protected final int[] count = new int[Phase.values().length];
+        protected final long[] bytes = new long[Phase.values().length];
+        protected final long[] start = new long[Phase.values().length];
+        protected final long[] end = new long[Phase.values().length];
+        protected long totalNanos;
+    }
+
+    protected static class Asset
+    {
+        Asset(Phase phase, String name, String[] args)
+        {
+            this.phase = phase;
+            this.name = name;
+            this.args = args;
+        }
+
+        // registration method called
+        String method(boolean filePaths)
+        {
+            switch (phase) {
+                case Translations: return filePaths ? "registerTranslationFile" : "registerTranslationData";
+                case Images: return filePaths ? "registerImageFile" : "registerImageData";
+                case HTML: return filePaths ? "registerHTMLFile" : "registerHTMLData";
+                case YML: return "registerYML";
+                case Windows: return "registerUtilityWindow";
+                default: return "registerIntegration";
+            }
+        }
+
+        final Phase phase;
+        final String name; // file name or identifier
+        final String[] args;
+    }
+
+    protected static class Call
+    {
+        Call(Asset asset, String method, int seqid)
+        {
+            this.asset = asset;
+            this.method = method;
+            this.seqid = seqid;
+        }
+
+        final Asset asset;
+        final String method;
+        final int seqid;
+    }
+
+
+    // maximum calls sent ahead of their replies
+    public int window = 16;
+
+    protected final Pendant pendant;
+    protected final List<Asset> assets;
+}
@@ -0,0 +1,330 @@
+package yaskawa.ext;
+
+import java.util.*;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Reduction of line/scatter chart Series data to about as many points as the chart can
+ *  usefully display (e.g. Series maxPts), before sending it to the pendant.
+ *
+ *  LTTB   - Largest-Triangle-Three-Buckets: one point per bucket, chosen to preserve
+ *            the visual shape of the line
+ *  MinMax - the minimum & maximum y point of each bucket, preserving peaks (e.g. of noisy
+ *            sensor data) at up to 2 points per bucket
+ *
+ * Whole series can be reduced (e.g. for setChartData()) with decimate(); a Decimator reduces
+ *  points incrementally as they are appended (see ChartStreams.setDecimation()).
+ */
+public class ChartDecimation
+{
+    public enum Method { None, LTTB, MinMax }
+
+    /**
+     * Indices of the points of x,y[0..n) selected by method to reduce to at most maxPts,
+     *  into selected (which must have room for maxPts); returns count selected
+     */
+    public static int select(Method method, double[] x, double[] y, int n, int maxPts, int[] selected)
+    {
+        if (method == Method.None || n <= maxPts || maxPts < 3) {
+            int count = Math.min(n, Math.max(maxPts, 0));
+            for(int i=0; i<count; i++)
+                selected[i] = n - count + i; // most recent
+            return count;
+        }
+        return (method == Method.LTTB) ? lttb(x, y, n, maxPts, selected)
+                                       : minMax(y, n, maxPts, selected);
+    }
+
+    protected static int lttb(double[] x, double[] y, int n, int threshold, int[] selected)
+    {
+        double every = (double)(n - 2) / (threshold - 2);
+        int count = 0;
+        int a = 0;
+        selected[count++] = 0;
+        for(int i=0; i<threshold-2; i++) {
+            // average of next bucket
+            int avgStart = (int)((i + 1) * every) + 1;
+            int avgEnd = Math.min((int)((i + 2) * every) + 1, n);
+            double avgX = 0, avgY = 0;
+            for(int j=avgStart; j<avgEnd; j++) {
+                avgX += x[j];
+                avgY += y[j];
+            }
+            int avgCount = avgEnd - avgStart;
+            if (avgCount > 0) {
+                avgX /= avgCount;
+                avgY /= avgCount;
+            }
+            else {
+                avgX = x[n-1];
+                avgY = y[n-1];
+            }
+
+            // point of this bucket forming the largest triangle with a & the average
+            int start = (int)(i * every) + 1;
+            int end = (int)((i + 1) * every) + 1;
+            double maxArea = -1;
+            int chosen = start;
+            for(int j=start; j<end; j++) {
+                double area = Math.abs((x[a] - avgX) * (y[j] - y[a]) - (x[a] - x[j]) * (avgY - y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = j;
+                }
+            }
+            selected[count++] = chosen;
+            a = chosen;
+        }
+        selected[count++] = n - 1;
+        return count;
+    }
+
+    protected static int minMax(double[] y, int n, int maxPts, int[] selected)
+    {
+        int buckets = maxPts / 2;
+        int count = 0;
+        for(int b=0; b<buckets; b++) {
+            int start = (int)((long)b * n / buckets);
+            int end = (int)((long)(b + 1) * n / buckets);
+            if (start >= end)
+                continue;
+            int min = start, max = start;
+            for(int j=start+1; j<end; j++) {
+                if (y[j] < y[min])
+                    min = j;
+                if (y[j] > y[max])
+                    max = j;
+            }
+            selected[count++] = Math.min(min, max);
+            if (min != max)
+                selected[count++] = Math.max(min, max);
+        }
+        return count;
+    }
+
+    /** Series s reduced by method to maxPts (or s's maxPts if maxPts <= 0) */
+    public static Series decimate(Series s, Method method, int maxPts)
+    {
+        if (maxPts <= 0)
+            maxPts = s.isSetMaxPts() ? s.getMaxPts() : Integer.MAX_VALUE;
+        int n = Math.min(s.getX().size(), s.getY().size());
+        if (method == Method.None || n <= maxPts)
+            return s;
+
+        var x = toArray(s.getX(), n);
+        var y = toArray(s.getY(), n);
+        var z = s.isSetZ() ? toArray(s.getZ(), n) : null;
+        var selected = new int[maxPts];
+        int count = select(method, x, y, n, maxPts, selected);
+
+        var rx = new ArrayList<Double>(count);
+        var ry = new ArrayList<Double>(count);
+        var rz = (z != null) ? new ArrayList<Double>(count) : null;
+        for(int i=0; i<count; i++) {
+            rx.add(x[selected[i]]);
+            ry.add(y[selected[i]]);
+            if (z != null)
+                rz.add(z[selected[i]]);
+        }
+
+        var r = new Series();
+        r.setX(rx);
+        r.setY(ry);
+        if (rz != null)
+            r.setZ(rz);
+        if (s.isSetColor())
+            r.setColor(s.getColor());
+        if (s.isSetVertex())
+            r.setVertex(s.getVertex());
+        if (s.isSetStyle())
+            r.setStyle(s.getStyle());
+        if (s.isSetHidden())
+            r.setHidden(s.isHidden());
+        if (s.isSetMaxPts())
+            r.setMaxPts(s.getMaxPts());
+        return r;
+    }
+
+    /** Series data of dataset (e.g. for setChartData()) reduced by method to each Series' maxPts */
+    public static Map<String, Data> decimate(Map<String, Data> dataset, Method method)
+    {
+        var result = new LinkedHashMap<String, Data>();
+        for(var entry : dataset.entrySet()) {
+            var d = entry.getValue();
+            if (d.isSetSData() && d.getSData().isSetMaxPts())
+                result.put(entry.getKey(), Data.sData(decimate(d.getSData(), method, 0)));
+            else
+                result.put(entry.getKey(), d);
+        }
+        return result;
+    }
+
+    protected static double[] toArray(List<Double> values, int n)
+    {
+        var a = new double[n];
+        int i = 0;
+        for(var v : values) {
+            if (i == n)
+                break;
+            a[i++] = v;
+        }
+        return a;
+    }
+
+
+    public interface PointSink
+    {
+        void point(double x, double y, double z);
+    }
+
+    /**
+     * Incrementally decimates a stream of points (with increasing x), passing the points
+     *  selected to a PointSink.
+     *
+     * Points are bucketed by x (bucketWidth - e.g. the chart's x span / maxPts), and each
+     *  bucket's selection output once it is complete (for LTTB, once the following bucket is
+     *  complete, as it is used to choose the point), so output lags input by a bucket or two.
+     */
+    public static class Decimator
+    {
+        public Decimator(Method method, double bucketWidth)
+        {
+            this.method = method;
+            this.bucketWidth = bucketWidth;
+            current = new Bucket();
+            next = new Bucket();
+        }
+
+        public Method method() { return method; }
+        public double bucketWidth() { return bucketWidth; }
+
+        /** Add point (z NaN if none) */
+        public void add(double x, double y, double z, PointSink out)
+        {
+            if (method == Method.None) {
+                out.point(x, y, z);
+                return;
+            }
+            long bucket = (long)Math.floor(x / bucketWidth);
+
+            if (method == Method.MinMax) {
+                if (current.count > 0 && bucket != current.index)
+                    emitMinMax(current, out);
+                current.add(bucket, x, y, z);
+                return;
+            }
+
+            // LTTB
+            if (!started) {
+                out.point(x, y, z); // always keep first point
+                ax = x; ay = y;
+                started = true;
+                return;
+            }
+            if (next.count > 0 && bucket != next.index) {
+                // next complete, so choose from current
+                if (current.count > 0)
+                    emitLargestTriangle(out);
+                var t = current;
+                current = next;
+                next = t;
+                next.clear();
+            }
+            next.add(bucket, x, y, z);
+        }
+
+        /** Output remaining selections (at end of the stream) */
+        public void finish(PointSink out)
+        {
+            if (method == Method.MinMax) {
+                if (current.count > 0)
+                    emitMinMax(current, out);
+            }
+            else if (method == Method.LTTB) {
+                if (current.count > 0 && next.count > 0)
+                    emitLargestTriangle(out);
+                if (next.count > 0) {
+                    int last = next.count - 1;
+                    out.point(next.x[last], next.y[last], next.z[last]); // always keep last point
+                }
+                started = false;
+            }
+            current.clear();
+            next.clear();
+        }
+
+        protected void emitMinMax(Bucket b, PointSink out)
+        {
+            int min = 0, max = 0;
+            for(int j=1; j<b.count; j++) {
+                if (b.y[j] < b.y[min])
+                    min = j;
+                if (b.y[j] > b.y[max])
+                    max = j;
+            }
+            int first = Math.min(min, max), second = Math.max(min, max);
+            out.point(b.x[first], b.y[first], b.z[first]);
+            if (second != first)
+                out.point(b.x[second], b.y[second], b.z[second]);
+            b.clear();
+        }
+
+        protected void emitLargestTriangle(PointSink out)
+        {
+            double avgX = next.sumX / next.count, avgY = next.sumY / next.count;
+            double maxArea = -1;
+            int chosen = 0;
+            for(int j=0; j<current.count; j++) {
+                double area = Math.abs((ax - avgX) * (current.y[j] - ay) - (ax - current.x[j]) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = j;
+                }
+            }
+            ax = current.x[chosen];
+            ay = current.y[chosen];
+            out.point(ax, ay, current.z[chosen]);
+            current.clear();
+        }
+
+        protected static class Bucket
+        {
+            void add(long index, double x, double y, double z)
+            {
+                if (count == this.x.length) {
+                    this.x = Arrays.copyOf(this.x, 2*count);
+                    this.y = Arrays.copyOf(this.y, 2*count);
+                    this.z = Arrays.copyOf(this.z, 2*count);
+                }
+                this.index = index;
+                this.x[count] = x;
+                this.y[count] = y;
+                this.z[count] = z;
+                sumX += x;
+                sumY += y;
+                count++;
+            }
+
+            void clear()
+            {
+                count = 0;
+                sumX = sumY = 0;
+            }
+
+            long index;
+            int count;
+            double sumX, sumY;
+            double[] x = new double[16];
+            double[] y = new double[16];
+            double[] z = new double[16];
+        }
+
+        protected final Method method;
+        protected final double bucketWidth;
+        protected Bucket current, next;
+        protected boolean started;
+        protected double ax, ay; // last LTTB selected point
+    }
+}
@@ -0,0 +1,193 @@
+package yaskawa.ext;
+
+import java.util.*;
+
+import org.apache.thrift.TException;
+
+
+/**
+ * Buffers points appended to (or increments of) one key of a chart, for sending by
+ *  its ChartStreams each frame.
+ *
+ * Points are held in primitive arrays until flushed (packed, if supported), and increments
+ *  are folded into a single net increment.
+ */
+public class ChartStream
+{
+    ChartStream(ChartStreams streams, String chartID, String key, boolean right)
+    {
+        this.streams = streams;
+        this.chartID = chartID;
+        this.key = key;
+        this.right = right;
+        x = new double[16];
+        y = new double[16];
+        z = new double[16];
+        store = this::store;
+    }
+
+    public String chartID() { return chartID; }
+    public String key() { return key; }
+    public boolean right() { return right; }
+
+    public void append(double x, double y)
+    {
+        append(x, y, Double.NaN);
+    }
+
+    /** Append point (z NaN if none) */
+    public synchronized void append(double x, double y, double z)
+    {
+        if (decimator != null)
+            decimator.add(x, y, z, store);
+        else
+            store(x, y, z);
+    }
+
+    /** Reduce appended points with decimator (or null for none) */
+    public synchronized void setDecimator(ChartDecimation.Decimator decimator)
+    {
+        if (this.decimator != null)
+            this.decimator.finish(store);
+        this.decimator = decimator;
+    }
+
+    protected void store(double x, double y, double z)
+    {
+        if (count == this.x.length) {
+            int n = 2*count;
+            this.x = Arrays.copyOf(this.x, n);
+            this.y = Arrays.copyOf(this.y, n);
+            this.z = Arrays.copyOf(this.z, n);
+        }
+        this.x[count] = x;
+        this.y[count] = y;
+        this.z[count] = z;
+        count++;
+    }
+
+    public synchronized void append(double[] x, double[] y, int offset, int length)
+    {
+        for(int i=offset; i<offset+length; i++)
+            append(x[i], y[i], Double.NaN);
+    }
+
+    /** Increment category value (folded with other increments until flushed) */
+    public synchronized void increment(double value)
+    {
+        if (incrementCalls > 0)
+            folded++;
+        increment += value;
+        incrementCalls++;
+    }
+
+    public void decrement(double value) { increment(-value); }
+
+    /** Hide/show key (the last state set is sent) */
+    public synchronized void setHidden(boolean hidden)
+    {
+        this.hidden = hidden;
+    }
+
+    /** Points waiting to be sent */
+    public synchronized int pending() { return count; }
+
+    /** Increments folded into another before being sent */
+    public synchronized long foldedIncrements() { return folded; }
+
+    /** Send pending points & increment now (rather than waiting for the ChartStreams flush) */
+    public void flush() throws TException
+    {
+        streams.send(List.of(this));
+    }
+
+
+    // take pending points as PackedPoints (null if none; reused by next drain)
+    synchronized PackedPoints drainPoints()
+    {
+        if (count == 0)
+            return null;
+        boolean hasZ = false;
+        for(int i=0; i<count && !hasZ; i++)
+            hasZ = !Double.isNaN(z[i]);
+        int dims = hasZ ? 3 : 2;
+        if (packed == null || packed.dims() != dims)
+            packed = new PackedPoints(dims, count);
+        packed.clear();
+        packed.ensureCapacity(count);
+        var values = packed.doubles();
+        for(int i=0; i<count; i++) {
+            values.put(i*dims, x[i]);
+            values.put(i*dims + 1, y[i]);
+            if (hasZ)
+                values.put(i*dims + 2, Double.isNaN(z[i]) ? 0 : z[i]);
+        }
+        packed.setSize(count);
+        count = 0;
+        return packed;
+    }
+
+    // take net pending increment (0 if none)
+    synchronized double drainIncrement()
+    {
+        double net = increment;
+        increment = 0;
+        incrementCalls = 0;
+        return net;
+    }
+
+
+    // take pending hidden state (null if none)
+    synchronized Boolean drainHidden()
+    {
+        var h = hidden;
+        hidden = null;
+        return h;
+    }
+
+    // return what a failed send drained, ahead of points appended since (a later hidden state wins)
+    synchronized void restore(PackedPoints points, double increment, Boolean hidden)
+    {
+        if (points != null && points.size() > 0) {
+            int n = points.size(), dims = points.dims();
+            if (count + n > x.length) {
+                int capacity = Math.max(2*x.length, count + n);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                z = Arrays.copyOf(z, capacity);
+            }
+            System.arraycopy(x, 0, x, n, count);
+            System.arraycopy(y, 0, y, n, count);
+            System.arraycopy(z, 0, z, n, count);
+            var values = points.doubles();
+            for(int i=0; i<n; i++) {
+                x[i] = values.get(i*dims);
+                y[i] = values.get(i*dims + 1);
+                z[i] = (dims == 3) ? values.get(i*dims + 2) : Double.NaN;
+            }
+            count += n;
+        }
+        if (increment != 0) {
+            this.increment += increment;
+            incrementCalls++;
+        }
+        if (this.hidden == null)
+            this.hidden = hidden;
+    }
+
+
+    protected final ChartStreams streams;
+    protected final String chartID;
+    protected final String key;
+    protected final boolean right;
+
+    protected ChartDecimation.Decimator decimator;
+    protected final ChartDecimation.PointSink store;
+    protected double[] x, y, z;
+    protected PackedPoints packed;
+    protected int count;
+    protected double increment;
+    protected int incrementCalls;
+    protected long folded;
+    protected Boolean hidden;
+}
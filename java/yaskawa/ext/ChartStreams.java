@@ -0,0 +1,240 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.apache.thrift.TException;
+
+import yaskawa.ext.api.ChartKeyUpdate;
+
+
+/**
+ * Batches chart updates of a Pendant.
+ *
+ * Points appended to, increments of and hiding of each chart key are buffered in its
+ *  ChartStream and sent together each frame (if constructed with a frame rate) or when
+ *  flush() is called, as a single updateCharts() call - with the points of each key, the net
+ *  increment of each category key, and the last hidden state set.  A lower flush rate and
+ *  decimation of points (see ChartDecimation) can be set per chart.
+ *  If sending fails, the updates are kept (ahead of any since) for the next flush.
+ *
+ *   var charts = new ChartStreams(pendant, 10);
+ *   var line = charts.stream("exampleLine", "Series 3", true);
+ *   line.append(t, Math.sin(t));  // no RPC
+ *   charts.stream("exampleBar", "Darker").increment(1.0);
+ */
+public class ChartStreams implements AutoCloseable
+{
+    /** Buffer until flush() is called */
+    public ChartStreams(Pendant pendant)
+    {
+        this.pendant = pendant;
+        streams = new LinkedHashMap<String, ChartStream>();
+        chartPeriods = new HashMap<String, Long>();
+        chartFlushed = new HashMap<String, Long>();
+        chartDecimation = new HashMap<String, Supplier<ChartDecimation.Decimator>>();
+    }
+
+    /** Buffer and flush automatically frameRate times per second */
+    public ChartStreams(Pendant pendant, double frameRate)
+    {
+        this(pendant);
+        periodNanos = (long)(1e9 / frameRate);
+        running = true;
+        thread = new Thread(this::run, "ChartStreams");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** The stream for chart key (on the right hand scale if right) */
+    public synchronized ChartStream stream(String chartID, String key, boolean right)
+    {
+        String id = chartID + (right ? "\u0001R" : "\u0001L") + key;
+        var s = streams.get(id);
+        if (s == null) {
+            s = new ChartStream(this, chartID, key, right);
+            var decimation = chartDecimation.get(chartID);
+            if (decimation != null)
+                s.setDecimator(decimation.get());
+            streams.put(id, s);
+        }
+        return s;
+    }
+
+    public ChartStream stream(String chartID, String key)
+    {
+        return stream(chartID, key, false);
+    }
+
+    /** Limit sending of chart's updates to rate times per second (at most once per frame) */
+    public synchronized void setFlushRate(String chartID, double rate)
+    {
+        chartPeriods.put(chartID, (long)(1e9 / rate));
+    }
+
+    /**
+     * Decimate points appended to chart's keys by method, to about maxPts points per xSpan
+     *  (the x range the chart displays - e.g. the time window of a rolling chart with the
+     *  key Series' maxPts)
+     */
+    public synchronized void setDecimation(String chartID, ChartDecimation.Method method, int maxPts, double xSpan)
+    {
+        double bucketWidth = xSpan / Math.max(1, (method == ChartDecimation.Method.MinMax) ? maxPts / 2 : maxPts);
+        Supplier<ChartDecimation.Decimator> decimation = () -> new ChartDecimation.Decimator(method, bucketWidth);
+        chartDecimation.put(chartID, decimation);
+        for(var s : streams.values())
+            if (s.chartID.equals(chartID))
+                s.setDecimator(decimation.get());
+    }
+
+    /** Send pending updates of charts due to be flushed */
+    public void flush() throws TException
+    {
+        flush(false);
+    }
+
+    /** Send pending updates of all charts (regardless of flush rate) */
+    public void flushAll() throws TException
+    {
+        flush(true);
+    }
+
+    protected void flush(boolean all) throws TException
+    {
+        List<ChartStream> due = new ArrayList<ChartStream>();
+        long now = System.nanoTime();
+        synchronized(this) {
+            var dueCharts = new HashMap<String, Boolean>();
+            for(var s : streams.values()) {
+                var isDue = dueCharts.get(s.chartID);
+                if (isDue == null) {
+                    var period = chartPeriods.get(s.chartID);
+                    var flushed = chartFlushed.get(s.chartID);
+                    isDue = all || period == null || flushed == null || now - flushed >= period;
+                    dueCharts.put(s.chartID, isDue);
+                    if (isDue)
+                        chartFlushed.put(s.chartID, now);
+                }
+                if (isDue)
+                    due.add(s);
+            }
+        }
+        send(due);
+    }
+
+    // send pending updates of streams as one updateCharts() call
+    //  (if it fails, the updates are returned to their streams to be sent by the next flush)
+    void send(List<ChartStream> due) throws TException
+    {
+        var updates = new ArrayList<ChartKeyUpdate>();
+        long points = 0;
+        synchronized(sending) { // keep points in order across concurrent flushes
+            var drainedPoints = new PackedPoints[due.size()];
+            var drainedIncrements = new double[due.size()];
+            var drainedHidden = new Boolean[due.size()];
+            for(int i=0; i<due.size(); i++) {
+                var s = due.get(i);
+                var p = drainedPoints[i] = s.drainPoints();
+                if (p != null) {
+                    updates.add(Pendant.chartPoints(s.chartID, s.key, p, s.right));
+                    points += p.size();
+                }
+                double increment = drainedIncrements[i] = s.drainIncrement();
+                if (increment != 0)
+                    updates.add(Pendant.chartIncrement(s.chartID, s.key, increment));
+                var hidden = drainedHidden[i] = s.drainHidden();
+                if (hidden != null)
+                    updates.add(Pendant.chartHidden(s.chartID, s.key, hidden, s.right));
+            }
+            try {
+                pendant.updateCharts(updates);
+            } catch (TException | RuntimeException e) {
+                for(int i=0; i<due.size(); i++)
+                    due.get(i).restore(drainedPoints[i], drainedIncrements[i], drainedHidden[i]);
+                throw e;
+            }
+        }
+
+        synchronized(this) {
+            if (!updates.isEmpty())
+                calls++;
+            pointsSent += points;
+        }
+    }
+
+    /** Stop automatic flushing (if any) and flush all */
+    public void close() throws TException
+    {
+        Thread t;
+        synchronized(this) {
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushAll();
+    }
+
+    /** Most recent exception from automatic flushing, if any (flushing continues) */
+    public synchronized Exception failure() { return failure; }
+
+    /** Automatic flushes that failed */
+    public synchronized long failures() { return failures; }
+
+    /** updateCharts() calls made */
+    public synchronized long calls() { return calls; }
+    /** Points sent */
+    public synchronized long pointsSent() { return pointsSent; }
+
+
+    protected void run()
+    {
+        long deadline = System.nanoTime();
+        while (running) {
+            deadline += periodNanos;
+            long now = System.nanoTime();
+            if (deadline > now)
+                LockSupport.parkNanos(deadline - now);
+            else
+                deadline = now; // behind; don't try to catch up
+            if (!running)
+                break;
+            try {
+                flush();
+            } catch (TException | RuntimeException e) {
+                failed(e);
+            }
+        }
+    }
+
+    protected synchronized void failed(Exception e)
+    {
+        failure = e;
+        failures++;
+    }
+
+
+    protected final Pendant pendant;
+    protected final Map<String, ChartStream> streams;
+    protected final Map<String, Long> chartPeriods;
+    protected final Map<String, Long> chartFlushed;
+    protected final Map<String, Supplier<ChartDecimation.Decimator>> chartDecimation;
+    protected final Object sending = new Object();
+
+    protected long periodNanos;
+    protected volatile boolean running;
+    protected Thread thread;
+    protected Exception failure;
+    protected long failures;
+
+    protected long calls;
+    protected long pointsSent;
+}
@@ -0,0 +1,92 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.IOException;
+
+import org.apache.thrift.TException;
+
+
+/**
+ * A set of additional connections to the API service (see Extension.openConnection()),
+ *  each with a worker thread, for making Controller calls concurrently.
+ */
+public class ConnectionPool implements AutoCloseable
+{
+    public ConnectionPool(Extension extension, int connections) throws TException
+    {
+        controllers = new LinkedBlockingQueue<Controller>();
+        opened = new ArrayList<Extension>();
+        try {
+            for(int i=0; i<Math.max(1, connections); i++) {
+                var connection = extension.openConnection();
+                opened.add(connection);
+                controllers.add(connection.controller());
+            }
+        } catch (TException e) {
+            close();
+            throw e;
+        }
+        executor = Executors.newFixedThreadPool(opened.size());
+    }
+
+    public interface ControllerTask<T>
+    {
+        T apply(Controller c) throws Exception;
+    }
+
+    /** Run task on a worker thread, with the Controller of a free connection */
+    public <T> Future<T> submit(ControllerTask<T> task)
+    {
+        return executor.submit(() -> withController(task));
+    }
+
+    /** Run task on the calling thread, with the Controller of a free connection (waits for one) */
+    public <T> T withController(ControllerTask<T> task) throws Exception
+    {
+        var c = controllers.take();
+        try {
+            return task.apply(c);
+        } finally {
+            controllers.add(c);
+        }
+    }
+
+    public ExecutorService executor() { return executor; }
+
+    public int size() { return opened.size(); }
+
+    public void close()
+    {
+        if (executor != null)
+            executor.shutdownNow();
+        for(var connection : opened)
+            connection.close();
+    }
+
+
+    /** Wait for result of a submitted task, rethrowing any TException, IOException or RuntimeException it threw */
+    public static <T> T result(Future<T> f) throws TException, IOException
+    {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof TException)
+                throw (TException)cause;
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+
+    protected ExecutorService executor;
+    protected BlockingQueue<Controller> controllers;
+    protected List<Extension> opened;
+}
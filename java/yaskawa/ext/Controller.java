@@ -3,7 +3,19 @@ package yaskawa.ext;
 
 import java.util.*;
 import java.util.function.*;
-
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
 import org.apache.thrift.transport.TTransportException;
 import org.apache.thrift.protocol.TProtocol;
@@ -18,9 +30,11 @@ public class Controller
     {
         extension = ext;
         client = new yaskawa.ext.api.Controller.Client(protocol);
+        direct = new DirectCall(protocol);
         this.robotProtocol = robotProtocol;
         this.id = id;
         eventConsumers = new HashMap<ControllerEventType, ArrayList<Consumer<yaskawa.ext.api.ControllerEvent>>>();
+        lazyEventConsumers = new HashMap<ControllerEventType, ArrayList<Consumer<LazyEvent>>>();
     }
 
 
@@ -80,6 +94,29 @@ public class Controller
         }
     }
 
+    /**
+     * Pending events, left encoded & decoded only as accessed (see LazyEvent) - e.g. for
+     *  high-volume IOValueChanged events.  The events returned are valid until the next call.
+     */
+    public LazyEvents lazyEvents() throws TException
+    {
+        synchronized(extension) {
+            direct.begin("events");
+            direct.i64(1, id);
+            direct.send();
+            lazyEvents.receive(direct, "events");
+            return lazyEvents;
+        }
+    }
+
+    /**
+     * Have Extension run() receive events via lazyEvents() (rather than events()), so
+     *  events are only fully decoded if they have an addEventConsumer() consumer.
+     *  Enabled by addLazyEventConsumer().
+     */
+    public void decodeEventsLazily(boolean lazy) { lazyDecoding = lazy; }
+    public boolean decodesEventsLazily() { return lazyDecoding; }
+
     public boolean connected() throws TException
     {
         synchronized(extension) {
@@ -245,6 +282,272 @@ public class Controller
         }
     }
 
+    /** Apply line patches to job source as of baseTimestamp (returns new timestamp, or -1 if job changed since; see JobSourceCache) */
+    public long patchJobSource(String name, long baseTimestamp, List<JobSourcePatch> patches) throws IllegalArgument, TException
+    {
+        synchronized(extension) {
+            return client.patchJobSource(id, name, baseTimestamp, patches);
+        }
+    }
+
+    // Chunked job source transfer
+    //  Large jobs are moved in chunks of jobSourceChunkSize bytes, taking the extension
+    //  lock only per chunk, so other calls (from other threads) can interleave.
+    //  If the API service doesn't support chunked transfer, it is emulated locally.
+
+    public interface JobSourceChunkConsumer
+    {
+        // chunk is only valid for the duration of the call
+        void accept(ByteBuffer chunk) throws IOException;
+    }
+
+    /** Read the named job source, passing each UTF-8 encoded chunk to consumer as it arrives */
+    public void readJobSource(String name, JobSourceChunkConsumer consumer) throws IllegalArgument, TException, IOException
+    {
+        var transfer = openJobSourceRead(name);
+        try {
+            while (true) {
+                var chunk = readJobSourceChunk(transfer.getHandle());
+                if (!chunk.hasRemaining())
+                    break;
+                consumer.accept(chunk);
+            }
+        } finally {
+            closeJobSourceTransfer(transfer.getHandle());
+        }
+    }
+
+    public void readJobSource(String name, Writer out) throws IllegalArgument, TException, IOException
+    {
+        // (replacing malformed input, as new String(bytes, UTF_8) does, rather than stalling on it)
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        var bytes = ByteBuffer.allocate(chunkSize() + 4); // room for a partial multi-byte char
+        var chars = CharBuffer.allocate(chunkSize() + 4);
+
+        readJobSource(name, chunk -> {
+            while (chunk.hasRemaining()) {
+                var part = chunk.slice();
+                part.limit(Math.min(part.remaining(), bytes.remaining()));
+                bytes.put(part);
+                chunk.position(chunk.position() + part.limit());
+
+                bytes.flip();
+                decoder.decode(bytes, chars, false);
+                bytes.compact();
+                chars.flip();
+                out.append(chars);
+                chars.clear();
+            }
+        });
+
+        bytes.flip();
+        decoder.decode(bytes, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        out.append(chars);
+        out.flush();
+    }
+
+    public void readJobSource(String name, Path file) throws IllegalArgument, TException, IOException
+    {
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            readJobSource(name, chunk -> {
+                while (chunk.hasRemaining())
+                    channel.write(chunk);
+            });
+        }
+    }
+
+    /** Job source as UTF-8 bytes, in a direct (off-heap) buffer */
+    public ByteBuffer jobSourceData(String name) throws IllegalArgument, TException, IOException
+    {
+        var transfer = openJobSourceRead(name);
+        long length = transfer.getLength();
+        var data = ByteBuffer.allocateDirect(length >= 0 ? (int)length : chunkSize());
+        try {
+            while (true) {
+                var chunk = readJobSourceChunk(transfer.getHandle());
+                if (!chunk.hasRemaining())
+                    break;
+                if (chunk.remaining() > data.remaining()) {
+                    var grown = ByteBuffer.allocateDirect(Math.max(data.capacity()*2, data.position() + chunk.remaining()));
+                    data.flip();
+                    grown.put(data);
+                    data = grown;
+                }
+                data.put(chunk);
+            }
+        } finally {
+            closeJobSourceTransfer(transfer.getHandle());
+        }
+        data.flip();
+        return data;
+    }
+
+    public void storeJobSource(String name, String programmingLanguage, Reader in) throws IllegalArgument, TException, IOException
+    {
+        // (replacing lone surrogates, as String.getBytes(UTF_8) does)
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        var chars = CharBuffer.allocate(chunkSize() / 4);
+        var bytes = ByteBuffer.allocate(chunkSize());
+
+        long handle = openJobSourceWrite(name, programmingLanguage);
+        boolean committed = false;
+        try {
+            boolean eof = false;
+            while (!eof) {
+                eof = (in.read(chars) < 0);
+                chars.flip();
+                encoder.encode(chars, bytes, eof);
+                if (eof)
+                    encoder.flush(bytes);
+                chars.compact();
+
+                bytes.flip();
+                if (bytes.hasRemaining())
+                    writeJobSourceChunk(handle, bytes);
+                bytes.clear();
+            }
+            commitJobSource(handle);
+            committed = true;
+        } finally {
+            if (!committed)
+                closeJobSourceTransfer(handle);
+        }
+    }
+
+    public void storeJobSource(String name, String programmingLanguage, Path file) throws IllegalArgument, TException, IOException
+    {
+        var bytes = ByteBuffer.allocate(chunkSize());
+
+        long handle = openJobSourceWrite(name, programmingLanguage);
+        boolean committed = false;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(bytes) >= 0 || bytes.position() > 0) {
+                bytes.flip();
+                writeJobSourceChunk(handle, bytes);
+                bytes.clear();
+            }
+            commitJobSource(handle);
+            committed = true;
+        } finally {
+            if (!committed)
+                closeJobSourceTransfer(handle);
+        }
+    }
+
+    /** Store job from UTF-8 encoded source (may be a direct buffer; consumed from position to limit) */
+    public void storeJobSource(String name, String programmingLanguage, ByteBuffer sourceData) throws IllegalArgument, TException, IOException
+    {
+        var bytes = ByteBuffer.allocate(Math.min(chunkSize(), sourceData.remaining()));
+
+        long handle = openJobSourceWrite(name, programmingLanguage);
+        boolean committed = false;
+        try {
+            while (sourceData.hasRemaining()) {
+                var part = sourceData.slice();
+                part.limit(Math.min(part.remaining(), bytes.capacity()));
+                bytes.put(part);
+                sourceData.position(sourceData.position() + part.limit());
+
+                bytes.flip();
+                writeJobSourceChunk(handle, bytes);
+                bytes.clear();
+            }
+            commitJobSource(handle);
+            committed = true;
+        } finally {
+            if (!committed)
+                closeJobSourceTransfer(handle);
+        }
+    }
+
+
+    // jobSourceChunkSize, but large enough to always make progress (holding any one encoded char)
+    protected int chunkSize() { return Math.max(8, jobSourceChunkSize); }
+
+    protected JobSourceTransfer openJobSourceRead(String name) throws IllegalArgument, TException
+    {
+        if (localJobSourceTransfers == null) {
+            try {
+                synchronized(extension) {
+                    return client.openJobSourceRead(id, name);
+                }
+            } catch (TApplicationException e) {
+                if (e.getType() != TApplicationException.UNKNOWN_METHOD)
+                    throw e;
+                localJobSourceTransfers = new LocalJobSourceTransfers(this);
+            }
+        }
+        return localJobSourceTransfers.openJobSourceRead(name);
+    }
+
+    protected ByteBuffer readJobSourceChunk(long handle) throws IllegalArgument, TException
+    {
+        if (localJobSourceTransfers != null)
+            return localJobSourceTransfers.readJobSourceChunk(handle, chunkSize());
+
+        synchronized(extension) {
+            return client.readJobSourceChunk(id, handle, chunkSize());
+        }
+    }
+
+    protected long openJobSourceWrite(String name, String programmingLanguage) throws IllegalArgument, TException
+    {
+        if (localJobSourceTransfers == null) {
+            try {
+                synchronized(extension) {
+                    return client.openJobSourceWrite(id, name, programmingLanguage);
+                }
+            } catch (TApplicationException e) {
+                if (e.getType() != TApplicationException.UNKNOWN_METHOD)
+                    throw e;
+                localJobSourceTransfers = new LocalJobSourceTransfers(this);
+            }
+        }
+        return localJobSourceTransfers.openJobSourceWrite(name, programmingLanguage);
+    }
+
+    protected void writeJobSourceChunk(long handle, ByteBuffer chunk) throws IllegalArgument, TException
+    {
+        if (localJobSourceTransfers != null) {
+            localJobSourceTransfers.writeJobSourceChunk(handle, chunk);
+            return;
+        }
+
+        synchronized(extension) {
+            client.writeJobSourceChunk(id, handle, chunk);
+        }
+    }
+
+    protected void commitJobSource(long handle) throws IllegalArgument, TException
+    {
+        if (localJobSourceTransfers != null) {
+            localJobSourceTransfers.commitJobSource(handle);
+            return;
+        }
+
+        synchronized(extension) {
+            client.commitJobSource(id, handle);
+        }
+    }
+
+    protected void closeJobSourceTransfer(long handle) throws TException
+    {
+        if (localJobSourceTransfers != null) {
+            localJobSourceTransfers.closeJobSourceTransfer(handle);
+            return;
+        }
+
+        synchronized(extension) {
+            client.closeJobSourceTransfer(id, handle);
+        }
+    }
+
 
     // Tools
 
@@ -512,16 +815,73 @@ public class Controller
         }
     }
 
-    public int currentRobotIndex() throws TException
+    /** Index of the current robot (tracked via CurrentRobot events once queried) */
+    public synchronized int currentRobotIndex() throws TException
     {
-        synchronized(extension) {
-            return client.currentRobot(id);
+        trackRobots();
+        if (currentRobotIndex < 0) {
+            synchronized(extension) {
+                currentRobotIndex = client.currentRobot(id);
+            }
         }
+        return currentRobotIndex;
     }
 
     public Robot currentRobot() throws TException
     {
-        return new Robot(this, robotProtocol, currentRobotIndex());
+        return robot(currentRobotIndex());
+    }
+
+    /**
+     * The Robot with the given index.  Robots are created once per index and memoize
+     *  their model, dof and feature availability until RobotModel or FeatureAvailabilityChanged
+     *  events (handled via Extension.run()) indicate a change.
+     */
+    public synchronized Robot robot(int index) throws TException
+    {
+        trackRobots();
+        if (index >= robots.length)
+            robots = Arrays.copyOf(robots, index+1);
+        if (robots[index] == null)
+            robots[index] = new Robot(this, robotProtocol, index);
+        return robots[index];
+    }
+
+    /** Positions of the given simple control groups sampled in the same controller cycle (see MultiRobotSampler) */
+    public List<ControlGroupPosition> positions(List<ControlGroup> groups, OrientationUnit jointUnit, CoordinateFrame tcpFrame) throws IllegalArgument, TException
+    {
+        synchronized(extension) {
+            return client.positions(id, groups, jointUnit, tcpFrame);
+        }
+    }
+
+    /** All robotCount() robots */
+    public List<Robot> robots() throws TException
+    {
+        int count = robotCount();
+        var list = new ArrayList<Robot>(count);
+        for(int i=0; i<count; i++)
+            list.add(robot(i));
+        return list;
+    }
+
+    protected void trackRobots() throws TException
+    {
+        if (trackingRobots)
+            return;
+        addEventConsumer(ControllerEventType.CurrentRobot, e -> currentRobotIndex = -1);
+        addEventConsumer(ControllerEventType.RobotModel, e -> invalidateRobots(false));
+        addEventConsumer(ControllerEventType.FeatureAvailabilityChanged, e -> invalidateRobots(true));
+        trackingRobots = true;
+    }
+
+    protected synchronized void invalidateRobots(boolean featuresOnly)
+    {
+        for(var r : robots)
+            if (r != null)
+                r.invalidate(featuresOnly);
+        if (!featuresOnly)
+            currentRobotIndex = -1;
     }
 
 
@@ -532,6 +892,19 @@ public class Controller
         }
     }
 
+    /** Value of a position variable, decoded into the given (reusable) PositionD without boxing */
+    public PositionD variable(String name, PositionD into) throws IllegalArgument, TException
+    {
+        synchronized(extension) {
+            direct.begin("variable");
+            direct.i64(1, id);
+            direct.string(2, name);
+            direct.send();
+            direct.receiveAnyPosition("variable", into);
+            return into;
+        }
+    }
+
     public Any variableByAddr(VariableAddress addr) throws IllegalArgument, TException
     {
         synchronized(extension) {
@@ -581,6 +954,18 @@ public class Controller
         }
     }
 
+    public void setVariable(String name, PositionD value) throws IllegalArgument, TException
+    {
+        synchronized(extension) {
+            direct.begin("setVariable");
+            direct.i64(1, id);
+            direct.string(2, name);
+            direct.anyPosition(3, value);
+            direct.send();
+            direct.receiveVoid("setVariable");
+        }
+    }
+
     public void setVariableByAddr(VariableAddress addr, Any value) throws IllegalArgument, TException
     {
         synchronized(extension) {
@@ -713,6 +1098,89 @@ public class Controller
     }
 
 
+    // Configuration snapshot
+
+    /**
+     * Snapshot of tools, user frames & zones - loaded concurrently upon first call and thereafter
+     *  kept current (by category) via ToolsChanged, UserFramesChanged & ZonesChanged events.
+     */
+    public ControllerConfigSnapshot configSnapshot() throws TException, IOException
+    {
+        return configSnapshot(null);
+    }
+
+    /**
+     * As configSnapshot(), but if cacheFile exists the snapshot saved there is returned initially,
+     *  while the configuration is re-loaded in the background.  The cacheFile is kept up-to-date.
+     */
+    public synchronized ControllerConfigSnapshot configSnapshot(Path cacheFile) throws TException, IOException
+    {
+        if (configSnapshot != null)
+            return configSnapshot;
+
+        if (!trackingConfigChanges) {
+            addEventConsumer(ControllerEventType.ToolsChanged, e -> refreshConfigSnapshot(ControllerConfigSnapshot.Category.Tools));
+            addEventConsumer(ControllerEventType.UserFramesChanged, e -> refreshConfigSnapshot(ControllerConfigSnapshot.Category.UserFrames));
+            addEventConsumer(ControllerEventType.ZonesChanged, e -> refreshConfigSnapshot(ControllerConfigSnapshot.Category.Zones));
+            trackingConfigChanges = true;
+        }
+        configSnapshotFile = cacheFile;
+
+        if (cacheFile != null && Files.exists(cacheFile)) {
+            try {
+                configSnapshot = ControllerConfigSnapshot.read(cacheFile);
+            } catch (IOException | TException e) {
+                // unreadable - load instead
+            }
+            if (configSnapshot != null) {
+                var loader = new Thread(() -> {
+                    try {
+                        var loaded = ControllerConfigSnapshot.load(extension, configSnapshotConnections);
+                        synchronized(this) {
+                            configSnapshot = loaded;
+                            saveConfigSnapshot();
+                        }
+                    } catch (Exception e) {
+                        synchronized(this) {
+                            configSnapshot = null; // re-load on next use
+                        }
+                    }
+                }, "configSnapshot");
+                loader.setDaemon(true);
+                loader.start();
+                return configSnapshot;
+            }
+        }
+
+        configSnapshot = ControllerConfigSnapshot.load(extension, configSnapshotConnections);
+        saveConfigSnapshot();
+        return configSnapshot;
+    }
+
+    protected synchronized void refreshConfigSnapshot(ControllerConfigSnapshot.Category category)
+    {
+        if (configSnapshot == null)
+            return;
+        try {
+            configSnapshot = configSnapshot.refresh(this, category);
+            saveConfigSnapshot();
+        } catch (TException e) {
+            configSnapshot = null; // re-load on next use
+        }
+    }
+
+    protected void saveConfigSnapshot()
+    {
+        if (configSnapshotFile == null)
+            return;
+        try {
+            configSnapshot.save(configSnapshotFile);
+        } catch (IOException | TException e) {
+            // cache is only an optimization
+        }
+    }
+
+
     // Networking
 
     public String networkInterfaceAddress(String controllerInterface) throws IllegalArgument, TException
@@ -765,6 +1233,35 @@ public class Controller
     }
     
 
+    /**
+     * Consumer of events as LazyEvent views (valid only during the call), e.g.
+     *   addLazyEventConsumer(ControllerEventType.IOValueChanged, e -> ioChanged(e.intProp("value")));
+     * Enables decodeEventsLazily().
+     */
+    public synchronized void addLazyEventConsumer(ControllerEventType eventType, Consumer<LazyEvent> c) throws TException
+    {
+        if (!lazyEventConsumers.containsKey(eventType))
+            lazyEventConsumers.put(eventType, new ArrayList<Consumer<LazyEvent>>());
+        lazyEventConsumers.get(eventType).add(c);
+        lazyDecoding = true;
+
+        subscribeEventTypes(Set.of( eventType ));
+    }
+
+    // invoke consumer callbacks relevant to event, decoding it only for non-lazy consumers
+    public synchronized void handleEvent(LazyEvent e) throws TException
+    {
+        var type = e.controllerEventType();
+
+        if (lazyEventConsumers.containsKey(type)) {
+            for(Consumer<LazyEvent> consumer : lazyEventConsumers.get(type))
+                consumer.accept(e);
+        }
+
+        if (eventConsumers.containsKey(type))
+            handleEvent(e.toControllerEvent());
+    }
+
     public synchronized void handleEvent(ControllerEvent e) {
 
         // an event we have a consumer for?
@@ -778,10 +1275,27 @@ public class Controller
 
     protected Extension extension;
     protected yaskawa.ext.api.Controller.Client client;
+    protected DirectCall direct;
     protected long id;
     protected TMultiplexedProtocol robotProtocol;
+    protected Robot[] robots = new Robot[0];
+    protected volatile int currentRobotIndex = -1;
+    protected boolean trackingRobots;
+
+    // size of chunks used by the chunked job source transfer functions
+    public int jobSourceChunkSize = 64*1024;
+    protected volatile LocalJobSourceTransfers localJobSourceTransfers;
+
+    // number of connections used to load the configuration snapshot
+    public int configSnapshotConnections = 4;
+    protected volatile ControllerConfigSnapshot configSnapshot;
+    protected Path configSnapshotFile;
+    protected boolean trackingConfigChanges = false;
 
     protected HashMap<ControllerEventType, ArrayList<Consumer<yaskawa.ext.api.ControllerEvent>>> eventConsumers;
+    protected HashMap<ControllerEventType, ArrayList<Consumer<LazyEvent>>> lazyEventConsumers;
+    protected final LazyEvents lazyEvents = new LazyEvents();
+    protected volatile boolean lazyDecoding;
 
 }
 
@@ -0,0 +1,254 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.util.concurrent.Future;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.thrift.TBase;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Immutable snapshot of controller configuration: tools, user frames and zones.
+ *
+ * Obtain via Controller.configSnapshot(), which keeps a current snapshot, replacing
+ *  only the affected category upon ToolsChanged, UserFramesChanged or ZonesChanged events.
+ * Snapshots can be saved to disk and read back to avoid the initial load on the next start.
+ *
+ * Accessors return copies, so the snapshot itself is never modified.
+ */
+public class ControllerConfigSnapshot
+{
+    public enum Category { Tools, UserFrames, Zones }
+
+    /** Load the complete configuration, over the given number of concurrent connections */
+    public static ControllerConfigSnapshot load(Extension extension, int connections) throws TException, IOException
+    {
+        try (var pool = new ConnectionPool(extension, connections)) {
+            // zones aren't enumerable, so probe all indices while tool & frame indices are listed
+            var zoneIndices = new ArrayList<Integer>();
+            for(int i=0; i<maxZones; i++)
+                zoneIndices.add(i);
+            var zones = submitAll(pool, zoneIndices, ControllerConfigSnapshot::zoneOrNull);
+            var toolIndices = pool.submit(c -> c.tools().keySet());
+            var frameIndices = pool.submit(c -> c.userFrames().keySet());
+
+            var tools = submitAll(pool, ConnectionPool.result(toolIndices), (c, i) -> c.tool(i));
+            var frames = submitAll(pool, ConnectionPool.result(frameIndices), (c, i) -> c.userFrame(i));
+
+            return new ControllerConfigSnapshot(collect(tools), collect(frames), collect(zones), System.currentTimeMillis());
+        }
+    }
+
+    /** New snapshot with the given category re-read from the controller (other categories shared) */
+    public ControllerConfigSnapshot refresh(Controller c, Category category) throws TException
+    {
+        switch (category) {
+            case Tools: return new ControllerConfigSnapshot(loadTools(c), userFrames, zones, System.currentTimeMillis());
+            case UserFrames: return new ControllerConfigSnapshot(tools, loadUserFrames(c), zones, System.currentTimeMillis());
+            default: return new ControllerConfigSnapshot(tools, userFrames, loadZones(c), System.currentTimeMillis());
+        }
+    }
+
+
+    /** Tool index -> name (as Controller.tools()) */
+    public Map<Integer, String> tools()
+    {
+        var names = new LinkedHashMap<Integer, String>();
+        for(var t : tools.entrySet())
+            names.put(t.getKey(), t.getValue().isSetName() ? t.getValue().getName() : "");
+        return names;
+    }
+
+    public Tool tool(int index) throws IllegalArgument
+    {
+        var t = tools.get(index);
+        if (t == null)
+            throw new IllegalArgument("No tool "+index+" in configuration snapshot");
+        return t.deepCopy();
+    }
+
+    /** User frame index -> name (as Controller.userFrames()) */
+    public Map<Integer, String> userFrames()
+    {
+        var names = new LinkedHashMap<Integer, String>();
+        for(var f : userFrames.entrySet())
+            names.put(f.getKey(), f.getValue().isSetName() ? f.getValue().getName() : "");
+        return names;
+    }
+
+    public CoordinateFrame userFrame(int index) throws IllegalArgument
+    {
+        var f = userFrames.get(index);
+        if (f == null)
+            throw new IllegalArgument("No user frame "+index+" in configuration snapshot");
+        return f.deepCopy();
+    }
+
+    /** Indices of the defined zones */
+    public Set<Integer> zones()
+    {
+        return Collections.unmodifiableSet(zones.keySet());
+    }
+
+    public Zone zone(int index) throws IllegalArgument
+    {
+        var z = zones.get(index);
+        if (z == null)
+            throw new IllegalArgument("No zone "+index+" in configuration snapshot");
+        return z.deepCopy();
+    }
+
+    /** When snapshot was taken (millisecs since 1970-01-01) */
+    public long timestamp() { return timestamp; }
+
+
+    /** Save snapshot to file (written to a temporary & then moved, so readers never see a partial file) */
+    public void save(Path file) throws TException, IOException
+    {
+        var serializer = new TSerializer(new TCompactProtocol.Factory());
+        var tmp = file.resolveSibling(file.getFileName()+".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(fileVersion);
+            out.writeLong(timestamp);
+            writeMap(out, serializer, tools);
+            writeMap(out, serializer, userFrames);
+            writeMap(out, serializer, zones);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static ControllerConfigSnapshot read(Path file) throws TException, IOException
+    {
+        var deserializer = new TDeserializer(new TCompactProtocol.Factory());
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != fileVersion)
+                throw new IOException("Unsupported configuration snapshot file version: "+file);
+            long timestamp = in.readLong();
+            var tools = readMap(in, deserializer, Tool::new);
+            var frames = readMap(in, deserializer, CoordinateFrame::new);
+            var zones = readMap(in, deserializer, Zone::new);
+            return new ControllerConfigSnapshot(tools, frames, zones, timestamp);
+        }
+    }
+
+
+    protected ControllerConfigSnapshot(Map<Integer, Tool> tools, Map<Integer, CoordinateFrame> userFrames,
+                                       Map<Integer, Zone> zones, long timestamp)
+    {
+        this.tools = Collections.unmodifiableMap(tools);
+        this.userFrames = Collections.unmodifiableMap(userFrames);
+        this.zones = Collections.unmodifiableMap(zones);
+        this.timestamp = timestamp;
+    }
+
+
+    // parallel loading
+
+    protected interface IndexedLoad<T>
+    {
+        T load(Controller c, int index) throws Exception;
+    }
+
+    protected static <T> Map<Integer, Future<T>> submitAll(ConnectionPool pool, Collection<Integer> indices, IndexedLoad<T> load)
+    {
+        var futures = new LinkedHashMap<Integer, Future<T>>();
+        for(int i : indices)
+            futures.put(i, pool.submit(c -> load.load(c, i)));
+        return futures;
+    }
+
+    protected static <T> Map<Integer, T> collect(Map<Integer, Future<T>> futures) throws TException, IOException
+    {
+        var map = new TreeMap<Integer, T>();
+        for(var f : futures.entrySet()) {
+            var value = ConnectionPool.result(f.getValue());
+            if (value != null)
+                map.put(f.getKey(), value);
+        }
+        return map;
+    }
+
+    // sequential loading, for refresh
+
+    protected static Map<Integer, Tool> loadTools(Controller c) throws TException
+    {
+        var map = new TreeMap<Integer, Tool>();
+        for(var i : c.tools().keySet())
+            map.put(i, c.tool(i));
+        return map;
+    }
+
+    protected static Map<Integer, CoordinateFrame> loadUserFrames(Controller c) throws TException
+    {
+        var map = new TreeMap<Integer, CoordinateFrame>();
+        for(var i : c.userFrames().keySet())
+            map.put(i, c.userFrame(i));
+        return map;
+    }
+
+    protected static Map<Integer, Zone> loadZones(Controller c) throws TException
+    {
+        var map = new TreeMap<Integer, Zone>();
+        for(int i=0; i<maxZones; i++) {
+            var z = zoneOrNull(c, i);
+            if (z != null)
+                map.put(i, z);
+        }
+        return map;
+    }
+
+    // zones aren't enumerable; undefined indices are rejected as illegal
+    protected static Zone zoneOrNull(Controller c, int index) throws TException
+    {
+        try {
+            return c.zone(index);
+        } catch (IllegalArgument e) {
+            return null;
+        }
+    }
+
+
+    protected static <T extends TBase<?,?>> void writeMap(DataOutputStream out, TSerializer serializer, Map<Integer, T> map) throws TException, IOException
+    {
+        out.writeInt(map.size());
+        for(var e : map.entrySet()) {
+            var bytes = serializer.serialize(e.getValue());
+            out.writeInt(e.getKey());
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    protected static <T extends TBase<?,?>> Map<Integer, T> readMap(DataInputStream in, TDeserializer deserializer, java.util.function.Supplier<T> factory) throws TException, IOException
+    {
+        int size = in.readInt();
+        var map = new TreeMap<Integer, T>();
+        for(int i=0; i<size; i++) {
+            int index = in.readInt();
+            var bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            var value = factory.get();
+            deserializer.deserialize(value, bytes);
+            map.put(index, value);
+        }
+        return map;
+    }
+
+
+    public static final int maxZones = 64;
+    protected static final int fileVersion = 1;
+
+    protected final Map<Integer, Tool> tools;
+    protected final Map<Integer, CoordinateFrame> userFrames;
+    protected final Map<Integer, Zone> zones;
+    protected final long timestamp;
+}
@@ -0,0 +1,315 @@
+package yaskawa.ext;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.*;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Hand-coded Thrift service calls on a (multiplexed) protocol, for methods whose
+ *  arguments or results are encoded directly (e.g. Position as PositionD) rather than
+ *  via the generated client.  Callers hold the same lock as the generated client.
+ */
+class DirectCall
+{
+    DirectCall(TProtocol protocol)
+    {
+        this.protocol = protocol;
+    }
+
+    /** Start call, returning protocol on which to write the argument fields */
+    TProtocol begin(String method) throws TException
+    {
+        protocol.writeMessageBegin(new TMessage(method, TMessageType.CALL, ++seqid));
+        protocol.writeStructBegin(argsStruct);
+        return protocol;
+    }
+
+    /** Start oneway call (no reply) */
+    TProtocol beginOneway(String method) throws TException
+    {
+        protocol.writeMessageBegin(new TMessage(method, TMessageType.ONEWAY, ++seqid));
+        protocol.writeStructBegin(argsStruct);
+        return protocol;
+    }
+
+    void bool(int id, boolean value) throws TException
+    {
+        protocol.writeFieldBegin(new TField("", TType.BOOL, (short)id));
+        protocol.writeBool(value);
+        protocol.writeFieldEnd();
+    }
+
+    void i32(int id, int value) throws TException
+    {
+        protocol.writeFieldBegin(new TField("", TType.I32, (short)id));
+        protocol.writeI32(value);
+        protocol.writeFieldEnd();
+    }
+
+    void i64(int id, long value) throws TException
+    {
+        protocol.writeFieldBegin(new TField("", TType.I64, (short)id));
+        protocol.writeI64(value);
+        protocol.writeFieldEnd();
+    }
+
+    void string(int id, String value) throws TException
+    {
+        protocol.writeFieldBegin(new TField("", TType.STRING, (short)id));
+        protocol.writeString(value);
+        protocol.writeFieldEnd();
+    }
+
+    /**
+     * Binary (or, with type STRING, UTF-8 string) field of the remaining bytes of value,
+     *  which may be a direct (e.g. memory-mapped) buffer
+     */
+    void bytes(int id, byte type, java.nio.ByteBuffer value) throws TException
+    {
+        protocol.writeFieldBegin(new TField("", type, (short)id));
+        if (value.hasArray())
+            protocol.writeBinary(value);
+        else {
+            var b = value.duplicate();
+            protocol.writeI32(b.remaining());
+            var transport = protocol.getTransport();
+            if (chunk == null)
+                chunk = new byte[64*1024];
+            while (b.hasRemaining()) {
+                int n = Math.min(chunk.length, b.remaining());
+                b.get(chunk, 0, n);
+                transport.write(chunk, 0, n);
+            }
+        }
+        protocol.writeFieldEnd();
+    }
+
+    /** Binary field of values[offset..offset+length) as little-endian doubles, written in chunks */
+    void doubles(int id, double[] values, int offset, int length) throws TException
+    {
+        protocol.writeFieldBegin(new TField("", TType.STRING, (short)id));
+        protocol.writeI32(length * 8);
+        var out = chunkDoubles();
+        var transport = protocol.getTransport();
+        for(int i=offset, end=offset+length; i<end; ) {
+            int n = Math.min(out.capacity(), end - i);
+            out.clear();
+            out.put(values, i, n);
+            transport.write(chunk, 0, n * 8);
+            i += n;
+        }
+        protocol.writeFieldEnd();
+    }
+
+    /** Binary field of the remaining values as little-endian doubles, written in chunks */
+    void doubles(int id, java.nio.DoubleBuffer values) throws TException
+    {
+        protocol.writeFieldBegin(new TField("", TType.STRING, (short)id));
+        protocol.writeI32(values.remaining() * 8);
+        var out = chunkDoubles();
+        var transport = protocol.getTransport();
+        var src = values.duplicate();
+        while (src.hasRemaining()) {
+            int n = Math.min(out.capacity(), src.remaining());
+            var part = src.duplicate();
+            part.limit(part.position() + n);
+            out.clear();
+            out.put(part);
+            transport.write(chunk, 0, n * 8);
+            src.position(src.position() + n);
+        }
+        protocol.writeFieldEnd();
+    }
+
+    // little-endian double view of chunk
+    protected java.nio.DoubleBuffer chunkDoubles()
+    {
+        if (chunk == null)
+            chunk = new byte[64*1024];
+        if (chunkDoubles == null)
+            chunkDoubles = java.nio.ByteBuffer.wrap(chunk).order(java.nio.ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        return chunkDoubles;
+    }
+
+    void struct(int id, org.apache.thrift.TBase<?,?> value) throws TException
+    {
+        protocol.writeFieldBegin(new TField("", TType.STRUCT, (short)id));
+        value.write(protocol);
+        protocol.writeFieldEnd();
+    }
+
+    /** Position wrapped in an Any union (as pValue) */
+    void anyPosition(int id, PositionD value) throws TException
+    {
+        protocol.writeFieldBegin(new TField("", TType.STRUCT, (short)id));
+        protocol.writeStructBegin(anyStruct);
+        protocol.writeFieldBegin(pValueField);
+        value.write(protocol);
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        protocol.writeFieldEnd();
+    }
+
+    void send() throws TException
+    {
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        protocol.writeMessageEnd();
+        protocol.getTransport().flush();
+    }
+
+
+    /**
+     * Read reply up to the result value, returning its type for the caller to read
+     *  (then calling end()), or TType.STOP for a void result (already ended).
+     * Throws IllegalArgument if declared & raised, or the service's TApplicationException.
+     */
+    byte receive(String method) throws TException
+    {
+        return receive(method, seqid);
+    }
+
+    /** Sequence id of the last call begun (for receiving its reply after those of earlier calls) */
+    int seqid() { return seqid; }
+
+    /** As receive(method), for the (pipelined) call with sequence id seqid */
+    byte receive(String method, int seqid) throws TException
+    {
+        var message = protocol.readMessageBegin();
+        if (message.type == TMessageType.EXCEPTION) {
+            var x = TApplicationException.readFrom(protocol);
+            protocol.readMessageEnd();
+            throw x;
+        }
+        if (message.seqid != seqid)
+            throw new TApplicationException(TApplicationException.BAD_SEQUENCE_ID, method+" failed: out of sequence response");
+
+        protocol.readStructBegin();
+        while (true) {
+            var field = protocol.readFieldBegin();
+            if (field.type == TType.STOP) {
+                protocol.readStructEnd();
+                protocol.readMessageEnd();
+                return TType.STOP;
+            }
+            if (field.id == 0)
+                return field.type;
+            if (field.id == 1 && field.type == TType.STRUCT) {
+                var e = new IllegalArgument();
+                e.read(protocol);
+                protocol.readFieldEnd();
+                end();
+                throw e;
+            }
+            TProtocolUtil.skip(protocol, field.type);
+            protocol.readFieldEnd();
+        }
+    }
+
+    /** Read a Position result into p */
+    void receivePosition(String method, PositionD p) throws TException
+    {
+        byte type = receive(method);
+        if (type != TType.STRUCT)
+            missing(method, type);
+        p.read(protocol);
+        protocol.readFieldEnd();
+        end();
+    }
+
+    /** Read an Any result into p, which must hold a Position (pValue) */
+    void receiveAnyPosition(String method, PositionD p) throws TException
+    {
+        byte type = receive(method);
+        if (type != TType.STRUCT)
+            missing(method, type);
+        boolean found = false;
+        protocol.readStructBegin();
+        while (true) {
+            var field = protocol.readFieldBegin();
+            if (field.type == TType.STOP)
+                break;
+            if (field.id == 6 && field.type == TType.STRUCT) {
+                p.read(protocol);
+                found = true;
+            }
+            else
+                TProtocolUtil.skip(protocol, field.type);
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+        protocol.readFieldEnd();
+        end();
+        if (!found)
+            throw new IllegalArgument(method+" value is not a Position");
+    }
+
+    void receiveVoid(String method) throws TException
+    {
+        receiveVoid(method, seqid);
+    }
+
+    void receiveVoid(String method, int seqid) throws TException
+    {
+        byte type = receive(method, seqid);
+        if (type != TType.STOP) {
+            TProtocolUtil.skip(protocol, type);
+            protocol.readFieldEnd();
+            end();
+        }
+    }
+
+    /** Read a list<string> result */
+    java.util.List<String> receiveStringList(String method, int seqid) throws TException
+    {
+        byte type = receive(method, seqid);
+        if (type != TType.LIST)
+            missing(method, type);
+        var list = protocol.readListBegin();
+        var strings = new java.util.ArrayList<String>(list.size);
+        for(int i=0; i<list.size; i++)
+            strings.add(protocol.readString());
+        protocol.readListEnd();
+        protocol.readFieldEnd();
+        end();
+        return strings;
+    }
+
+    /** Skip remaining reply fields */
+    void end() throws TException
+    {
+        while (true) {
+            var field = protocol.readFieldBegin();
+            if (field.type == TType.STOP)
+                break;
+            TProtocolUtil.skip(protocol, field.type);
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+        protocol.readMessageEnd();
+    }
+
+    protected void missing(String method, byte type) throws TException
+    {
+        if (type != TType.STOP) {
+            TProtocolUtil.skip(protocol, type);
+            protocol.readFieldEnd();
+            end();
+        }
+        throw new TApplicationException(TApplicationException.MISSING_RESULT, method+" failed: unknown result");
+    }
+
+
+    protected static final TStruct argsStruct = new TStruct("args");
+    protected static final TStruct anyStruct = new TStruct("Any");
+    protected static final TField pValueField = new TField("pValue", TType.STRUCT, (short)6);
+
+    protected TProtocol protocol;
+    protected int seqid;
+    protected byte[] chunk;
+    protected java.nio.DoubleBuffer chunkDoubles;
+}
@@ -59,16 +59,7 @@ public class Extension
                 port = 10080;
         }
 
-        transport = new TSocket(hostname, port);
-        transport.open();
-        protocol = new TBinaryProtocol(transport);
-
-        extensionProtocol = new TMultiplexedProtocol(protocol, "Extension");
-        controllerProtocol = new TMultiplexedProtocol(protocol, "Controller");
-        pendantProtocol = new TMultiplexedProtocol(protocol, "Pendant");
-        robotProtocol = new TMultiplexedProtocol(protocol, "Robot");
-
-        client = new yaskawa.ext.api.Extension.Client(extensionProtocol);
+        open(hostname, port);
 
         id = 0;
         try {
@@ -94,10 +85,55 @@ public class Extension
         this(canonicalName, version, vendor, supportedLanguages, "", -1);
     }
 
+    /**
+     * Open an additional connection to the API service for this (already registered) extension.
+     * Calls through the returned Extension, and the Controller, Pendant & Robot objects obtained from it,
+     *  use their own socket and lock, so may proceed concurrently with calls on this connection.
+     * Events should only be handled via run() on the original.  Closing it only closes the connection.
+     */
+    public Extension openConnection() throws TTransportException
+    {
+        return new Extension(this);
+    }
+
+    protected Extension(Extension registered) throws TTransportException
+    {
+        open(registered.hostname, registered.port);
+        id = registered.id;
+        additionalConnection = true;
+
+        controllerMap = new HashMap<Long, Controller>();
+        pendantMap = new HashMap<Long, Pendant>();
+
+        loggingConsumers = new ArrayList<Consumer<yaskawa.ext.api.LoggingEvent>>();
+    }
+
+    protected void open(String hostname, int port) throws TTransportException
+    {
+        this.hostname = hostname;
+        this.port = port;
+
+        transport = new TSocket(hostname, port);
+        transport.open();
+        protocol = new TBinaryProtocol(transport);
+
+        extensionProtocol = new TMultiplexedProtocol(protocol, "Extension");
+        controllerProtocol = new TMultiplexedProtocol(protocol, "Controller");
+        pendantProtocol = new TMultiplexedProtocol(protocol, "Pendant");
+        robotProtocol = new TMultiplexedProtocol(protocol, "Robot");
+
+        client = new yaskawa.ext.api.Extension.Client(extensionProtocol);
+    }
+
     public void close() 
     {
         try {            
-            if (id > 0) {
+            if (additionalConnection) {
+                synchronized(this) {
+                    transport.close();
+                }
+            }
+            else if (id > 0) {
                 synchronized(this) {
                     client.unregisterExtension(id);
                     transport.close();
@@ -205,37 +241,57 @@ public class Extension
             for (Long c : controllerMap.keySet()) {
                 Controller controller = controllerMap.get(c);
 
-                for (ControllerEvent e : controller.events()) {
-                    if (outputEvents) {
-                        System.out.print("ControllerEvent:"+e.eventType);
-                        if (e.isSetProps()) {
-                            var props = e.getProps();
-                            for(var prop : props.entrySet()) 
-                                System.out.print("   "+prop.getKey()+":"+prop.getValue().toString());
+                if (controller.decodesEventsLazily()) {
+                    for (LazyEvent e : controller.lazyEvents()) {
+                        if (outputEvents)
+                            printEvent("ControllerEvent:"+e.controllerEventType(), e);
+                        controller.handleEvent(e);
+                    }
+                }
+                else {
+                    for (ControllerEvent e : controller.events()) {
+                        if (outputEvents) {
+                            System.out.print("ControllerEvent:"+e.eventType);
+                            if (e.isSetProps()) {
+                                var props = e.getProps();
+                                for(var prop : props.entrySet()) 
+                                    System.out.print("   "+prop.getKey()+":"+prop.getValue().toString());
+                            }
+                            System.out.println();
                         }
-                        System.out.println();
+                        controller.handleEvent(e);
                     }
-                    controller.handleEvent(e);
                 }
             }
     
             for (Long p : pendantMap.keySet()) {
                 Pendant pendant = pendantMap.get(p);
 
-                for (PendantEvent e : pendant.events()) {
-                    if (outputEvents) {
-                        System.out.print("PendantEvent:"+e.eventType);
-                        if (e.isSetProps()) {
-                            var props = e.getProps();
-                            for(var prop : props.entrySet()) 
-                                System.out.print("  "+prop.getKey()+": "+prop.getValue().toString());
-                        }
-                        System.out.println();
+                if (pendant.decodesEventsLazily()) {
+                    for (LazyEvent e : pendant.lazyEvents()) {
+                        if (outputEvents)
+                            printEvent("PendantEvent:"+e.pendantEventType(), e);
+                        pendant.handleEvent(e);
+
+                        recievedShutdownEvent = (e.pendantEventType() == PendantEventType.Shutdown);
                     }
-                    pendant.handleEvent(e);
+                }
+                else {
+                    for (PendantEvent e : pendant.events()) {
+                        if (outputEvents) {
+                            System.out.print("PendantEvent:"+e.eventType);
+                            if (e.isSetProps()) {
+                                var props = e.getProps();
+                                for(var prop : props.entrySet()) 
+                                    System.out.print("  "+prop.getKey()+": "+prop.getValue().toString());
+                            }
+                            System.out.println();
+                        }
+                        pendant.handleEvent(e);
 
-                    recievedShutdownEvent = (e.getEventType() == PendantEventType.Shutdown);
-                }    
+                        recievedShutdownEvent = (e.getEventType() == PendantEventType.Shutdown);
+                    }    
+                }
             }
 
             if (loggingConsumers.size() > 0) {
@@ -257,37 +313,18 @@ public class Extension
     }
 
 
+    protected void printEvent(String type, LazyEvent e) throws TException
+    {
+        System.out.print(type);
+        for(var prop : e.props().entrySet())
+            System.out.print("  "+prop.getKey()+": "+prop.getValue().toString());
+        System.out.println();
+    }
+
+
     public static Any toAny(Object o)
     {
-        if (o instanceof Boolean)
-            return Any.bValue((Boolean)o);
-        else if (o instanceof Integer)
-            return Any.iValue((Integer)o);
-        else if (o instanceof Long)
-            return Any.iValue((Long)o);
-        else if (o instanceof Double)
-            return Any.rValue((Double)o);
-        else if (o instanceof String)
-            return Any.sValue((String)o);
-        else if (o instanceof Position)
-            return Any.pValue((Position)o);
-        else if (o instanceof List) {
-            var a = new ArrayList<Any>( ((List)o).size() );
-            for(var e : (List)o)
-                a.add(toAny(e));
-            return Any.aValue(a);
-        }
-        else if (o instanceof Map) {
-            Map map = (Map)o;
-            var m = new HashMap<String,Any>();
-            for(Object k : map.keySet()) {
-                if (!(k instanceof String))
-                    throw new RuntimeException("Maps with non-String keys unsupported");
-                m.put(toAny(k).getSValue(), toAny(map.get(k)));
-            }
-            return Any.mValue(m);
-        }
-        throw new RuntimeException("Unsupported conversion to Any from "+o.getClass().getSimpleName());
+        return AnyConverter.toAny(o);
     }
 
 
@@ -296,6 +333,9 @@ public class Extension
     private static final String[] logLevelNames = { "DEBUG", "INFO", "WARN", "CRITICAL" };
 
     protected long id;
+    protected String hostname;
+    protected int port;
+    protected boolean additionalConnection = false;
     protected yaskawa.ext.api.Extension.Client client;
     protected TTransport transport;
     protected TProtocol protocol;
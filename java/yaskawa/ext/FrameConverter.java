@@ -0,0 +1,102 @@
+package yaskawa.ext;
+
+import java.util.*;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Converts Cartesian positions between coordinate frames locally (rather than calling
+ *  Robot.toolTipPosition() once per frame), using the user frame definitions of a
+ *  ControllerConfigSnapshot (see Controller.configSnapshot()).
+ *
+ * World, Base & Robot frames are treated as coincident (i.e. robot not on a moving base)
+ *  and explicit frames are taken to have offsets in millimeters and Euler angles in
+ *  frameAngleUnit.  Frames that depend on the robot pose (Joint, ToolPlate, ToolTip)
+ *  can't be converted locally.
+ *
+ * Conversions reuse internal transforms so don't allocate, but a converter must not be
+ *  used by multiple threads concurrently.
+ */
+public class FrameConverter
+{
+    public FrameConverter(ControllerConfigSnapshot snapshot)
+    {
+        this.snapshot = snapshot;
+    }
+
+    /** Use a newer snapshot (e.g. after UserFramesChanged); user frames are re-read only if it differs */
+    public void update(ControllerConfigSnapshot snapshot)
+    {
+        if (snapshot != this.snapshot) {
+            this.snapshot = snapshot;
+            Arrays.fill(userFrames, null);
+        }
+    }
+
+    /** Transform from coordinates in frame to World coordinates */
+    public Transform toWorld(CoordinateFrame frame, Transform out) throws IllegalArgument
+    {
+        if (frame.getRep() != CoordFrameRepresentation.Implicit)
+            return out.set(frame, frameAngleUnit);
+
+        switch (frame.getPredefined()) {
+            case World:
+            case Base:
+            case Robot:
+                return out.identity();
+            case User:
+                return out.set(userFrame(frame.getUserFrame()));
+            default:
+                throw new IllegalArgument("Position in "+frame.getPredefined()+" frame depends on the robot pose and can't be converted locally");
+        }
+    }
+
+    /**
+     * Convert Cartesian position p into frame to, writing into out (which may be p).
+     * out keeps p's units & orientation representation (EulerRPY if none).
+     */
+    public PositionD convert(PositionD p, CoordinateFrame to, PositionD out) throws IllegalArgument
+    {
+        toWorld(p.frame(), from);
+        toWorld(to, target).invert();
+        pose.set(p);
+        target.multiply(target, from).multiply(pose);
+
+        var rep = (p.orientRep() != null) ? p.orientRep() : OrientationRepresentation.EulerRPY;
+        var unit = p.orientUnit();
+        out.setDistUnit(p.distUnit());
+        target.get(out, rep, unit);
+        out.setFrame(to);
+        return out;
+    }
+
+    /** User frame index -> World transform (cached) */
+    public Transform userFrame(int index) throws IllegalArgument
+    {
+        if (index < 0)
+            throw new IllegalArgument("Invalid user frame index "+index);
+        if (index >= userFrames.length)
+            userFrames = Arrays.copyOf(userFrames, index+1);
+        var t = userFrames[index];
+        if (t == null) {
+            var f = snapshot.userFrame(index);
+            if (f.getRep() == CoordFrameRepresentation.Implicit)
+                throw new IllegalArgument("User frame "+index+" has no explicit definition");
+            t = new Transform().set(f, frameAngleUnit);
+            userFrames[index] = t;
+        }
+        return t;
+    }
+
+
+    // angle unit of Euler orientations in explicit frame definitions
+    public OrientationUnit frameAngleUnit = OrientationUnit.Degree;
+
+    protected ControllerConfigSnapshot snapshot;
+    protected Transform[] userFrames = new Transform[64];
+
+    protected final Transform from = new Transform();
+    protected final Transform target = new Transform();
+    protected final Transform pose = new Transform();
+}
@@ -0,0 +1,241 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.thrift.TException;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Coordinates UI updates of a Pendant into frames, at a target rate (frames per second).
+ *
+ * Each frame, the registered handlers are called (to produce updates, e.g. append chart
+ *  points), then all property, chart & notice updates submitted since the last frame (from
+ *  any thread) are sent together as one burst: the (oneway) setProperties() call & notices,
+ *  then an updateCharts() call - so only its reply is waited for.
+ *
+ * If a frame takes longer than the frame period (e.g. under load), the frames missed are
+ *  skipped rather than run late in quick succession.  An exception from a handler or from
+ *  sending is recorded (see failure()) and the frames continue, updates not sent being kept
+ *  for the next frame.
+ *
+ *   var frames = new FrameScheduler(pendant, 30);
+ *   frames.addHandler(frame -> frames.charts().stream("line", "speed").append(t, speed()));
+ *   frames.properties().setProperty("speedLabel", "text", speedText);
+ */
+public class FrameScheduler implements AutoCloseable
+{
+    public interface Handler
+    {
+        void frame(long frame) throws TException;
+    }
+
+    public FrameScheduler(Pendant pendant, double fps)
+    {
+        this.pendant = pendant;
+        properties = new PropertyBatcher(pendant);
+        charts = new ChartStreams(pendant);
+        handlers = new CopyOnWriteArrayList<Handler>();
+        notices = new ConcurrentLinkedQueue<Notice>();
+        periodNanos = (long)(1e9 / fps);
+        running = true;
+        thread = new Thread(this::run, "FrameScheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Property updates, sent at the end of the frame */
+    public PropertyBatcher properties() { return properties; }
+
+    /** Chart updates, sent at the end of the frame */
+    public ChartStreams charts() { return charts; }
+
+    /** Called at the start of each frame (on the frame thread) */
+    public void addHandler(Handler handler) { handlers.add(handler); }
+    public void removeHandler(Handler handler) { handlers.remove(handler); }
+
+    public void notice(String title, String message)
+    {
+        notices.add(new Notice(null, title, message, "", false));
+    }
+
+    public void dispNotice(Disposition disposition, String title, String message)
+    {
+        notices.add(new Notice(disposition, title, message, "", false));
+    }
+
+    public void error(String title, String message)
+    {
+        notices.add(new Notice(null, title, message, "", true));
+    }
+
+
+    /** Send all pending updates now (on the calling thread) */
+    public void flush() throws TException
+    {
+        send(true);
+    }
+
+    public void close() throws TException
+    {
+        Thread t;
+        synchronized(this) {
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /** Most recent exception from a frame's handlers or sending, if any */
+    public synchronized Exception failure() { return failure; }
+
+    /** Exceptions from frames' handlers or sending (frames continuing regardless) */
+    public synchronized long failures() { return failures; }
+
+
+    // frame statistics
+
+    public synchronized long frames() { return frames; }
+    /** Frames skipped as the previous frame overran */
+    public synchronized long skippedFrames() { return skipped; }
+    /** Time taken by frames (handlers & sending) (nanosecs) */
+    public synchronized double meanFrameTime() { return (frames == 0) ? 0 : (double)totalFrameTime / frames; }
+    public synchronized long maxFrameTime() { return maxFrameTime; }
+    public synchronized long lastFrameTime() { return lastFrameTime; }
+
+    public synchronized void resetStats()
+    {
+        frames = skipped = 0;
+        totalFrameTime = maxFrameTime = lastFrameTime = 0;
+    }
+
+
+    protected void run()
+    {
+        long deadline = System.nanoTime();
+        while (running) {
+            long now = System.nanoTime();
+            if (deadline > now)
+                LockSupport.parkNanos(deadline - now);
+            if (!running)
+                break;
+
+            long start = System.nanoTime();
+            for(var h : handlers) {
+                try {
+                    h.frame(frameNumber);
+                } catch (TException | RuntimeException e) {
+                    failed(e);
+                }
+            }
+            try {
+                send(false);
+            } catch (TException | RuntimeException e) {
+                failed(e);
+            }
+            long end = System.nanoTime();
+            frameNumber++;
+
+            deadline += periodNanos;
+            long missed = (end > deadline) ? (end - deadline) / periodNanos + 1 : 0;
+            deadline += missed * periodNanos;
+            frameNumber += missed;
+
+            synchronized(this) {
+                frames++;
+                skipped += missed;
+                lastFrameTime = end - start;
+                totalFrameTime += lastFrameTime;
+                maxFrameTime = Math.max(maxFrameTime, lastFrameTime);
+            }
+        }
+    }
+
+    // send pending updates as one burst, uninterleaved with other calls: the send locks are
+    //  taken (charts' then properties') before the extension lock, as each flush takes them
+    protected void send(boolean allCharts) throws TException
+    {
+        synchronized(charts.sending) {
+            synchronized(properties.sending) {
+                synchronized(pendant.extension) {
+                    properties.flush();
+                    sendNotices();
+                    if (allCharts)
+                        charts.flushAll();
+                    else
+                        charts.flush();
+                }
+            }
+        }
+    }
+
+    protected synchronized void failed(Exception e)
+    {
+        failure = e;
+        failures++;
+    }
+
+    // (each removed only once sent, so a failure leaves it & those after for the next frame)
+    protected void sendNotices() throws TException
+    {
+        Notice n;
+        while ((n = notices.peek()) != null) {
+            if (n.error)
+                pendant.error(n.title, n.message, n.log);
+            else if (n.disposition != null)
+                pendant.dispNotice(n.disposition, n.title, n.message, n.log);
+            else
+                pendant.notice(n.title, n.message, n.log);
+            notices.remove();
+        }
+    }
+
+    protected static class Notice
+    {
+        Notice(Disposition disposition, String title, String message, String log, boolean error)
+        {
+            this.disposition = disposition;
+            this.title = title;
+            this.message = message;
+            this.log = log;
+            this.error = error;
+        }
+
+        final Disposition disposition;
+        final String title, message, log;
+        final boolean error;
+    }
+
+
+    protected final Pendant pendant;
+    protected final PropertyBatcher properties;
+    protected final ChartStreams charts;
+    protected final List<Handler> handlers;
+    protected final Queue<Notice> notices;
+
+    protected final long periodNanos;
+    protected volatile boolean running;
+    protected Thread thread;
+    protected Exception failure;
+    protected long failures;
+    protected long frameNumber;
+
+    protected long frames;
+    protected long skipped;
+    protected long totalFrameTime;
+    protected long maxFrameTime;
+    protected long lastFrameTime;
+}
@@ -0,0 +1,211 @@
+package yaskawa.ext;
+
+import java.util.*;
+
+
+/**
+ * Result of parsing an INFORM job with InformParser.
+ *
+ * Instructions are held as a compact table (mnemonic symbol, source line and the
+ *  range of the operand text in a shared char array) rather than as objects per line.
+ * The cross-reference index records each reference to a called job, variable,
+ *  position, IO signal or label, along with the index of the referencing instruction.
+ */
+public class InformJob
+{
+    public enum RefKind
+    {
+        JobCall,         // CALL JOB:x, JUMP JOB:x etc.
+        VariableRead,    // B000, I001, LD005 etc.
+        VariableWrite,   // destination of SET, ADD, GETARG etc.
+        Position,        // C00000, BC00000, EC00000
+        IO,              // IN#(1), OT#(LD005) etc.
+        LabelDefinition, // *LABEL
+        LabelReference   // JUMP *LABEL
+    }
+
+    InformJob()
+    {
+        name = "";
+        attributes = new LinkedHashMap<String, String>();
+        mnemonic = new int[64];
+        line = new int[64];
+        operandStart = new int[64];
+        operandEnd = new int[64];
+        text = new char[4096];
+        refSymbol = new int[128];
+        refInstruction = new int[128];
+        refKind = new byte[128];
+        symbols = new String[64];
+    }
+
+
+    /** Job name (from the //NAME header) */
+    public String name() { return name; }
+
+    /** Header attributes, such as DATE, ATTR, GROUP1 & LVARS (from ///key value lines) */
+    public Map<String, String> attributes() { return Collections.unmodifiableMap(attributes); }
+
+    /** Number of position data entries in the //POS section */
+    public int positionCount() { return positionCount; }
+
+
+    // Instruction table
+
+    public int instructionCount() { return instructionCount; }
+
+    /** Instruction mnemonic, e.g. "CALL" (comments are "'" and label definitions "*") */
+    public String mnemonic(int instruction) { return symbols[mnemonic[checked(instruction)]]; }
+
+    /** 1-based line number of the instruction within the job source */
+    public int line(int instruction) { return line[checked(instruction)]; }
+
+    /** Operand text following the mnemonic (leading/trailing whitespace removed) */
+    public String operands(int instruction)
+    {
+        checked(instruction);
+        return new String(text, operandStart[instruction], operandEnd[instruction]-operandStart[instruction]);
+    }
+
+    /** Instruction source text (without indentation) */
+    public String instruction(int instruction)
+    {
+        var operands = operands(instruction);
+        var m = mnemonic(instruction);
+        if (operands.isEmpty())
+            return m;
+        return m.equals("'") || m.equals("*") ? m + operands : m + " " + operands;
+    }
+
+    /** Indices of the instructions with the given mnemonic */
+    public int[] instructionsWithMnemonic(String m)
+    {
+        int count = 0;
+        var found = new int[instructionCount];
+        for(int i=0; i<instructionCount; i++) {
+            if (symbols[mnemonic[i]].equals(m))
+                found[count++] = i;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+
+    // Cross-reference index
+
+    /** Names of jobs called or jumped to */
+    public Set<String> calledJobs() { return references(RefKind.JobCall); }
+
+    /** Variables read or written (e.g. "I001", "LD005") */
+    public Set<String> variables()
+    {
+        var vars = references(RefKind.VariableRead);
+        vars.addAll(references(RefKind.VariableWrite));
+        return vars;
+    }
+
+    public Set<String> variablesWritten() { return references(RefKind.VariableWrite); }
+
+    /** IO signals referenced (e.g. "IN#(1)", "OT#(LD005)") */
+    public Set<String> io() { return references(RefKind.IO); }
+
+    /** Labels defined (without the leading '*') */
+    public Set<String> labels() { return references(RefKind.LabelDefinition); }
+
+    /** Distinct symbols referenced in the given way, in order of first reference */
+    public Set<String> references(RefKind kind)
+    {
+        var found = new LinkedHashSet<String>();
+        for(int r=0; r<refCount; r++) {
+            if (refKind[r] == kind.ordinal())
+                found.add(symbols[refSymbol[r]]);
+        }
+        return found;
+    }
+
+    /** Indices of instructions that reference the symbol in the given way */
+    public int[] referencingInstructions(RefKind kind, String symbol)
+    {
+        int count = 0;
+        var found = new int[refCount];
+        for(int r=0; r<refCount; r++) {
+            if (refKind[r] == kind.ordinal() && symbols[refSymbol[r]].equals(symbol)
+                && (count == 0 || found[count-1] != refInstruction[r]))
+                found[count++] = refInstruction[r];
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    public int referenceCount() { return refCount; }
+
+
+    public String toString()
+    {
+        return name+": "+instructionCount+" instructions, "+positionCount+" positions, calls "+calledJobs();
+    }
+
+
+    protected int checked(int instruction)
+    {
+        if (instruction < 0 || instruction >= instructionCount)
+            throw new IndexOutOfBoundsException("Instruction "+instruction+" of "+instructionCount);
+        return instruction;
+    }
+
+    // populated by InformParser
+
+    void addInstruction(int mnemonicSymbol, int sourceLine, char[] chars, int start, int end)
+    {
+        if (instructionCount == mnemonic.length) {
+            int n = instructionCount*2;
+            mnemonic = Arrays.copyOf(mnemonic, n);
+            line = Arrays.copyOf(line, n);
+            operandStart = Arrays.copyOf(operandStart, n);
+            operandEnd = Arrays.copyOf(operandEnd, n);
+        }
+        int len = end - start;
+        if (textLength + len > text.length)
+            text = Arrays.copyOf(text, Math.max(text.length*2, textLength + len));
+        System.arraycopy(chars, start, text, textLength, len);
+
+        mnemonic[instructionCount] = mnemonicSymbol;
+        line[instructionCount] = sourceLine;
+        operandStart[instructionCount] = textLength;
+        operandEnd[instructionCount] = textLength + len;
+        textLength += len;
+        instructionCount++;
+    }
+
+    void addReference(RefKind kind, int symbol)
+    {
+        if (refCount == refSymbol.length) {
+            int n = refCount*2;
+            refSymbol = Arrays.copyOf(refSymbol, n);
+            refInstruction = Arrays.copyOf(refInstruction, n);
+            refKind = Arrays.copyOf(refKind, n);
+        }
+        refSymbol[refCount] = symbol;
+        refInstruction[refCount] = instructionCount-1;
+        refKind[refCount] = (byte)kind.ordinal();
+        refCount++;
+    }
+
+
+    String name;
+    Map<String, String> attributes;
+    int positionCount;
+
+    int instructionCount;
+    int[] mnemonic;
+    int[] line;
+    int[] operandStart;
+    int[] operandEnd;
+    char[] text;
+    int textLength;
+
+    int refCount;
+    int[] refSymbol;
+    int[] refInstruction;
+    byte[] refKind;
+
+    String[] symbols; // shared with the parser symbol table
+}
@@ -0,0 +1,442 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.thrift.TException;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Streaming parser for INFORM job source.
+ *
+ * Source may be fed incrementally, in arbitrary chunks (e.g. directly from
+ *  Controller.readJobSource(name, parser)), and is tokenized line by line within
+ *  a reusable buffer.  Symbols (mnemonics, variable, job & label names etc.) are
+ *  interned so a String is only allocated the first time each is seen.
+ * Call finish() to obtain the resulting InformJob instruction table & cross-reference index.
+ */
+public class InformParser implements Controller.JobSourceChunkConsumer
+{
+    public InformParser()
+    {
+        decoder = StandardCharsets.UTF_8.newDecoder() // (malformed input replaced, not stalled on)
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        bytes = ByteBuffer.allocate(8192 + 4);
+        chars = CharBuffer.allocate(8192 + 4);
+        lineBuf = new char[256];
+        reset();
+    }
+
+    /** Parse a complete job source */
+    public static InformJob parse(CharSequence source)
+    {
+        var parser = new InformParser();
+        parser.accept(source);
+        return parser.finish();
+    }
+
+    /** Parse the named job, streaming its source from the controller */
+    public static InformJob parse(Controller c, String jobName) throws IllegalArgument, TException, IOException
+    {
+        var parser = new InformParser();
+        c.readJobSource(jobName, parser);
+        return parser.finish();
+    }
+
+    /**
+     * Job call graph reachable from rootJob (job name -> names of jobs it calls or jumps to).
+     * Jobs referenced but not present on the controller map to an empty set.
+     */
+    public static Map<String, Set<String>> callGraph(Controller c, String rootJob) throws IllegalArgument, TException, IOException
+    {
+        var graph = new LinkedHashMap<String, Set<String>>();
+        var pending = new ArrayDeque<String>();
+        pending.add(rootJob);
+        var parser = new InformParser();
+        while (!pending.isEmpty()) {
+            var name = pending.poll();
+            if (graph.containsKey(name))
+                continue;
+            if (!c.jobExists(name)) {
+                graph.put(name, Collections.emptySet());
+                continue;
+            }
+            c.readJobSource(name, parser);
+            var called = parser.finish().calledJobs();
+            graph.put(name, called);
+            pending.addAll(called);
+        }
+        return graph;
+    }
+
+
+    /** Discard any partially parsed source, ready to parse a new job */
+    public void reset()
+    {
+        job = new InformJob();
+        section = Section.Header;
+        lineNumber = 1;
+        lineLength = 0;
+        decoder.reset();
+        bytes.clear();
+        chars.clear();
+
+        names = new String[64];
+        hashes = new int[64];
+        slots = new int[128];
+        symbolCount = 0;
+        commentSymbol = symbol("'");
+        labelSymbol = symbol("*");
+    }
+
+    /** Accept a chunk of UTF-8 encoded source (chunk boundaries may fall anywhere) */
+    public void accept(ByteBuffer chunk)
+    {
+        while (chunk.hasRemaining()) {
+            var part = chunk.slice();
+            part.limit(Math.min(part.remaining(), bytes.remaining()));
+            bytes.put(part);
+            chunk.position(chunk.position() + part.limit());
+            decodeBytes(false);
+        }
+    }
+
+    public void accept(CharSequence text)
+    {
+        var block = chars.array(); // (decode buffer is always empty between calls)
+        int n = text.length();
+        for(int i=0; i<n; i+=block.length) {
+            int end = Math.min(n, i+block.length);
+            if (text instanceof String)
+                ((String)text).getChars(i, end, block, 0);
+            else {
+                for(int c=i; c<end; c++)
+                    block[c-i] = text.charAt(c);
+            }
+            accept(block, 0, end-i);
+        }
+    }
+
+    public void accept(char[] text, int offset, int length)
+    {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int nl = i;
+            while (nl < end && text[nl] != '\n')
+                nl++;
+            append(text, i, nl);
+            if (nl < end)
+                endLine();
+            i = nl + 1;
+        }
+    }
+
+    /** Complete parsing of any final line & return the result (the parser is reset for reuse) */
+    public InformJob finish()
+    {
+        decodeBytes(true);
+        decoder.flush(chars);
+        chars.flip();
+        accept(chars.array(), 0, chars.limit());
+        chars.clear();
+        if (lineLength > 0)
+            endLine();
+
+        var result = job;
+        result.symbols = names;
+        reset();
+        return result;
+    }
+
+
+    protected void decodeBytes(boolean endOfInput)
+    {
+        bytes.flip();
+        decoder.decode(bytes, chars, endOfInput);
+        bytes.compact();
+        chars.flip();
+        accept(chars.array(), 0, chars.limit());
+        chars.clear();
+    }
+
+    protected void append(char[] text, int start, int end)
+    {
+        int len = end - start;
+        if (lineLength + len > lineBuf.length)
+            lineBuf = Arrays.copyOf(lineBuf, Math.max(lineBuf.length*2, lineLength + len));
+        System.arraycopy(text, start, lineBuf, lineLength, len);
+        lineLength += len;
+    }
+
+    protected void endLine()
+    {
+        parseLine(lineBuf, 0, lineLength);
+        lineLength = 0;
+        lineNumber++;
+    }
+
+
+    protected void parseLine(char[] buf, int start, int end)
+    {
+        while (start < end && isSpace(buf[start]))
+            start++;
+        while (end > start && isSpace(buf[end-1]))
+            end--;
+        if (start == end)
+            return;
+
+        if (buf[start] == '/') {
+            parseHeader(buf, start, end);
+            return;
+        }
+
+        if (section != Section.Instructions) {
+            if (section == Section.Positions && indexOf(buf, start, end, '=') >= 0)
+                job.positionCount++;
+            return;
+        }
+
+        if (buf[start] == '\'') {
+            job.addInstruction(commentSymbol, lineNumber, buf, start+1, end);
+            return;
+        }
+
+        if (buf[start] == '*') {
+            int labelEnd = start+1;
+            while (labelEnd < end && !isSpace(buf[labelEnd]))
+                labelEnd++;
+            job.addInstruction(labelSymbol, lineNumber, buf, start+1, labelEnd);
+            if (labelEnd > start+1)
+                job.addReference(InformJob.RefKind.LabelDefinition, symbol(buf, start+1, labelEnd));
+            return;
+        }
+
+        int mnemonicEnd = start;
+        while (mnemonicEnd < end && !isSpace(buf[mnemonicEnd]))
+            mnemonicEnd++;
+        int m = symbol(buf, start, mnemonicEnd);
+        int operandStart = mnemonicEnd;
+        while (operandStart < end && isSpace(buf[operandStart]))
+            operandStart++;
+
+        job.addInstruction(m, lineNumber, buf, operandStart, end);
+        parseOperands(buf, operandStart, end, writeMnemonics.contains(names[m]));
+    }
+
+    protected void parseHeader(char[] buf, int start, int end)
+    {
+        int slashes = 0;
+        while (start+slashes < end && buf[start+slashes] == '/')
+            slashes++;
+        int keyStart = start + slashes;
+        int keyEnd = keyStart;
+        while (keyEnd < end && !isSpace(buf[keyEnd]))
+            keyEnd++;
+        int valueStart = keyEnd;
+        while (valueStart < end && isSpace(buf[valueStart]))
+            valueStart++;
+
+        if (slashes == 2) {
+            if (matches(buf, keyStart, keyEnd, "NAME"))
+                job.name = new String(buf, valueStart, end-valueStart);
+            else if (matches(buf, keyStart, keyEnd, "POS"))
+                section = Section.Positions;
+            else if (matches(buf, keyStart, keyEnd, "INST"))
+                section = Section.Instructions;
+        }
+        else if (slashes == 3)
+            job.attributes.put(new String(buf, keyStart, keyEnd-keyStart), new String(buf, valueStart, end-valueStart));
+    }
+
+    protected void parseOperands(char[] buf, int start, int end, boolean firstVariableWritten)
+    {
+        boolean write = firstVariableWritten;
+        int i = start;
+        while (i < end) {
+            char ch = buf[i];
+            boolean tokenStart = (i == start) || !isIdentChar(buf[i-1]);
+
+            if (ch == '"') {
+                int close = indexOf(buf, i+1, end, '"');
+                i = (close < 0) ? end : close+1;
+                continue;
+            }
+
+            if (ch == '*' && tokenStart) {
+                int j = i+1;
+                while (j < end && isIdentChar(buf[j]))
+                    j++;
+                if (j > i+1)
+                    job.addReference(InformJob.RefKind.LabelReference, symbol(buf, i+1, j));
+                i = j;
+                continue;
+            }
+
+            if (!isUpper(ch) || !tokenStart) {
+                i++;
+                continue;
+            }
+
+            int j = i;
+            while (j < end && isUpper(buf[j]))
+                j++;
+
+            // JOB:name
+            if (j < end && buf[j] == ':' && matches(buf, i, j, "JOB")) {
+                int k = j+1;
+                while (k < end && !isSpace(buf[k]) && buf[k] != '(' && buf[k] != ')' && buf[k] != ',' && buf[k] != '"')
+                    k++;
+                if (k > j+1)
+                    job.addReference(InformJob.RefKind.JobCall, symbol(buf, j+1, k));
+                i = k;
+                continue;
+            }
+
+            // IN#(n), OT#(LD005), IARG#(1) etc. - contents scanned for variables
+            if (j+1 < end && buf[j] == '#' && buf[j+1] == '(') {
+                if (matchesAny(buf, i, j, ioPrefixes)) {
+                    int close = indexOf(buf, j+2, end, ')');
+                    job.addReference(InformJob.RefKind.IO, symbol(buf, i, close < 0 ? end : close+1));
+                }
+                i = j+2;
+                continue;
+            }
+
+            // variable or position: prefix followed by digits (e.g. I001, LD005, ARGFLD007, C00000)
+            int k = j;
+            while (k < end && isDigit(buf[k]))
+                k++;
+            if (k > j && (k == end || !isIdentChar(buf[k]))) {
+                int p = (j-i > 4 && matches(buf, i, i+4, "ARGF")) ? i+4 : i;
+                if (matchesAny(buf, p, j, variablePrefixes)) {
+                    job.addReference(write ? InformJob.RefKind.VariableWrite : InformJob.RefKind.VariableRead, symbol(buf, p, k));
+                    write = false;
+                }
+                else if (matchesAny(buf, p, j, positionPrefixes))
+                    job.addReference(InformJob.RefKind.Position, symbol(buf, p, k));
+            }
+            i = k;
+        }
+    }
+
+
+    // symbol table (open addressing; hash as for String.hashCode())
+
+    protected int symbol(String s)
+    {
+        var a = s.toCharArray();
+        return symbol(a, 0, a.length);
+    }
+
+    protected int symbol(char[] buf, int start, int end)
+    {
+        int h = 0;
+        for(int i=start; i<end; i++)
+            h = 31*h + buf[i];
+
+        int mask = slots.length-1;
+        int s = (h ^ (h >>> 16)) & mask;
+        while (slots[s] != 0) {
+            int id = slots[s]-1;
+            if (hashes[id] == h && matches(buf, start, end, names[id]))
+                return id;
+            s = (s+1) & mask;
+        }
+
+        if (symbolCount == names.length) {
+            names = Arrays.copyOf(names, symbolCount*2);
+            hashes = Arrays.copyOf(hashes, symbolCount*2);
+        }
+        int id = symbolCount++;
+        names[id] = new String(buf, start, end-start);
+        hashes[id] = h;
+        slots[s] = id+1;
+
+        if (symbolCount*2 > slots.length) {
+            slots = new int[slots.length*2];
+            mask = slots.length-1;
+            for(int n=0; n<symbolCount; n++) {
+                int r = (hashes[n] ^ (hashes[n] >>> 16)) & mask;
+                while (slots[r] != 0)
+                    r = (r+1) & mask;
+                slots[r] = n+1;
+            }
+        }
+        return id;
+    }
+
+
+    protected static boolean matches(char[] buf, int start, int end, String s)
+    {
+        if (end-start != s.length())
+            return false;
+        for(int i=0; i<s.length(); i++) {
+            if (buf[start+i] != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    protected static boolean matchesAny(char[] buf, int start, int end, String[] strings)
+    {
+        for(var s : strings) {
+            if (matches(buf, start, end, s))
+                return true;
+        }
+        return false;
+    }
+
+    protected static int indexOf(char[] buf, int start, int end, char ch)
+    {
+        for(int i=start; i<end; i++) {
+            if (buf[i] == ch)
+                return i;
+        }
+        return -1;
+    }
+
+    protected static boolean isSpace(char ch) { return ch == ' ' || ch == '\t' || ch == '\r'; }
+    protected static boolean isUpper(char ch) { return ch >= 'A' && ch <= 'Z'; }
+    protected static boolean isDigit(char ch) { return ch >= '0' && ch <= '9'; }
+    protected static boolean isIdentChar(char ch) { return isUpper(ch) || isDigit(ch) || ch == '_' || (ch >= 'a' && ch <= 'z'); }
+
+
+    protected enum Section { Header, Positions, Instructions }
+
+    // instructions whose first variable operand is the destination
+    protected static final Set<String> writeMnemonics = Set.of(
+        "SET", "SETE", "SETFILE", "SETREG", "GETE", "GETS", "GETARG", "GETFILE", "GETREG", "GETPOS", "DIN",
+        "ADD", "SUB", "MUL", "DIV", "INC", "DEC", "AND", "OR", "NOT", "XOR", "CLEAR", "CNVRT",
+        "SIN", "COS", "ATAN", "SQRT", "MFRAME", "MULMAT", "INVMAT", "VAL", "ASC", "CHR$", "MID$", "LEN", "CAT$", "STRSTR");
+
+    protected static final String[] variablePrefixes = { "B", "I", "D", "R", "S", "P", "BP", "EX",
+                                                         "LB", "LI", "LD", "LR", "LS", "LP", "LBP", "LEX" };
+    protected static final String[] positionPrefixes = { "C", "BC", "EC" };
+    protected static final String[] ioPrefixes = { "IN", "OT", "IG", "OG", "IGH", "OGH", "SIN", "SOUT", "AIN", "AOUT" };
+
+    protected InformJob job;
+    protected Section section;
+    protected int lineNumber;
+
+    protected CharsetDecoder decoder;
+    protected ByteBuffer bytes;
+    protected CharBuffer chars;
+    protected char[] lineBuf;
+    protected int lineLength;
+
+    protected String[] names;
+    protected int[] hashes;
+    protected int[] slots;
+    protected int symbolCount;
+    protected int commentSymbol;
+    protected int labelSymbol;
+}
@@ -0,0 +1,341 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.thrift.TException;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Backup & restore of controller jobs to/from a single zip archive.
+ *
+ * Jobs are fetched (and restored) concurrently over several connections to the API service.
+ * The archive holds a manifest recording each job's last-edited timestamp & source hash
+ *  (SHA-256), which allows:
+ *  - incremental archiving: only jobs edited since a previous archive are fetched from
+ *    the controller, unchanged jobs are copied across from the previous archive
+ *  - restoring only those jobs whose source on the controller differs from that archived
+ *    (jobs with the archived timestamp are unchanged; otherwise the source is hashed, as
+ *    storing a job gives it a new timestamp)
+ */
+public class JobArchiver
+{
+    public JobArchiver(Extension extension, int connections)
+    {
+        this.extension = extension;
+        this.connections = Math.max(1, connections);
+    }
+
+    public JobArchiver(Extension extension)
+    {
+        this(extension, 4);
+    }
+
+
+    public static class Report
+    {
+        public int jobs;        // total jobs in archive / considered for restore
+        public int transferred; // jobs fetched from (or stored to) the controller
+        public int skipped;     // jobs unchanged
+        public long bytes;      // source bytes transferred
+        public long elapsedNanos;
+
+        public double jobsPerSecond() { return elapsedNanos > 0 ? transferred / (elapsedNanos / 1e9) : 0; }
+        public double bytesPerSecond() { return elapsedNanos > 0 ? bytes / (elapsedNanos / 1e9) : 0; }
+
+        public String toString()
+        {
+            return String.format("%d jobs (%d transferred, %d unchanged), %d bytes in %.2fs - %.1f jobs/s, %.1f KiB/s",
+                                 jobs, transferred, skipped, bytes, elapsedNanos/1e9, jobsPerSecond(), bytesPerSecond()/1024);
+        }
+    }
+
+
+    /** Archive all controller jobs */
+    public Report archive(Path archiveFile) throws TException, IOException
+    {
+        return archive(archiveFile, null);
+    }
+
+    /** Archive all controller jobs, fetching only those changed since previousArchive (if not null) */
+    public Report archive(Path archiveFile, Path previousArchive) throws TException, IOException
+    {
+        var report = new Report();
+        long start = System.nanoTime();
+
+        Map<String, ManifestEntry> previous = Collections.emptyMap();
+        ZipFile previousZip = null;
+        Path temp = null;
+        boolean archived = false;
+        var pool = new ConnectionPool(extension, connections);
+        try {
+            if (previousArchive != null && Files.exists(previousArchive)) {
+                previousZip = new ZipFile(previousArchive.toFile());
+                previous = readManifest(previousZip);
+            }
+
+            // (written alongside, then moved into place once complete - archiveFile may be previousArchive)
+            temp = Files.createTempFile(archiveFile.toAbsolutePath().getParent(), archiveFile.getFileName().toString(), ".tmp");
+            try (var zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                var names = extension.controller().jobs();
+                report.jobs = names.size();
+
+                // fetch details (and source, if changed) concurrently
+                var completion = new ExecutorCompletionService<Fetched>(pool.executor());
+                final var prev = previous;
+                final var prevZip = previousZip;
+                for(var name : names) {
+                    completion.submit(() -> pool.withController(c -> {
+                        var fetched = new Fetched();
+                        fetched.details = c.jobDetails(name);
+                        var p = prev.get(name);
+                        if (p == null || p.timestamp != fetched.details.getTimestamp()
+                            || prevZip.getEntry(p.entryName()) == null) {
+                            var source = new ByteArrayOutputStream();
+                            c.readJobSource(name, chunk -> {
+                                var bytes = new byte[chunk.remaining()];
+                                chunk.get(bytes);
+                                source.write(bytes);
+                            });
+                            fetched.source = source.toByteArray();
+                        }
+                        return fetched;
+                    }));
+                }
+
+                // write as they arrive
+                var manifest = new ArrayList<ManifestEntry>(names.size());
+                for(int i=0; i<names.size(); i++) {
+                    var fetched = await(completion);
+                    var details = fetched.details;
+                    byte[] source = fetched.source;
+                    String hash;
+                    if (source != null) {
+                        hash = hash(source);
+                        report.transferred++;
+                        report.bytes += source.length;
+                    }
+                    else {
+                        var p = previous.get(details.getName());
+                        try (var in = previousZip.getInputStream(previousZip.getEntry(p.entryName()))) {
+                            source = in.readAllBytes();
+                        }
+                        hash = (p.hash != null) ? p.hash : hash(source);
+                        report.skipped++;
+                    }
+                    var entry = new ManifestEntry(details.getName(), details.getTimestamp(), details.getProgrammingLanguage(), hash);
+                    zip.putNextEntry(new ZipEntry(entry.entryName()));
+                    zip.write(source);
+                    zip.closeEntry();
+                    manifest.add(entry);
+                }
+
+                writeManifest(zip, manifest);
+            }
+            if (previousZip != null) {
+                previousZip.close();
+                previousZip = null;
+            }
+            Files.move(temp, archiveFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            archived = true;
+        } finally {
+            pool.close();
+            if (previousZip != null)
+                previousZip.close();
+            if (!archived && temp != null)
+                Files.deleteIfExists(temp);
+        }
+
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+
+    /** Restore archived jobs that are missing or whose source differs on the controller */
+    public Report restore(Path archiveFile) throws TException, IOException
+    {
+        return restore(archiveFile, false);
+    }
+
+    /** Restore archived jobs; all of them if force, otherwise only those changed on the controller */
+    public Report restore(Path archiveFile, boolean force) throws TException, IOException
+    {
+        var report = new Report();
+        long start = System.nanoTime();
+
+        var pool = new ConnectionPool(extension, connections);
+        try (var zip = new ZipFile(archiveFile.toFile())) {
+            var manifest = readManifest(zip);
+            report.jobs = manifest.size();
+
+            var completion = new ExecutorCompletionService<Long>(pool.executor());
+            for(var entry : manifest.values()) {
+                completion.submit(() -> pool.withController(c -> {
+                    if (!force && c.jobExists(entry.name)
+                        && (c.jobDetails(entry.name).getTimestamp() == entry.timestamp
+                            || (entry.hash != null && entry.hash.equals(hash(c, entry.name)))))
+                        return -1L;
+
+                    byte[] source;
+                    synchronized(zip) {
+                        var zipEntry = zip.getEntry(entry.entryName());
+                        if (zipEntry == null)
+                            throw new IOException("Job "+entry.name+" missing from archive "+zip.getName());
+                        try (var in = zip.getInputStream(zipEntry)) {
+                            source = in.readAllBytes();
+                        }
+                    }
+                    c.storeJobSource(entry.name, entry.programmingLanguage, ByteBuffer.wrap(source));
+                    return (long)source.length;
+                }));
+            }
+
+            for(int i=0; i<manifest.size(); i++) {
+                long stored = await(completion);
+                if (stored < 0)
+                    report.skipped++;
+                else {
+                    report.transferred++;
+                    report.bytes += stored;
+                }
+            }
+        } finally {
+            pool.close();
+        }
+
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+
+    /** Read the manifest (job name -> timestamp etc.) of an existing archive */
+    public static Map<String, ManifestEntry> manifest(Path archiveFile) throws IOException
+    {
+        try (var zip = new ZipFile(archiveFile.toFile())) {
+            return readManifest(zip);
+        }
+    }
+
+    public static class ManifestEntry
+    {
+        public ManifestEntry(String name, long timestamp, String programmingLanguage, String hash)
+        {
+            this.name = name;
+            this.timestamp = timestamp;
+            this.programmingLanguage = programmingLanguage;
+            this.hash = hash;
+        }
+
+        String entryName()
+        {
+            return jobsDir + name + ("INFORM".equals(programmingLanguage) ? ".JBI" : "");
+        }
+
+        public final String name;
+        public final long timestamp; // millisecs since 1970-01-01
+        public final String programmingLanguage;
+        public final String hash; // SHA-256 of source (hex), null if archived without
+    }
+
+
+    protected static Map<String, ManifestEntry> readManifest(ZipFile zip) throws IOException
+    {
+        var manifestEntry = zip.getEntry(manifestName);
+        if (manifestEntry == null)
+            throw new IOException("Not a job archive (no "+manifestName+"): "+zip.getName());
+
+        var manifest = new LinkedHashMap<String, ManifestEntry>();
+        try (var in = new BufferedReader(new InputStreamReader(zip.getInputStream(manifestEntry), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                var fields = line.split("\t", -1);
+                if (fields.length < 3)
+                    throw new IOException("Malformed "+manifestName+" line: "+line);
+                var hash = (fields.length > 3 && !fields[3].isEmpty()) ? fields[3] : null;
+                manifest.put(fields[0], new ManifestEntry(fields[0], Long.parseLong(fields[1]), fields[2], hash));
+            }
+        }
+        return manifest;
+    }
+
+    protected static void writeManifest(ZipOutputStream zip, List<ManifestEntry> manifest) throws IOException
+    {
+        zip.putNextEntry(new ZipEntry(manifestName));
+        var out = new StringBuilder("# name\ttimestamp\tprogrammingLanguage\tsha256\n");
+        for(var e : manifest)
+            out.append(e.name).append('\t').append(e.timestamp).append('\t').append(e.programmingLanguage)
+               .append('\t').append(e.hash != null ? e.hash : "").append('\n');
+        zip.write(out.toString().getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+
+    protected static String hash(byte[] source)
+    {
+        var digest = sha256();
+        digest.update(source);
+        return hex(digest.digest());
+    }
+
+    /** Hash of the named job's source on the controller */
+    protected static String hash(Controller c, String name) throws TException, IOException
+    {
+        var digest = sha256();
+        c.readJobSource(name, chunk -> digest.update(chunk));
+        return hex(digest.digest());
+    }
+
+    protected static MessageDigest sha256()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected static String hex(byte[] bytes)
+    {
+        var s = new StringBuilder(bytes.length * 2);
+        for(var b : bytes)
+            s.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return s.toString();
+    }
+
+
+    protected static class Fetched
+    {
+        RobotJobInfo details;
+        byte[] source; // null if unchanged
+    }
+
+    protected static <T> T await(CompletionService<T> completion) throws TException, IOException
+    {
+        try {
+            return ConnectionPool.result(completion.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+    }
+
+
+    protected static final String manifestName = "manifest.tsv";
+    protected static final String jobsDir = "jobs/";
+
+    protected Extension extension;
+    protected int connections;
+}
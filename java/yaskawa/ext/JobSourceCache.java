@@ -0,0 +1,299 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Caches job sources (with the job timestamp) so edits can be stored as line patches.
+ *
+ * storeJobSource() computes a minimal line diff between the cached and new source
+ *  and sends only the changed line ranges via patchJobSource().  If the job was not
+ *  cached, was modified on the controller since (timestamp mismatch), the diff is
+ *  too large to be worthwhile, or the API service doesn't support patching,
+ *  the whole source is stored instead.
+ */
+public class JobSourceCache
+{
+    public JobSourceCache(Controller c)
+    {
+        this.c = c;
+        cache = new HashMap<String, Cached>();
+    }
+
+    /** Source of the named job; re-fetched only if the job timestamp has changed since cached */
+    public String jobSource(String name) throws IllegalArgument, TException
+    {
+        long timestamp = c.jobDetails(name).getTimestamp();
+        synchronized(this) {
+            var cached = cache.get(name);
+            if (cached != null && cached.timestamp == timestamp)
+                return cached.source;
+        }
+
+        var source = c.jobSource(name);
+        synchronized(this) {
+            cache.put(name, new Cached(source, timestamp));
+        }
+        return source;
+    }
+
+    /** Store new source for named job, as a patch against the cached source where possible */
+    public void storeJobSource(String name, String programmingLanguage, String source) throws IllegalArgument, TException, IOException
+    {
+        Cached cached;
+        synchronized(this) {
+            cached = cache.get(name);
+        }
+
+        // (unless edited since, when the cached source no longer matches the controller's)
+        if (cached != null && cached.source.equals(source) && c.jobDetails(name).getTimestamp() == cached.timestamp)
+            return;
+
+        if (cached != null && patchSupported) {
+            var patches = diff(lines(cached.source), lines(source), maxPatchLines);
+            if (patches != null) {
+                try {
+                    long timestamp = c.patchJobSource(name, cached.timestamp, patches);
+                    if (timestamp >= 0) {
+                        synchronized(this) {
+                            cache.put(name, new Cached(source, timestamp));
+                            patchedStores++;
+                            for(var p : patches)
+                                linesSent += p.getLines().size();
+                        }
+                        return;
+                    }
+                } catch (TApplicationException e) {
+                    if (e.getType() != TApplicationException.UNKNOWN_METHOD)
+                        throw e;
+                    patchSupported = false;
+                }
+            }
+        }
+
+        // full store
+        c.storeJobSource(name, programmingLanguage, new StringReader(source));
+        long timestamp = c.jobDetails(name).getTimestamp();
+        synchronized(this) {
+            cache.put(name, new Cached(source, timestamp));
+            fullStores++;
+            linesSent += lines(source).length;
+        }
+    }
+
+    public synchronized void invalidate(String name)
+    {
+        cache.remove(name);
+    }
+
+    public synchronized void invalidateAll()
+    {
+        cache.clear();
+    }
+
+
+    /**
+     * Minimal line patches transforming base into target (Myers O(ND) diff, in linear space),
+     *  with line numbers relative to base.  Returns null if more than maxEdits lines differ.
+     */
+    public static List<JobSourcePatch> diff(String[] base, String[] target, int maxEdits)
+    {
+        // common prefix & suffix needn't be searched
+        int n = base.length, m = target.length;
+        int prefix = 0;
+        while (prefix < n && prefix < m && base[prefix].equals(target[prefix]))
+            prefix++;
+        int suffix = 0;
+        while (suffix < n-prefix && suffix < m-prefix && base[n-1-suffix].equals(target[m-1-suffix]))
+            suffix++;
+
+        int N = n - prefix - suffix;
+        int M = m - prefix - suffix;
+        int max = Math.min(N + M, maxEdits);
+
+        var deleted = new boolean[N];
+        var inserted = new boolean[M];
+        if ((N == 0 || M == 0) && N + M > maxEdits)
+            return null;
+        if (N + M > 0 && !new Differ(base, target, prefix, deleted, inserted, max).compare(0, N, 0, M))
+            return null;
+
+        // group runs of edits into patches
+        var patches = new ArrayList<JobSourcePatch>();
+        int i = 0, j = 0;
+        while (i < N || j < M) {
+            if (i < N && j < M && !deleted[i] && !inserted[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            var patch = new JobSourcePatch();
+            patch.setStartLine(prefix + i + 1);
+            int start = i;
+            while (i < N && deleted[i])
+                i++;
+            var lines = new ArrayList<String>();
+            while (j < M && inserted[j])
+                lines.add(target[prefix + j++]);
+            patch.setLineCount(i - start);
+            patch.setLines(lines);
+            patches.add(patch);
+        }
+        return patches;
+    }
+
+    // Myers' divide & conquer on the middle snake, marking deleted base & inserted target lines
+    //  (relative to prefix) using space linear in the edit limit
+    protected static class Differ
+    {
+        Differ(String[] base, String[] target, int prefix, boolean[] deleted, boolean[] inserted, int maxEdits)
+        {
+            this.base = base;
+            this.target = target;
+            this.prefix = prefix;
+            this.deleted = deleted;
+            this.inserted = inserted;
+            this.maxEdits = maxEdits;
+            limit = (maxEdits + 1) / 2;
+            offset = limit + 1;
+            forward = new int[2*offset + 1];
+            reverse = new int[2*offset + 1];
+        }
+
+        // mark edits of base[a0,a1) to target[b0,b1), returning false if they exceed maxEdits
+        boolean compare(int a0, int a1, int b0, int b1)
+        {
+            while (a0 < a1 && b0 < b1 && equal(a0, b0)) {
+                a0++;
+                b0++;
+            }
+            while (a0 < a1 && b0 < b1 && equal(a1-1, b1-1)) {
+                a1--;
+                b1--;
+            }
+            if (a0 == a1) {
+                Arrays.fill(inserted, b0, b1, true);
+                return true;
+            }
+            if (b0 == b1) {
+                Arrays.fill(deleted, a0, a1, true);
+                return true;
+            }
+
+            // (at least 2 edits remain, so both halves are smaller)
+            if (!middleSnake(a0, a1, b0, b1))
+                return false;
+            int x = snakeX, y = snakeY, u = snakeU, v = snakeV;
+            return compare(a0, a0+x, b0, b0+y) && compare(a0+u, a1, b0+v, b1);
+        }
+
+        // find the middle snake of a shortest edit path, setting snake* relative to (a0,b0)
+        boolean middleSnake(int a0, int a1, int b0, int b1)
+        {
+            int n = a1 - a0, m = b1 - b0;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            forward[offset+1] = 0;
+            reverse[offset+1] = 0;
+            for(int d=0; d<=limit; d++) {
+                for(int k=-d; k<=d; k+=2) {
+                    int x = (k == -d || (k != d && forward[k-1+offset] < forward[k+1+offset])) ? forward[k+1+offset] : forward[k-1+offset]+1;
+                    int y = x - k;
+                    int x0 = x, y0 = y;
+                    while (x < n && y < m && equal(a0+x, b0+y)) {
+                        x++;
+                        y++;
+                    }
+                    forward[k+offset] = x;
+                    int r = delta - k;
+                    if (odd && r >= -(d-1) && r <= d-1 && x + reverse[r+offset] >= n) {
+                        if (2*d - 1 > maxEdits)
+                            return false;
+                        setSnake(x0, y0, x, y);
+                        return true;
+                    }
+                }
+                for(int r=-d; r<=d; r+=2) {
+                    int x = (r == -d || (r != d && reverse[r-1+offset] < reverse[r+1+offset])) ? reverse[r+1+offset] : reverse[r-1+offset]+1;
+                    int y = x - r;
+                    int x0 = x, y0 = y;
+                    while (x < n && y < m && equal(a1-1-x, b1-1-y)) {
+                        x++;
+                        y++;
+                    }
+                    reverse[r+offset] = x;
+                    int k = delta - r;
+                    if (!odd && k >= -d && k <= d && x + forward[k+offset] >= n) {
+                        if (2*d > maxEdits)
+                            return false;
+                        setSnake(n-x, m-y, n-x0, m-y0);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        void setSnake(int x, int y, int u, int v)
+        {
+            snakeX = x;
+            snakeY = y;
+            snakeU = u;
+            snakeV = v;
+        }
+
+        boolean equal(int i, int j)
+        {
+            return base[prefix+i].equals(target[prefix+j]);
+        }
+
+        final String[] base;
+        final String[] target;
+        final int prefix;
+        final boolean[] deleted;
+        final boolean[] inserted;
+        final int maxEdits;
+        final int limit;
+        final int offset;
+        final int[] forward;
+        final int[] reverse;
+        int snakeX, snakeY, snakeU, snakeV;
+    }
+
+    protected static String[] lines(String source)
+    {
+        return source.split("\n", -1);
+    }
+
+
+    protected static class Cached
+    {
+        Cached(String source, long timestamp)
+        {
+            this.source = source;
+            this.timestamp = timestamp;
+        }
+
+        final String source;
+        final long timestamp;
+    }
+
+    // diffs with more changed lines than this are stored whole
+    public int maxPatchLines = 2000;
+
+    // statistics
+    public int patchedStores;
+    public int fullStores;
+    public long linesSent;
+
+    protected Controller c;
+    protected Map<String, Cached> cache;
+    protected volatile boolean patchSupported = true;
+}
@@ -0,0 +1,307 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * View of an event (PendantEvent or ControllerEvent) still in its received (Thrift binary)
+ *  encoding, decoding only what is accessed - e.g. the event type, item & a property value -
+ *  rather than the whole props map.
+ *
+ * Views from LazyEvents are valid until the next events call that filled it (and the
+ *  view returned by its iterator is reused for each event) - use copy(), or toPendantEvent()
+ *  / toControllerEvent(), to keep an event.
+ */
+public class LazyEvent
+{
+    public LazyEvent()
+    {
+    }
+
+    /** View the event encoded in bytes[offset..offset+length) */
+    public LazyEvent set(byte[] bytes, int offset, int length)
+    {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        parsed = false;
+        return this;
+    }
+
+    public int eventTypeValue()
+    {
+        parse();
+        return eventType;
+    }
+
+    public PendantEventType pendantEventType() { return PendantEventType.findByValue(eventTypeValue()); }
+    public ControllerEventType controllerEventType() { return ControllerEventType.findByValue(eventTypeValue()); }
+
+    public boolean hasProps()
+    {
+        parse();
+        return props >= 0;
+    }
+
+    public int propCount()
+    {
+        parse();
+        return (props >= 0) ? i32(bytes, props + 2) : 0;
+    }
+
+    public boolean hasProp(String name)
+    {
+        return find(name) >= 0;
+    }
+
+    /** The YML item of the event ("item" or "identifier" property), or null */
+    public String itemId()
+    {
+        var item = stringProp("item");
+        return (item != null) ? item : stringProp("identifier");
+    }
+
+    public long intProp(String name)
+    {
+        int p = value(name, TType.I64);
+        if (p < 0)
+            throw new IllegalArgumentException("Event has no integer property '"+name+"'");
+        return i64(bytes, p);
+    }
+
+    public long intProp(String name, long defaultValue)
+    {
+        int p = value(name, TType.I64);
+        return (p >= 0) ? i64(bytes, p) : defaultValue;
+    }
+
+    public double realProp(String name)
+    {
+        int p = value(name, TType.DOUBLE);
+        if (p < 0)
+            throw new IllegalArgumentException("Event has no real property '"+name+"'");
+        return Double.longBitsToDouble(i64(bytes, p));
+    }
+
+    public double realProp(String name, double defaultValue)
+    {
+        int p = value(name, TType.DOUBLE);
+        return (p >= 0) ? Double.longBitsToDouble(i64(bytes, p)) : defaultValue;
+    }
+
+    public boolean boolProp(String name, boolean defaultValue)
+    {
+        int p = value(name, TType.BOOL);
+        return (p >= 0) ? (bytes[p] != 0) : defaultValue;
+    }
+
+    /** String property value, or null if none */
+    public String stringProp(String name)
+    {
+        int p = value(name, TType.STRING);
+        return (p >= 0) ? new String(bytes, p + 4, i32(bytes, p), StandardCharsets.UTF_8) : null;
+    }
+
+    /** Property value (decoded), or null if none */
+    public Any prop(String name) throws TException
+    {
+        int p = find(name);
+        if (p < 0)
+            return null;
+        var any = new Any();
+        any.read(protocol(p, skip(bytes, p, TType.STRUCT) - p));
+        return any;
+    }
+
+    /** All the properties (decoded) */
+    public Map<String, Any> props() throws TException
+    {
+        var props = new HashMap<String, Any>();
+        parse();
+        if (this.props >= 0) {
+            int n = propCount();
+            int p = this.props + 6;
+            for(int i=0; i<n; i++) {
+                int len = i32(bytes, p);
+                var key = new String(bytes, p + 4, len, StandardCharsets.UTF_8);
+                p += 4 + len;
+                int end = skip(bytes, p, TType.STRUCT);
+                var any = new Any();
+                any.read(protocol(p, end - p));
+                props.put(key, any);
+                p = end;
+            }
+        }
+        return props;
+    }
+
+    public PendantEvent toPendantEvent() throws TException
+    {
+        var e = new PendantEvent();
+        e.read(protocol(offset, length));
+        return e;
+    }
+
+    public ControllerEvent toControllerEvent() throws TException
+    {
+        var e = new ControllerEvent();
+        e.read(protocol(offset, length));
+        return e;
+    }
+
+    /** A view of a copy of the event's bytes (valid after the events buffer is reused) */
+    public LazyEvent copy()
+    {
+        return new LazyEvent().set(Arrays.copyOfRange(bytes, offset, offset + length), 0, length);
+    }
+
+    /** The encoded event */
+    public byte[] bytes() { return bytes; }
+    public int offset() { return offset; }
+    public int length() { return length; }
+
+
+    // locate event type & props fields
+    protected void parse()
+    {
+        if (parsed)
+            return;
+        eventType = -1;
+        props = -1;
+        int p = offset;
+        while (true) {
+            byte type = bytes[p];
+            if (type == TType.STOP)
+                break;
+            short id = (short)(((bytes[p+1] & 0xff) << 8) | (bytes[p+2] & 0xff));
+            p += 3;
+            if (id == 1 && type == TType.I32)
+                eventType = i32(bytes, p);
+            else if (id == 2 && type == TType.MAP)
+                props = p;
+            p = skip(bytes, p, type);
+        }
+        parsed = true;
+    }
+
+    // position of the Any value of property name, or -1
+    protected int find(String name)
+    {
+        parse();
+        if (props < 0)
+            return -1;
+        int n = i32(bytes, props + 2);
+        int p = props + 6;
+        for(int i=0; i<n; i++) {
+            int len = i32(bytes, p);
+            p += 4;
+            boolean match = equals(name, bytes, p, len);
+            p += len;
+            if (match)
+                return p;
+            p = skip(bytes, p, TType.STRUCT);
+        }
+        return -1;
+    }
+
+    // position of the value of property name if it holds a field of type, or -1
+    protected int value(String name, byte type)
+    {
+        int p = find(name);
+        return (p >= 0 && bytes[p] == type) ? p + 3 : -1;
+    }
+
+    protected TBinaryProtocol protocol(int offset, int length)
+    {
+        return new TBinaryProtocol(new TMemoryInputTransport(bytes, offset, length));
+    }
+
+    protected static boolean equals(String s, byte[] bytes, int offset, int length)
+    {
+        int n = s.length();
+        if (n > length)
+            return false;
+        for(int i=0; i<n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80)
+                break; // compare UTF-8 encoding
+            if (n == length && c != bytes[offset + i])
+                return false;
+            if (i == n - 1)
+                return n == length;
+        }
+        if (n == 0)
+            return length == 0;
+        var utf8 = s.getBytes(StandardCharsets.UTF_8);
+        return Arrays.equals(utf8, 0, utf8.length, bytes, offset, offset + length);
+    }
+
+    /** Position after the (binary encoded) value of type at bytes[p] */
+    protected static int skip(byte[] bytes, int p, byte type)
+    {
+        switch (type) {
+            case TType.BOOL:
+            case TType.BYTE:
+                return p + 1;
+            case TType.I16:
+                return p + 2;
+            case TType.I32:
+                return p + 4;
+            case TType.I64:
+            case TType.DOUBLE:
+                return p + 8;
+            case TType.STRING:
+                return p + 4 + i32(bytes, p);
+            case TType.STRUCT:
+                while (bytes[p] != TType.STOP)
+                    p = skip(bytes, p + 3, bytes[p]);
+                return p + 1;
+            case TType.MAP: {
+                byte k = bytes[p], v = bytes[p+1];
+                int n = i32(bytes, p + 2);
+                p += 6;
+                for(int i=0; i<n; i++)
+                    p = skip(bytes, skip(bytes, p, k), v);
+                return p;
+            }
+            case TType.SET:
+            case TType.LIST: {
+                byte e = bytes[p];
+                int n = i32(bytes, p + 1);
+                p += 5;
+                for(int i=0; i<n; i++)
+                    p = skip(bytes, p, e);
+                return p;
+            }
+            default:
+                throw new IllegalStateException("Invalid Thrift type "+type);
+        }
+    }
+
+    protected static int i32(byte[] b, int p)
+    {
+        return ((b[p] & 0xff) << 24) | ((b[p+1] & 0xff) << 16) | ((b[p+2] & 0xff) << 8) | (b[p+3] & 0xff);
+    }
+
+    protected static long i64(byte[] b, int p)
+    {
+        return ((long)i32(b, p) << 32) | (i32(b, p + 4) & 0xffffffffL);
+    }
+
+
+    protected byte[] bytes;
+    protected int offset;
+    protected int length;
+
+    protected boolean parsed;
+    protected int eventType;
+    protected int props; // position of props map header, or -1
+}
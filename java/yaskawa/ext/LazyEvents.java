@@ -0,0 +1,169 @@
+package yaskawa.ext;
+
+import java.util.*;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransport;
+
+
+/**
+ * A list of events as received (Thrift binary encoded), viewed as LazyEvents.
+ *
+ * The events' bytes are copied from the transport into a buffer reused by each call (so
+ *  are valid until the next), without decoding their props maps into Java objects.
+ */
+public class LazyEvents implements Iterable<LazyEvent>
+{
+    public LazyEvents()
+    {
+        bytes = new byte[4096];
+        offsets = new int[16];
+        view = new LazyEvent();
+    }
+
+    public int size() { return count; }
+    public boolean isEmpty() { return count == 0; }
+
+    /** View of event i (a new view) */
+    public LazyEvent get(int i)
+    {
+        Objects.checkIndex(i, count);
+        return new LazyEvent().set(bytes, offsets[i], offsets[i+1] - offsets[i]);
+    }
+
+    /** Iterates the events with a single (reused) view */
+    public Iterator<LazyEvent> iterator()
+    {
+        return new Iterator<LazyEvent>() {
+            public boolean hasNext() { return i < count; }
+            public LazyEvent next()
+            {
+                if (i >= count)
+                    throw new NoSuchElementException();
+                view.set(bytes, offsets[i], offsets[i+1] - offsets[i]);
+                i++;
+                return view;
+            }
+            int i;
+        };
+    }
+
+    /** Encoded size of the events (bytes) */
+    public int encodedSize() { return size; }
+
+
+    /** Read a list of event structs from (binary) protocol, replacing the current events */
+    public void read(TProtocol protocol) throws TException
+    {
+        var list = protocol.readListBegin();
+        if (list.elemType != TType.STRUCT && list.size > 0)
+            throw new TProtocolException(TProtocolException.INVALID_DATA, "Events list of non-structs");
+        transport = protocol.getTransport();
+        size = count = 0;
+        if (offsets.length < list.size + 1)
+            offsets = new int[list.size + 1];
+        for(int i=0; i<list.size; i++) {
+            offsets[i] = size;
+            copy(TType.STRUCT);
+        }
+        offsets[list.size] = size;
+        count = list.size;
+        transport = null;
+        protocol.readListEnd();
+    }
+
+    // read events() result of call made on direct
+    void receive(DirectCall direct, String method) throws TException
+    {
+        byte type = direct.receive(method);
+        if (type != TType.LIST)
+            direct.missing(method, type);
+        read(direct.protocol);
+        direct.protocol.readFieldEnd();
+        direct.end();
+    }
+
+    // copy the binary encoding of a value of type from the transport
+    protected void copy(byte type) throws TException
+    {
+        switch (type) {
+            case TType.BOOL:
+            case TType.BYTE:
+                copyBytes(1);
+                break;
+            case TType.I16:
+                copyBytes(2);
+                break;
+            case TType.I32:
+                copyBytes(4);
+                break;
+            case TType.I64:
+            case TType.DOUBLE:
+                copyBytes(8);
+                break;
+            case TType.STRING:
+                copyBytes(copyLength());
+                break;
+            case TType.STRUCT:
+                while (true) {
+                    copyBytes(1);
+                    byte field = bytes[size-1];
+                    if (field == TType.STOP)
+                        break;
+                    copyBytes(2);
+                    copy(field);
+                }
+                break;
+            case TType.MAP: {
+                copyBytes(2);
+                byte k = bytes[size-2], v = bytes[size-1];
+                int n = copyLength();
+                for(int i=0; i<n; i++) {
+                    copy(k);
+                    copy(v);
+                }
+                break;
+            }
+            case TType.SET:
+            case TType.LIST: {
+                copyBytes(1);
+                byte e = bytes[size-1];
+                int n = copyLength();
+                for(int i=0; i<n; i++)
+                    copy(e);
+                break;
+            }
+            default:
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "Invalid Thrift type "+type);
+        }
+    }
+
+    // copy a (non-negative) i32 length, returning it
+    protected int copyLength() throws TException
+    {
+        copyBytes(4);
+        int length = LazyEvent.i32(bytes, size - 4);
+        if (length < 0)
+            throw new TProtocolException(TProtocolException.NEGATIVE_SIZE, "Negative length: "+length);
+        return length;
+    }
+
+    protected void copyBytes(int n) throws TException
+    {
+        if (size + n > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(size + n, 2*bytes.length));
+        transport.readAll(bytes, size, n);
+        size += n;
+    }
+
+
+    protected byte[] bytes;
+    protected int size;
+    protected int[] offsets;
+    protected int count;
+    protected final LazyEvent view;
+    protected TTransport transport;
+}
@@ -0,0 +1,114 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.nio.ByteBuffer;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.thrift.TException;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Local stand-in for the chunked job source transfer calls
+ *  (openJobSourceRead(), readJobSourceChunk(), openJobSourceWrite() etc.)
+ * Used by Controller when the connected API service predates them; each transfer
+ *  is emulated on top of a single jobSource() or storeJobSource() call, so behaves
+ *  identically to the service but without the memory or interleaving benefits.
+ */
+class LocalJobSourceTransfers
+{
+    LocalJobSourceTransfers(Controller c)
+    {
+        this.c = c;
+        transfers = new HashMap<Long, Transfer>();
+        nextHandle = 1;
+    }
+
+    synchronized JobSourceTransfer openJobSourceRead(String name) throws IllegalArgument, TException
+    {
+        var t = new Transfer();
+        t.source = ByteBuffer.wrap(c.jobSource(name).getBytes(StandardCharsets.UTF_8));
+        long handle = nextHandle++;
+        transfers.put(handle, t);
+        return new JobSourceTransfer(handle, t.source.remaining());
+    }
+
+    synchronized ByteBuffer readJobSourceChunk(long handle, int maxBytes) throws IllegalArgument
+    {
+        var t = transfer(handle);
+        if (t.source == null)
+            throw new IllegalArgument("Job source transfer "+handle+" is not open for reading");
+
+        var chunk = t.source.slice();
+        chunk.limit(Math.min(maxBytes, chunk.remaining()));
+        t.source.position(t.source.position() + chunk.remaining());
+        return chunk;
+    }
+
+    synchronized long openJobSourceWrite(String name, String programmingLanguage)
+    {
+        var t = new Transfer();
+        t.name = name;
+        t.programmingLanguage = programmingLanguage;
+        t.written = new ByteArrayOutputStream();
+        long handle = nextHandle++;
+        transfers.put(handle, t);
+        return handle;
+    }
+
+    synchronized void writeJobSourceChunk(long handle, ByteBuffer chunk) throws IllegalArgument
+    {
+        var t = transfer(handle);
+        if (t.written == null)
+            throw new IllegalArgument("Job source transfer "+handle+" is not open for writing");
+
+        if (chunk.hasArray())
+            t.written.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+        else {
+            var bytes = new byte[chunk.remaining()];
+            chunk.duplicate().get(bytes);
+            t.written.write(bytes, 0, bytes.length);
+        }
+    }
+
+    void commitJobSource(long handle) throws IllegalArgument, TException
+    {
+        Transfer t;
+        synchronized(this) {
+            t = transfer(handle);
+            transfers.remove(handle);
+        }
+        if (t.written == null)
+            throw new IllegalArgument("Job source transfer "+handle+" is not open for writing");
+
+        c.storeJobSource(t.name, t.programmingLanguage, new String(t.written.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    synchronized void closeJobSourceTransfer(long handle)
+    {
+        transfers.remove(handle);
+    }
+
+
+    protected Transfer transfer(long handle) throws IllegalArgument
+    {
+        var t = transfers.get(handle);
+        if (t == null)
+            throw new IllegalArgument("Invalid or closed job source transfer "+handle);
+        return t;
+    }
+
+    protected static class Transfer
+    {
+        ByteBuffer source;              // when reading
+        String name;                    // when writing
+        String programmingLanguage;
+        ByteArrayOutputStream written;
+    }
+
+    protected Controller c;
+    protected Map<Long, Transfer> transfers;
+    protected long nextHandle;
+}
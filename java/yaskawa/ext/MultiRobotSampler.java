@@ -0,0 +1,260 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.io.IOException;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Samples joint & ToolTip positions of several control groups (e.g. all the robots of a
+ *  multi-robot cell) as one snapshot.
+ *
+ * Uses the batched Controller positions() call, so all groups are sampled in the same controller
+ *  cycle, on its own connection.  If the API service doesn't support it, Robot groups are sampled
+ *  concurrently over a ConnectionPool (one connection per robot) instead; other group types
+ *  can't then be sampled and are left without positions.
+ *
+ * Each Snapshot records the skew between group sample times (from the controller for batched
+ *  calls, otherwise the spread of the midpoints of the per-robot calls).
+ */
+public class MultiRobotSampler implements AutoCloseable
+{
+    /** Sample all simple control groups of the controller */
+    public MultiRobotSampler(Extension extension) throws TException
+    {
+        this(extension, extension.controller().controlGroups(), OrientationUnit.Radian, RobotStateSampler.worldFrame());
+    }
+
+    /** Sample the given control groups (combined groups are skipped, as their members are sampled individually) */
+    public MultiRobotSampler(Extension extension, List<ControlGroup> groups, OrientationUnit jointUnit, CoordinateFrame tcpFrame) throws TException
+    {
+        this.groups = new ArrayList<ControlGroup>();
+        for(var g : groups)
+            if (g.getType() != ControlGroupType.Combined && g.getType() != ControlGroupType.None)
+                this.groups.add(g);
+        this.jointUnit = jointUnit;
+        this.tcpFrame = tcpFrame;
+
+        connection = extension.openConnection();
+        try {
+            controller = connection.controller();
+            try {
+                controller.positions(this.groups, jointUnit, tcpFrame);
+                batched = true;
+            } catch (TApplicationException e) {
+                if (e.getType() != TApplicationException.UNKNOWN_METHOD)
+                    throw e;
+                batched = false;
+                int robots = 0;
+                for(var g : this.groups)
+                    if (g.getType() == ControlGroupType.Robot)
+                        robots++;
+                pool = new ConnectionPool(extension, Math.max(1, robots));
+
+                // a Robot per pool connection & robot group (not its Controller's registry, which tracks events)
+                poolRobots = new IdentityHashMap<Controller, Robot[]>();
+                for(var c : pool.controllers) {
+                    var r = new Robot[this.groups.size()];
+                    for(int i=0; i<r.length; i++)
+                        if (this.groups.get(i).getType() == ControlGroupType.Robot)
+                            r[i] = new Robot(c, c.robotProtocol, robotIndex(this.groups.get(i)));
+                    poolRobots.put(c, r);
+                }
+            }
+        } catch (TException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    public List<ControlGroup> groups() { return Collections.unmodifiableList(groups); }
+
+    /** True if sampling via the batched positions() call */
+    public boolean batched() { return batched; }
+
+
+    public static class Snapshot
+    {
+        Snapshot(int groups)
+        {
+            time = new double[groups];
+            sampled = new boolean[groups];
+            joints = new PositionD[groups];
+            toolTip = new PositionD[groups];
+            for(int i=0; i<groups; i++) {
+                joints[i] = new PositionD();
+                toolTip[i] = new PositionD();
+            }
+        }
+
+        public int size() { return time.length; }
+
+        /** False if group i couldn't be sampled (non-robot group without batched support) */
+        public boolean sampled(int i) { return sampled[i]; }
+
+        /** Sample time of group i (secs; controller clock if batched, else System.nanoTime() based) */
+        public double time(int i) { return time[i]; }
+
+        public PositionD joints(int i) { return joints[i]; }
+
+        /** ToolTip of group i, or null if not a robot */
+        public PositionD toolTip(int i) { return toolTip[i].hasPos() ? toolTip[i] : null; }
+
+        /** Spread of sample times across groups (nanosecs) */
+        public long skew() { return skew; }
+
+        /** Time taken to take the snapshot (nanosecs) */
+        public long elapsed() { return elapsed; }
+
+        protected final double[] time;
+        protected final boolean[] sampled;
+        protected final PositionD[] joints;
+        protected final PositionD[] toolTip;
+        protected long skew;
+        protected long elapsed;
+    }
+
+    public Snapshot sample() throws TException, IOException
+    {
+        return sample(new Snapshot(groups.size()));
+    }
+
+    /** Take a snapshot into the given (reused) Snapshot */
+    public Snapshot sample(Snapshot into) throws TException, IOException
+    {
+        long start = System.nanoTime();
+        if (batched)
+            sampleBatched(into);
+        else
+            sampleParallel(into);
+        into.elapsed = System.nanoTime() - start;
+
+        synchronized(this) {
+            snapshots++;
+            totalSkew += into.skew;
+            maxSkew = Math.max(maxSkew, into.skew);
+        }
+        return into;
+    }
+
+    protected void sampleBatched(Snapshot into) throws TException
+    {
+        var positions = controller.positions(groups, jointUnit, tcpFrame);
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for(int i=0; i<groups.size(); i++) {
+            var p = positions.get(i);
+            into.sampled[i] = true;
+            into.time[i] = p.getTime();
+            into.joints[i].set(p.getJoints());
+            if (p.isSetToolTip())
+                into.toolTip[i].set(p.getToolTip());
+            else
+                into.toolTip[i].clear();
+            min = Math.min(min, p.getTime());
+            max = Math.max(max, p.getTime());
+        }
+        into.skew = groups.isEmpty() ? 0 : (long)((max - min) * 1e9);
+    }
+
+    protected void sampleParallel(Snapshot into) throws TException, IOException
+    {
+        var futures = new ArrayList<Future<Long>>();
+        var sampledIndices = new ArrayList<Integer>();
+        for(int i=0; i<groups.size(); i++) {
+            var g = groups.get(i);
+            if (g.getType() != ControlGroupType.Robot) {
+                into.sampled[i] = false;
+                into.joints[i].clear();
+                into.toolTip[i].clear();
+                continue;
+            }
+            int group = i;
+            sampledIndices.add(i);
+            futures.add(pool.submit(c -> {
+                var robot = poolRobots.get(c)[group];
+                long before = System.nanoTime();
+                robot.jointPosition(jointUnit, into.joints[group]);
+                robot.toolTipPosition(tcpFrame, -1, into.toolTip[group]);
+                long after = System.nanoTime();
+                return before + (after - before)/2;
+            }));
+        }
+
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        try {
+            for(int k=0; k<futures.size(); k++) {
+                long mid = ConnectionPool.result(futures.get(k));
+                int i = sampledIndices.get(k);
+                into.sampled[i] = true;
+                into.time[i] = mid / 1e9;
+                min = Math.min(min, mid);
+                max = Math.max(max, mid);
+            }
+        } finally {
+            // (after a failure, the others would otherwise go on writing into the caller's snapshot)
+            for(var f : futures)
+                finish(f);
+        }
+        into.skew = futures.isEmpty() ? 0 : max - min;
+    }
+
+    // wait for f to complete, however it ends
+    protected static void finish(Future<?> f)
+    {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                f.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException | CancellationException e) {
+                break;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    protected static int robotIndex(ControlGroup g)
+    {
+        if (g.isSetSgroup() && g.getSgroup().isSetIndex())
+            return g.getSgroup().getIndex();
+        return g.getNumber();
+    }
+
+
+    /** Skew statistics over snapshots taken (nanosecs) */
+    public synchronized long maxSkew() { return maxSkew; }
+    public synchronized double meanSkew() { return (snapshots == 0) ? 0 : (double)totalSkew / snapshots; }
+    public synchronized long snapshots() { return snapshots; }
+
+    public void close()
+    {
+        if (pool != null)
+            pool.close();
+        connection.close();
+    }
+
+
+    protected final List<ControlGroup> groups;
+    protected final OrientationUnit jointUnit;
+    protected final CoordinateFrame tcpFrame;
+
+    protected Extension connection;
+    protected Controller controller;
+    protected boolean batched;
+    protected ConnectionPool pool;
+    protected Map<Controller, Robot[]> poolRobots;
+
+    protected long snapshots;
+    protected long totalSkew;
+    protected long maxSkew;
+}
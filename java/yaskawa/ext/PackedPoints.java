@@ -0,0 +1,153 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+import yaskawa.ext.api.DataPoint;
+
+
+/**
+ * Chart points packed as little-endian doubles (x,y or x,y,z per point), as sent by
+ *  Pendant appendChartPoints(.., PackedPoints, ..) without further copying or boxing.
+ *
+ * Points can be added individually, or written directly into doubles() (then setSize()).
+ * Storage is a heap ByteBuffer, as Thrift binary fields must be array backed.
+ */
+public class PackedPoints
+{
+    public PackedPoints(int dims)
+    {
+        this(dims, 64);
+    }
+
+    public PackedPoints(int dims, int capacity)
+    {
+        if (dims != 2 && dims != 3)
+            throw new IllegalArgumentException("Chart points have 2 or 3 dimensions");
+        this.dims = dims;
+        allocate(capacity);
+    }
+
+    public int dims() { return dims; }
+    public int size() { return size; }
+    public int capacity() { return values.capacity() / dims; }
+
+    public void clear() { size = 0; }
+
+    public void add(double x, double y)
+    {
+        add(x, y, 0);
+    }
+
+    public void add(double x, double y, double z)
+    {
+        ensureCapacity(size + 1);
+        int i = size * dims;
+        values.put(i, x);
+        values.put(i+1, y);
+        if (dims == 3)
+            values.put(i+2, z);
+        size++;
+    }
+
+    /** Add count points from values[offset..] (dims values per point) */
+    public void add(double[] values, int offset, int count)
+    {
+        ensureCapacity(size + count);
+        this.values.position(size * dims);
+        this.values.put(values, offset, count * dims);
+        size += count;
+    }
+
+    /** Add points from the remaining values of buffer (dims values per point) */
+    public void add(DoubleBuffer buffer)
+    {
+        int count = buffer.remaining() / dims;
+        ensureCapacity(size + count);
+        values.position(size * dims);
+        var src = buffer.duplicate();
+        src.limit(src.position() + count * dims);
+        values.put(src);
+        size += count;
+    }
+
+    public double x(int i) { return values.get(i*dims); }
+    public double y(int i) { return values.get(i*dims + 1); }
+    public double z(int i) { return (dims == 3) ? values.get(i*dims + 2) : 0; }
+
+    /**
+     * The point values, for writing directly (from index 0, dims per point);
+     *  call setSize() after.  Valid until capacity is increased.
+     */
+    public DoubleBuffer doubles() { return values; }
+
+    public void setSize(int points)
+    {
+        if (points > capacity())
+            throw new IllegalArgumentException("Size exceeds capacity");
+        size = points;
+    }
+
+    public void ensureCapacity(int points)
+    {
+        if (points > capacity()) {
+            var old = bytes;
+            allocate(Math.max(points, 2*capacity()));
+            bytes.put(old.array(), 0, size * dims * 8);
+            bytes.clear();
+        }
+    }
+
+    /** The packed bytes of the points (sharing storage) */
+    public ByteBuffer bytes()
+    {
+        var b = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        b.position(0);
+        b.limit(size * dims * 8);
+        return b;
+    }
+
+    public List<DataPoint> dataPoints()
+    {
+        var points = new ArrayList<DataPoint>(size);
+        for(int i=0; i<size; i++) {
+            var p = new DataPoint();
+            p.setX(x(i));
+            p.setY(y(i));
+            if (dims == 3)
+                p.setZ(z(i));
+            points.add(p);
+        }
+        return points;
+    }
+
+    /** values[offset..offset+length) as little-endian doubles */
+    public static ByteBuffer pack(double[] values, int offset, int length)
+    {
+        var b = ByteBuffer.allocate(length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        b.asDoubleBuffer().put(values, offset, length);
+        return b;
+    }
+
+    /** Remaining values of buffer as little-endian doubles */
+    public static ByteBuffer pack(DoubleBuffer values)
+    {
+        var b = ByteBuffer.allocate(values.remaining() * 8).order(ByteOrder.LITTLE_ENDIAN);
+        b.asDoubleBuffer().put(values.duplicate());
+        return b;
+    }
+
+    protected void allocate(int capacity)
+    {
+        bytes = ByteBuffer.allocate(Math.max(1, capacity) * dims * 8).order(ByteOrder.LITTLE_ENDIAN);
+        values = bytes.asDoubleBuffer();
+    }
+
+
+    protected final int dims;
+    protected ByteBuffer bytes;
+    protected DoubleBuffer values;
+    protected int size;
+}
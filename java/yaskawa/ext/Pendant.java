@@ -8,7 +8,10 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.Path;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 
+import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TProtocol;
 
@@ -22,9 +25,11 @@ public class Pendant
     {
         extension = ext;
         client = new yaskawa.ext.api.Pendant.Client(protocol);
+        direct = new DirectCall(protocol);
         this.id = id;
         eventConsumers = new HashMap<PendantEventType, ArrayList<Consumer<yaskawa.ext.api.PendantEvent>>>();
         itemEventConsumers = new HashMap<PendantEventType, HashMap<String, ArrayList<Consumer<yaskawa.ext.api.PendantEvent>>>>();
+        lazyEventConsumers = new HashMap<PendantEventType, ArrayList<Consumer<LazyEvent>>>();
     }
 
     public Version pendantVersion() throws TException
@@ -55,6 +60,29 @@ public class Pendant
         }
     }
 
+    /**
+     * Pending events, left encoded & decoded only as accessed (see LazyEvent).
+     * The events returned are valid until the next call.
+     */
+    public LazyEvents lazyEvents() throws TException
+    {
+        synchronized(extension) {
+            direct.begin("events");
+            direct.i64(1, id);
+            direct.send();
+            lazyEvents.receive(direct, "events");
+            return lazyEvents;
+        }
+    }
+
+    /**
+     * Have Extension run() receive events via lazyEvents() (rather than events()), so
+     *  events are only fully decoded if they have an addEventConsumer() or
+     *  addItemEventConsumer() consumer.  Enabled by addLazyEventConsumer().
+     */
+    public void decodeEventsLazily(boolean lazy) { lazyDecoding = lazy; }
+    public boolean decodesEventsLazily() { return lazyDecoding; }
+
     public String currentLanguage() throws TException
     {
         synchronized(extension) {
@@ -78,6 +106,7 @@ public class Pendant
 
     public List<String> registerYML(String ymlSource) throws TException
     {
+        invalidateShadow(); // items may be recreated
         synchronized(extension) {
             return client.registerYML(id, ymlSource);
         }
@@ -98,17 +127,28 @@ public class Pendant
 
     public void registerImageFile(String imageFileName) throws IllegalArgument, TException, IOException
     {
-        try {
-            synchronized(extension) {
-                client.registerImageFile(id, imageFileName);
-            }
-        } catch (Exception e) {
-            // something went wrong - possible file isn't accessible from service end, so send data over API 
-            var imageBytes = Files.readAllBytes(Paths.get(imageFileName));
-            synchronized(extension) {
-                client.registerImageData(id, ByteBuffer.wrap(imageBytes), imageFileName);
+        boolean probing = false;
+        if (filePathAccess != Boolean.FALSE) {
+            try {
+                synchronized(extension) {
+                    client.registerImageFile(id, imageFileName);
+                }
+                filePathAccess = true;
+                return;
+            } catch (IllegalArgument | TApplicationException e) {
+                // rejected - possible file isn't accessible from service end, so send data over API
+                //  (unless it isn't readable here either, when the file itself is at fault)
+                if (!Files.isReadable(Paths.get(imageFileName)))
+                    throw e;
+                probing = (filePathAccess == null);
             }
         }
+        var imageBytes = Files.readAllBytes(Paths.get(imageFileName));
+        synchronized(extension) {
+            client.registerImageData(id, ByteBuffer.wrap(imageBytes), imageFileName);
+        }
+        if (probing)
+            filePathAccess = false; // accepted as data, but not by name
     }
     public void registerImageData(java.nio.ByteBuffer imageData, String imageName) throws IllegalArgument, TException
     {
@@ -119,17 +159,28 @@ public class Pendant
 
     public void registerHTMLFile(String htmlFileName) throws IllegalArgument, TException, IOException
     {
-        try {
-            synchronized(extension) {
-                client.registerHTMLFile(id, htmlFileName);
-            }
-        } catch (Exception e) {
-            // something went wrong - possible file isn't accessible from service end, so send data over API
-            var dataBytes = Files.readAllBytes(Paths.get(htmlFileName));
-            synchronized(extension) {
-                client.registerHTMLData(id, ByteBuffer.wrap(dataBytes), htmlFileName);
+        boolean probing = false;
+        if (filePathAccess != Boolean.FALSE) {
+            try {
+                synchronized(extension) {
+                    client.registerHTMLFile(id, htmlFileName);
+                }
+                filePathAccess = true;
+                return;
+            } catch (IllegalArgument | TApplicationException e) {
+                // rejected - possible file isn't accessible from service end, so send data over API
+                //  (unless it isn't readable here either, when the file itself is at fault)
+                if (!Files.isReadable(Paths.get(htmlFileName)))
+                    throw e;
+                probing = (filePathAccess == null);
             }
         }
+        var dataBytes = Files.readAllBytes(Paths.get(htmlFileName));
+        synchronized(extension) {
+            client.registerHTMLData(id, ByteBuffer.wrap(dataBytes), htmlFileName);
+        }
+        if (probing)
+            filePathAccess = false; // accepted as data, but not by name
     }
     public void registerHTMLData(java.nio.ByteBuffer htmlData, String htmlName) throws IllegalArgument, TException
     {
@@ -141,18 +192,37 @@ public class Pendant
 
     public void registerTranslationFile(String locale, String translationFileName) throws IllegalArgument, TException, IOException
     {
-        try {
-            synchronized(extension) {
-                client.registerTranslationFile(id, locale, translationFileName);
-            }
-        } catch (Exception e) {
-            // something went wrong - possible file isn't accessible from service end, so send data over API
-            var dataBytes = Files.readAllBytes(Paths.get(translationFileName));
-            synchronized(extension) {
-                client.registerTranslationData(id, locale, ByteBuffer.wrap(dataBytes), translationFileName);
+        boolean probing = false;
+        if (filePathAccess != Boolean.FALSE) {
+            try {
+                synchronized(extension) {
+                    client.registerTranslationFile(id, locale, translationFileName);
+                }
+                filePathAccess = true;
+                return;
+            } catch (IllegalArgument | TApplicationException e) {
+                // rejected - possible file isn't accessible from service end, so send data over API
+                //  (unless it isn't readable here either, when the file itself is at fault)
+                if (!Files.isReadable(Paths.get(translationFileName)))
+                    throw e;
+                probing = (filePathAccess == null);
             }
         }
+        var dataBytes = Files.readAllBytes(Paths.get(translationFileName));
+        synchronized(extension) {
+            client.registerTranslationData(id, locale, ByteBuffer.wrap(dataBytes), translationFileName);
+        }
+        if (probing)
+            filePathAccess = false; // accepted as data, but not by name
     }
+
+    /**
+     * Whether the pendant service can access the files registered by name (else their data
+     *  is sent), as found by the first file it accepts by name, or only as data, this session
+     *  (null if none yet).  Once found inaccessible, files are read & sent as data without
+     *  first trying by name.  Files that can't be read here aren't counted either way.
+     */
+    public Boolean filePathAccess() { return filePathAccess; }
     public void registerTranslationData(String locale, java.nio.ByteBuffer translationData, String translationName) throws IllegalArgument, TException
     {
         synchronized(extension) {
@@ -230,83 +300,167 @@ public class Pendant
 
     public void setProperty(String itemID, String name, Any value) throws IllegalArgument, TException
     {
-        synchronized(extension) {
-            client.setProperty(id, itemID, name, value);
+        if (!changed(itemID, name, value))
+            return;
+        try {
+            synchronized(extension) {
+                client.setProperty(id, itemID, name, value);
+            }
+        } catch (TException e) {
+            invalidateShadow(itemID);
+            throw e;
         }
     }
     // convenience overloads
     public void setProperty(String itemID, String name, boolean value) throws IllegalArgument, TException
     {
-        synchronized(extension) {
-            client.setProperty(id, itemID, name, Any.bValue(value));
-        }
+        setProperty(itemID, name, Any.bValue(value));
     }
     public void setProperty(String itemID, String name, int value) throws IllegalArgument, TException
     {
-        synchronized(extension) {
-            client.setProperty(id, itemID, name, Any.iValue((long)value));
-        }
+        setProperty(itemID, name, Any.iValue((long)value));
     }
     public void setProperty(String itemID, String name, long value) throws IllegalArgument, TException
     {
-        synchronized(extension) {
-            client.setProperty(id, itemID, name, Any.iValue(value));
-        }
+        setProperty(itemID, name, Any.iValue(value));
     }
     public void setProperty(String itemID, String name, double value) throws IllegalArgument, TException
     {
-        synchronized(extension) {
-            client.setProperty(id, itemID, name, Any.rValue(value));
-        }
+        setProperty(itemID, name, Any.rValue(value));
     }
     public void setProperty(String itemID, String name, String value) throws IllegalArgument, TException
     {
-        synchronized(extension) {
-            client.setProperty(id, itemID, name, Any.sValue(value));
-        }
+        setProperty(itemID, name, Any.sValue(value));
     }
 
     public void setProperty(String itemID, String name, List<Object> array) throws IllegalArgument, TException
     {
-        var a = new ArrayList<Any>(array.size());
-        for(var e : array) {
-            a.add(Extension.toAny(e));
-        }
-
-        synchronized(extension) {
-            client.setProperty(id, itemID, name, Any.aValue(a));
-        }
+        setProperty(itemID, name, AnyConverter.toAny(array));
     }
 
     public void setProperty(String itemID, String name, Object[] array) throws IllegalArgument, TException
     {
-        var a = new ArrayList<Any>(array.length);
-        for(var e : array) {
-            a.add(Extension.toAny(e));
+        setProperty(itemID, name, AnyConverter.toAny((Object)array));
+    }
+
+    public void setProperty(String itemID, String name, Map<String, Object> map) throws IllegalArgument, TException
+    {
+        setProperty(itemID, name, AnyConverter.toAny(map));
+    }
+
+
+    public void setProperties(List<PropValue> propValues) throws org.apache.thrift.TException
+    {
+        sendPropValues(this.propValues(propValues));
+    }
+
+    /** Set the properties of batch (which may then be reset() for reuse) */
+    public void setProperties(PropertyBatch batch) throws TException
+    {
+        if (!batch.isEmpty())
+            sendPropValues(batch.propValues());
+    }
+
+    // send properties already collected by itemID (e.g. by PropertyBatcher)
+    void sendPropValues(List<PropValues> propValuesList) throws TException
+    {
+        var changed = changed(propValuesList);
+        if (changed.isEmpty())
+            return;
+        try {
+            synchronized(extension) {
+                client.setProperties(id, changed);
+            }
+        } catch (TException e) {
+            for(var pvs : changed)
+                invalidateShadow(pvs.getItemID());
+            throw e;
         }
+    }
 
-        synchronized(extension) {
-            client.setProperty(id, itemID, name, Any.aValue(a));
+
+    /**
+     * Enable/disable dropping of property writes that would set an item property to the
+     *  value it was last set to (as recorded in a client-side shadow of written values).
+     * The shadow is forgotten when YML is registered or a utility or panel is opened, and
+     *  for an item when a user edit event from it (e.g. TextEdited) is handled, as the
+     *  item may then no longer show the last value written.
+     * Note Any values written must not be modified after writing while enabled.
+     */
+    public void suppressRedundantWrites(boolean enable) throws TException
+    {
+        synchronized(shadow) {
+            shadowEnabled = enable;
+            shadow.clear();
         }
+        if (enable)
+            subscribeEventTypes(Set.of(PendantEventType.UtilityOpened, PendantEventType.PanelOpened));
     }
 
-    public void setProperty(String itemID, String name, Map<String, Object> map) throws IllegalArgument, TException
+    /** Forget all written property values (so the next writes are sent) */
+    public void invalidateShadow()
     {
-        var m = new HashMap<String,Any>();
-        for(var k : map.keySet()) {
-            m.put(k, Extension.toAny(map.get(k)));
+        synchronized(shadow) {
+            shadow.clear();
         }
-        synchronized(extension) {
-            client.setProperty(id, itemID, name, Any.mValue(m));
+    }
+
+    /** Forget written property values of item */
+    public void invalidateShadow(String itemID)
+    {
+        synchronized(shadow) {
+            shadow.remove(itemID);
         }
     }
 
+    /** Property writes dropped as redundant */
+    public long suppressedWrites() { synchronized(shadow) { return suppressedWrites; } }
+    /** Property writes checked against the shadow (sent + suppressed) */
+    public long shadowedWrites() { synchronized(shadow) { return shadowedWrites; } }
 
-    public void setProperties(List<PropValue> propValues) throws org.apache.thrift.TException
+    // true (and recorded in shadow) if value differs from that last written
+    protected boolean changed(String itemID, String name, Any value)
     {
-        synchronized(extension) {
-            client.setProperties(id, this.propValues(propValues));
+        synchronized(shadow) {
+            if (!shadowEnabled)
+                return true;
+            shadowedWrites++;
+            var props = shadow.get(itemID);
+            if (props == null) {
+                props = new HashMap<String, Any>();
+                shadow.put(itemID, props);
+            }
+            else if (value.equals(props.get(name))) {
+                suppressedWrites++;
+                return false;
+            }
+            props.put(name, value);
+            return true;
+        }
+    }
+
+    // PropValues with unchanged properties (and items left without properties) removed
+    protected List<PropValues> changed(List<PropValues> propValuesList)
+    {
+        if (!shadowEnabled)
+            return propValuesList;
+        var result = new ArrayList<PropValues>(propValuesList.size());
+        for(var pvs : propValuesList) {
+            var props = pvs.getProps();
+            Map<String, Any> changed = new LinkedHashMap<String, Any>();
+            for(var entry : props.entrySet())
+                if (changed(pvs.getItemID(), entry.getKey(), entry.getValue()))
+                    changed.put(entry.getKey(), entry.getValue());
+            if (changed.size() == props.size())
+                result.add(pvs);
+            else if (!changed.isEmpty()) {
+                var c = new PropValues();
+                c.setItemID(pvs.getItemID());
+                c.setProps(changed);
+                result.add(c);
+            }
         }
+        return result;
     }
 
     // Convenience
@@ -360,44 +514,35 @@ public class Pendant
     // client calls these and construcs a List.of them for setProperties()
     public static PropValue propValue(String itemID, String name, boolean value)
     {
-        return new PropValue(itemID, name, Extension.toAny(value));
+        return new PropValue(itemID, name, AnyConverter.toAny(value));
     }
     public static PropValue propValue(String itemID, String name, int value)
     {
-        return new PropValue(itemID, name, Extension.toAny((long)value));
+        return new PropValue(itemID, name, AnyConverter.toAny((long)value));
     }
     public static PropValue propValue(String itemID, String name, long value)
     {
-        return new PropValue(itemID, name, Extension.toAny(value));
+        return new PropValue(itemID, name, AnyConverter.toAny(value));
     }
     public static PropValue propValue(String itemID, String name, double value)
     {
-        return new PropValue(itemID, name, Extension.toAny(value));
+        return new PropValue(itemID, name, AnyConverter.toAny(value));
     }
     public static PropValue propValue(String itemID, String name, String value)
     {
-        return new PropValue(itemID, name, Extension.toAny(value));
+        return new PropValue(itemID, name, AnyConverter.toAny(value));
     }
     public static PropValue propValue(String itemID, String name, List<Object> value)
     {
-        var a = new ArrayList<Any>(value.size());
-        for(var e : value)
-            a.add(Extension.toAny(e));
-        return new PropValue(itemID, name, Any.aValue(a));
+        return new PropValue(itemID, name, AnyConverter.toAny(value));
     }
     public static PropValue propValue(String itemID, String name, Object[] value)
     {
-        var a = new ArrayList<Any>(value.length);
-        for(var e : value)
-            a.add(Extension.toAny(e));
-        return new PropValue(itemID, name, Any.aValue(a));
+        return new PropValue(itemID, name, AnyConverter.toAny((Object)value));
     }
     public static PropValue propValue(String itemID, String name, Map<String, Object> value)
     {
-        var m = new HashMap<String,Any>();
-        for(var k : value.keySet())
-            m.put(k, Extension.toAny(value.get(k)));
-        return new PropValue(itemID, name, Any.mValue(m));
+        return new PropValue(itemID, name, AnyConverter.toAny(value));
     }
 
 
@@ -422,12 +567,9 @@ public class Pendant
     public void setChartConfig(String chartID, Map<String, Object> config)
             throws IllegalArgument, TException
     {
-        var m = new HashMap<String,Any>();
-        for(var k : config.keySet()) {
-            m.put(k, Extension.toAny(config.get(k)));
-        }
+        var m = AnyConverter.toAny(config);
         synchronized(extension) {
-            client.setChartConfig(id, chartID, Any.mValue(m));
+            client.setChartConfig(id, chartID, m);
         }
     }
 
@@ -583,6 +725,253 @@ public class Pendant
         }
     }
 
+    // Packed chart data
+    //  points are sent as little-endian doubles rather than lists of DataPoint structs / boxed
+    //  Doubles (if supported by the API service, otherwise the equivalent unpacked call is made)
+    //  Appending points is oneway, as is appendChartPoints(.., List<DataPoint>, ..), so errors
+    //  such as an unknown chart or key are not reported - except by the first packed append,
+    //  which is made by updateCharts() (if supported) to find whether packed data is supported.
+
+    public void appendChartPoints(String chartID, String key, PackedPoints points, boolean right)
+            throws IllegalArgument, TException
+    {
+        if (points.size() == 0)
+            return;
+        if (packedChartData == null && appendByUpdateCharts(chartID, key, points, right))
+            return;
+        if (packedChartData == Boolean.TRUE) {
+            synchronized(extension) {
+                client.appendChartPointsPacked(id, chartID, key, points.bytes(), points.dims(), right);
+            }
+        }
+        else
+            appendChartPoints(chartID, key, points.dataPoints(), right);
+    }
+
+    /** Append count points from points[offset..] (x,y or x,y,z per point, as dims is 2 or 3) */
+    public void appendChartPoints(String chartID, String key, double[] points, int offset, int count, int dims, boolean right)
+            throws IllegalArgument, TException
+    {
+        if (packedChartData != Boolean.TRUE) {
+            var packed = new PackedPoints(dims, count);
+            packed.add(points, offset, count);
+            appendChartPoints(chartID, key, packed, right);
+            return;
+        }
+        checkDims(dims);
+        if (count == 0)
+            return;
+        synchronized(extension) { // encoded directly from points
+            beginAppendChartPointsPacked(chartID, key);
+            direct.doubles(4, points, offset, count * dims);
+            endAppendChartPointsPacked(dims, right);
+        }
+    }
+
+    /** Append points from the remaining values of points (x,y or x,y,z per point, as dims is 2 or 3) */
+    public void appendChartPoints(String chartID, String key, DoubleBuffer points, int dims, boolean right)
+            throws IllegalArgument, TException
+    {
+        if (packedChartData != Boolean.TRUE) {
+            var packed = new PackedPoints(dims, points.remaining() / dims);
+            packed.add(points);
+            appendChartPoints(chartID, key, packed, right);
+            return;
+        }
+        checkDims(dims);
+        int count = points.remaining() / dims;
+        if (count == 0)
+            return;
+        var values = points.duplicate();
+        values.limit(values.position() + count * dims);
+        synchronized(extension) { // encoded directly from points
+            beginAppendChartPointsPacked(chartID, key);
+            direct.doubles(4, values);
+            endAppendChartPointsPacked(dims, right);
+        }
+    }
+
+    protected void beginAppendChartPointsPacked(String chartID, String key) throws TException
+    {
+        direct.beginOneway("appendChartPointsPacked");
+        direct.i64(1, id);
+        direct.string(2, chartID);
+        direct.string(3, key);
+    }
+
+    protected void endAppendChartPointsPacked(int dims, boolean right) throws TException
+    {
+        direct.i32(5, dims);
+        direct.bool(6, right);
+        direct.send();
+    }
+
+    protected static void checkDims(int dims)
+    {
+        if (dims != 2 && dims != 3)
+            throw new IllegalArgumentException("Chart points have 2 or 3 dimensions");
+    }
+
+    // append points via updateCharts(), returning false if not supported
+    //  (a service with updateCharts(), whose updates carry packed points, supports packed data)
+    protected boolean appendByUpdateCharts(String chartID, String key, PackedPoints points, boolean right)
+            throws IllegalArgument, TException
+    {
+        if (!multiChartUpdates)
+            return false;
+        try {
+            synchronized(extension) {
+                client.updateCharts(id, List.of(chartPoints(chartID, key, points, right)));
+            }
+        } catch (IllegalArgument e) {
+            packedChartData = true;
+            throw e;
+        } catch (TApplicationException e) {
+            if (e.getType() != TApplicationException.UNKNOWN_METHOD)
+                throw e;
+            multiChartUpdates = false;
+            return false;
+        }
+        packedChartData = true;
+        return true;
+    }
+
+    /**
+     * Set (or add) Series data of chart key from x, y & z (null if none) [0..count), with other
+     *  Series fields (color, maxPts etc.) from attributes (if not null)
+     */
+    public void setChartSeries(String chartID, String key, double[] x, double[] y, double[] z, int count, Series attributes, boolean right)
+            throws IllegalArgument, TException
+    {
+        var noZ = ByteBuffer.allocate(0);
+        setChartSeries(chartID, key, PackedPoints.pack(x, 0, count), PackedPoints.pack(y, 0, count),
+                       (z != null) ? PackedPoints.pack(z, 0, count) : noZ, attributes, right);
+    }
+
+    /** Set (or add) Series data of chart key from the remaining values of x, y & z (null if none) */
+    public void setChartSeries(String chartID, String key, DoubleBuffer x, DoubleBuffer y, DoubleBuffer z, Series attributes, boolean right)
+            throws IllegalArgument, TException
+    {
+        var noZ = ByteBuffer.allocate(0);
+        setChartSeries(chartID, key, PackedPoints.pack(x), PackedPoints.pack(y),
+                       (z != null) ? PackedPoints.pack(z) : noZ, attributes, right);
+    }
+
+    protected void setChartSeries(String chartID, String key, ByteBuffer x, ByteBuffer y, ByteBuffer z, Series attributes, boolean right)
+            throws IllegalArgument, TException
+    {
+        if (attributes == null)
+            attributes = new Series();
+        if (packedChartData != Boolean.FALSE) {
+            try {
+                synchronized(extension) {
+                    client.setChartSeriesPacked(id, chartID, key, x, y, z, attributes, right);
+                }
+                packedChartData = true;
+                return;
+            } catch (IllegalArgument e) {
+                packedChartData = true;
+                throw e;
+            } catch (TApplicationException e) {
+                if (e.getType() != TApplicationException.UNKNOWN_METHOD)
+                    throw e;
+                packedChartData = false;
+            }
+        }
+
+        // unpacked equivalent
+        var series = attributes.deepCopy();
+        series.setX(unpack(x));
+        series.setY(unpack(y));
+        if (z.hasRemaining())
+            series.setZ(unpack(z));
+        addChartKey(chartID, key, Data.sData(series), right);
+    }
+
+    protected static List<Double> unpack(ByteBuffer packed)
+    {
+        var values = packed.duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        var list = new ArrayList<Double>(values.remaining());
+        while (values.hasRemaining())
+            list.add(values.get());
+        return list;
+    }
+
+    /**
+     * Apply many chart key updates in a single call (e.g. a dashboard refresh), if supported
+     *  by the API service (otherwise each update is made by the equivalent individual call).
+     * Construct updates with chartPoints(), chartIncrement() and chartHidden().
+     */
+    public void updateCharts(List<ChartKeyUpdate> updates) throws IllegalArgument, TException
+    {
+        if (updates.isEmpty())
+            return;
+        if (multiChartUpdates) {
+            try {
+                synchronized(extension) {
+                    client.updateCharts(id, updates);
+                }
+                return;
+            } catch (TApplicationException e) {
+                if (e.getType() != TApplicationException.UNKNOWN_METHOD)
+                    throw e;
+                multiChartUpdates = false;
+            }
+        }
+
+        for(var u : updates) {
+            boolean right = u.isSetRight() && u.isRight();
+            if (u.isSetPoints()) {
+                int dims = u.isSetDims() ? u.getDims() : 2;
+                var packed = new PackedPoints(dims, 0);
+                packed.add(u.bufferForPoints().duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+                appendChartPoints(u.getChartID(), u.getKey(), packed, right);
+            }
+            if (u.isSetIncrement())
+                incrementChartKey(u.getChartID(), u.getKey(), u.getIncrement());
+            if (u.isSetHidden())
+                hideChartKey(u.getChartID(), u.getKey(), u.isHidden(), right);
+        }
+    }
+
+    // client calls these and constructs a List of them for updateCharts()
+    public static ChartKeyUpdate chartPoints(String chartID, String key, PackedPoints points, boolean right)
+    {
+        var u = new ChartKeyUpdate();
+        u.setChartID(chartID);
+        u.setKey(key);
+        u.setRight(right);
+        u.setPoints(points.bytes());
+        u.setDims(points.dims());
+        return u;
+    }
+    public static ChartKeyUpdate chartIncrement(String chartID, String key, double value)
+    {
+        var u = new ChartKeyUpdate();
+        u.setChartID(chartID);
+        u.setKey(key);
+        u.setIncrement(value);
+        return u;
+    }
+    public static ChartKeyUpdate chartHidden(String chartID, String key, boolean hidden, boolean right)
+    {
+        var u = new ChartKeyUpdate();
+        u.setChartID(chartID);
+        u.setKey(key);
+        u.setRight(right);
+        u.setHidden(hidden);
+        return u;
+    }
+
+    /**
+     * True if the API service is known to support the packed chart data calls (found by the
+     *  first packed call made)
+     */
+    public boolean packedChartData()
+    {
+        return packedChartData == Boolean.TRUE;
+    }
+
     /*
     // image export not implemented with C++ charting elements
     public String exportChartImage(String chartID, String imageFileName)
@@ -688,8 +1077,44 @@ public class Pendant
         subscribeEventTypes(Set.of( eventType ));
     }
 
+    /**
+     * Consumer of events as LazyEvent views (valid only during the call).
+     * Enables decodeEventsLazily().
+     */
+    public synchronized void addLazyEventConsumer(PendantEventType eventType, Consumer<LazyEvent> c) throws TException
+    {
+        if (!lazyEventConsumers.containsKey(eventType))
+            lazyEventConsumers.put(eventType, new ArrayList<Consumer<LazyEvent>>());
+        lazyEventConsumers.get(eventType).add(c);
+        lazyDecoding = true;
+
+        subscribeEventTypes(Set.of( eventType ));
+    }
+
     // invoke consumer callbacks relevant to event
     public synchronized void handleEvent(PendantEvent e) throws InvalidID, TException, IllegalArgument, RuntimeException
+    {
+        invalidateShadow(e);
+        dispatch(e);
+    }
+
+    // invoke consumer callbacks relevant to event, decoding it only for non-lazy consumers
+    public synchronized void handleEvent(LazyEvent e) throws InvalidID, TException, IllegalArgument, RuntimeException
+    {
+        var type = e.pendantEventType();
+        invalidateShadow(type, e);
+
+        if (lazyEventConsumers.containsKey(type)) {
+            for(Consumer<LazyEvent> consumer : lazyEventConsumers.get(type))
+                consumer.accept(e);
+        }
+
+        if (eventConsumers.containsKey(type)
+            || (itemEventConsumers.containsKey(type) && itemEventConsumers.get(type).containsKey(e.itemId())))
+            dispatch(e.toPendantEvent());
+    }
+
+    protected void dispatch(PendantEvent e)
     {
         // an event we have a consumer for?
         if (eventConsumers.containsKey(e.getEventType())) {
@@ -714,11 +1139,69 @@ public class Pendant
         }
     }
 
+    // forget shadowed property values the event may have made stale
+    protected void invalidateShadow(PendantEvent e)
+    {
+        if (!shadowEnabled)
+            return;
+        switch (e.getEventType()) {
+            case UtilityOpened:
+            case PanelOpened:
+                invalidateShadow();
+                break;
+            case TextEdited:
+            case Accepted:
+            case EditingFinished:
+            case CheckedChanged:
+            case Activated:
+                var props = e.getProps();
+                if (e.isSetProps() && props.containsKey("item"))
+                    invalidateShadow(props.get("item").getSValue());
+                break;
+            default:
+        }
+    }
+
+    protected void invalidateShadow(PendantEventType type, LazyEvent e)
+    {
+        if (!shadowEnabled || type == null)
+            return;
+        switch (type) {
+            case UtilityOpened:
+            case PanelOpened:
+                invalidateShadow();
+                break;
+            case TextEdited:
+            case Accepted:
+            case EditingFinished:
+            case CheckedChanged:
+            case Activated:
+                var item = e.stringProp("item");
+                if (item != null)
+                    invalidateShadow(item);
+                break;
+            default:
+        }
+    }
+
     protected Extension extension;
     protected yaskawa.ext.api.Pendant.Client client;
+    protected DirectCall direct;
     protected long id;
 
+    protected final Map<String, Map<String, Any>> shadow = new HashMap<String, Map<String, Any>>();
+    protected volatile boolean shadowEnabled;
+    protected long shadowedWrites;
+    protected long suppressedWrites;
+
     protected HashMap<PendantEventType, ArrayList<Consumer<yaskawa.ext.api.PendantEvent>>> eventConsumers;
     protected HashMap<PendantEventType, HashMap<String, ArrayList<Consumer<yaskawa.ext.api.PendantEvent>>>> itemEventConsumers;
+    protected HashMap<PendantEventType, ArrayList<Consumer<LazyEvent>>> lazyEventConsumers;
+    protected final LazyEvents lazyEvents = new LazyEvents();
+    protected volatile boolean lazyDecoding;
+
+    protected volatile Boolean packedChartData;
+    protected volatile boolean multiChartUpdates = true;
+    protected volatile Boolean filePathAccess;
 }
 
@@ -0,0 +1,489 @@
+package yaskawa.ext;
+
+import java.util.*;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.*;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Position held in a flat double[] rather than the boxed Lists of yaskawa.ext.api.Position.
+ *
+ * values() layout: x,y,z at 0 (if Cartesian), orientation components from orientOffset
+ *  (3 Euler RPY angles, 4 quaternion x,y,z,w or 9 row-major matrix elements) and
+ *  joint values from jointOffset.
+ *
+ * read() & write() encode the Thrift Position struct directly, without boxing, so
+ *  a PositionD can be reused across calls (e.g. Robot.jointPosition(unit, into)).
+ */
+public class PositionD
+{
+    public PositionD()
+    {
+        this(8);
+    }
+
+    /** Position with capacity for the given number of joints */
+    public PositionD(int joints)
+    {
+        values = new double[jointOffset + joints];
+        frame = new CoordinateFrame();
+    }
+
+    public PositionD(Position p)
+    {
+        this(p.isSetJoints() ? p.getJoints().size() : 0);
+        set(p);
+    }
+
+
+    /** Frame (held by reference & overwritten in place by read()) */
+    public CoordinateFrame frame() { return frame; }
+    public PositionD setFrame(CoordinateFrame f) { frame = f; return this; }
+
+    /** Distance unit, or null if not set */
+    public DistanceUnit distUnit() { return distUnit; }
+    public PositionD setDistUnit(DistanceUnit u) { distUnit = u; return this; }
+
+    public OrientationUnit orientUnit() { return orientUnit; }
+    public PositionD setOrientUnit(OrientationUnit u) { orientUnit = u; return this; }
+
+
+    public boolean hasPos() { return hasPos; }
+    public double x() { return values[0]; }
+    public double y() { return values[1]; }
+    public double z() { return values[2]; }
+
+    public PositionD setPos(double x, double y, double z)
+    {
+        values[0] = x;
+        values[1] = y;
+        values[2] = z;
+        hasPos = true;
+        return this;
+    }
+
+    /** Orientation representation, or null if no orientation */
+    public OrientationRepresentation orientRep() { return orientRep; }
+    public int orientCount() { return orientCount; }
+    public double orient(int i) { return values[orientOffset + i]; }
+
+    public PositionD setOrient(OrientationRepresentation rep, double[] v)
+    {
+        int count = orientComponents(rep);
+        if (v.length < count)
+            throw new IllegalArgumentException(rep+" orientation requires "+count+" components");
+        System.arraycopy(v, 0, values, orientOffset, count);
+        orientRep = rep;
+        orientCount = count;
+        return this;
+    }
+
+    /** Set orientation representation & component count, for components written directly into values() */
+    public PositionD setOrientRep(OrientationRepresentation rep, int count)
+    {
+        orientRep = rep;
+        orientCount = (rep == null) ? 0 : count;
+        return this;
+    }
+
+    public int jointCount() { return jointCount; }
+    public double joint(int i) { return values[jointOffset + i]; }
+
+    public PositionD setJoints(double[] joints, int count)
+    {
+        ensureJoints(count);
+        System.arraycopy(joints, 0, values, jointOffset, count);
+        jointCount = count;
+        return this;
+    }
+
+    /** Configuration closure (e.g. turn/flip) values, or null if not set */
+    public long[] closure() { return (closureCount < 0) ? null : Arrays.copyOf(closure, closureCount); }
+    public int closureCount() { return Math.max(0, closureCount); }
+    public long closure(int i) { return closure[i]; }
+
+    /** Backing array (see layout above) */
+    public double[] values() { return values; }
+
+    public static final int orientOffset = 3;
+    public static final int jointOffset = 12;
+
+
+    public void clear()
+    {
+        distUnit = null;
+        orientUnit = OrientationUnit.None;
+        hasPos = false;
+        orientRep = null;
+        orientCount = 0;
+        jointCount = 0;
+        closureCount = -1;
+    }
+
+    public PositionD set(PositionD p)
+    {
+        if (values.length < p.values.length)
+            values = new double[p.values.length];
+        System.arraycopy(p.values, 0, values, 0, jointOffset + p.jointCount);
+        frame = p.frame.deepCopy();
+        distUnit = p.distUnit;
+        orientUnit = p.orientUnit;
+        hasPos = p.hasPos;
+        orientRep = p.orientRep;
+        orientCount = p.orientCount;
+        jointCount = p.jointCount;
+        closureCount = p.closureCount;
+        if (closureCount > 0)
+            closure = Arrays.copyOf(p.closure, closureCount);
+        return this;
+    }
+
+    public PositionD set(Position p)
+    {
+        clear();
+        frame = p.isSetFrame() ? p.getFrame().deepCopy() : new CoordinateFrame();
+        if (p.isSetDistUnit())
+            distUnit = p.getDistUnit();
+        if (p.isSetOrientUnit())
+            orientUnit = p.getOrientUnit();
+        if (p.isSetPos()) {
+            var pos = p.getPos();
+            setPos(pos.get(0), pos.get(1), pos.get(2));
+        }
+        if (p.isSetOrient()) {
+            var o = p.getOrient();
+            orientRep = o.getRep();
+            if (o.isSetV()) {
+                orientCount = Math.min(o.getV().size(), 9);
+                for(int i=0; i<orientCount; i++)
+                    values[orientOffset+i] = o.getV().get(i);
+            }
+            else if (o.isSetM()) {
+                orientCount = 0;
+                for(var row : o.getM().getM())
+                    for(var e : row)
+                        if (orientCount < 9)
+                            values[orientOffset + orientCount++] = e;
+            }
+        }
+        if (p.isSetJoints()) {
+            var joints = p.getJoints();
+            ensureJoints(joints.size());
+            jointCount = joints.size();
+            for(int i=0; i<jointCount; i++)
+                values[jointOffset+i] = joints.get(i);
+        }
+        if (p.isSetClosure()) {
+            var c = p.getClosure();
+            closure = new long[c.size()];
+            closureCount = c.size();
+            for(int i=0; i<closureCount; i++)
+                closure[i] = c.get(i);
+        }
+        return this;
+    }
+
+    /** Equivalent API Position (boxed) */
+    public Position toPosition()
+    {
+        var p = new Position();
+        p.setFrame(frame.deepCopy());
+        if (distUnit != null)
+            p.setDistUnit(distUnit);
+        p.setOrientUnit(orientUnit);
+        if (hasPos)
+            p.setPos(list(0, 3));
+        if (orientRep != null) {
+            var o = new Orient();
+            o.setRep(orientRep);
+            if (orientRep == OrientationRepresentation.Matrix) {
+                var rows = new ArrayList<List<Double>>();
+                for(int r=0; r<3; r++)
+                    rows.add(list(orientOffset + 3*r, 3));
+                var m = new Matrix();
+                m.setRows(3);
+                m.setCols(3);
+                m.setM(rows);
+                o.setM(m);
+            }
+            else
+                o.setV(list(orientOffset, orientCount));
+            p.setOrient(o);
+        }
+        if (jointCount > 0)
+            p.setJoints(list(jointOffset, jointCount));
+        if (closureCount >= 0) {
+            var c = new ArrayList<Long>(closureCount);
+            for(int i=0; i<closureCount; i++)
+                c.add(closure[i]);
+            p.setClosure(c);
+        }
+        return p;
+    }
+
+    public String toString()
+    {
+        var s = new StringBuilder("PositionD(");
+        if (hasPos)
+            s.append("pos:").append(Arrays.toString(Arrays.copyOfRange(values, 0, 3))).append(' ');
+        if (orientRep != null)
+            s.append(orientRep).append(':').append(Arrays.toString(Arrays.copyOfRange(values, orientOffset, orientOffset+orientCount))).append(' ');
+        if (jointCount > 0)
+            s.append("joints:").append(Arrays.toString(Arrays.copyOfRange(values, jointOffset, jointOffset+jointCount))).append(' ');
+        return s.append(distUnit).append('/').append(orientUnit).append(')').toString();
+    }
+
+
+    /** Decode a Thrift Position struct into this */
+    public void read(TProtocol in) throws TException
+    {
+        clear();
+        in.readStructBegin();
+        while (true) {
+            var field = in.readFieldBegin();
+            if (field.type == TType.STOP)
+                break;
+            if (field.id == 1 && field.type == TType.STRUCT) {
+                frame.clear();
+                frame.read(in);
+            }
+            else if (field.id == 2 && field.type == TType.I32)
+                distUnit = DistanceUnit.findByValue(in.readI32());
+            else if (field.id == 3 && field.type == TType.I32)
+                orientUnit = OrientationUnit.findByValue(in.readI32());
+            else if (field.id == 4 && field.type == TType.LIST)
+                hasPos = readDoubles(in, 0, 3) > 0;
+            else if (field.id == 5 && field.type == TType.STRUCT)
+                readOrient(in);
+            else if (field.id == 6 && field.type == TType.LIST)
+                jointCount = readJoints(in);
+            else if (field.id == 7 && field.type == TType.LIST)
+                readClosure(in);
+            else
+                TProtocolUtil.skip(in, field.type);
+            in.readFieldEnd();
+        }
+        in.readStructEnd();
+    }
+
+    /** Encode this as a Thrift Position struct */
+    public void write(TProtocol out) throws TException
+    {
+        out.writeStructBegin(positionStruct);
+        out.writeFieldBegin(frameField);
+        frame.write(out);
+        out.writeFieldEnd();
+        if (distUnit != null) {
+            out.writeFieldBegin(distUnitField);
+            out.writeI32(distUnit.getValue());
+            out.writeFieldEnd();
+        }
+        if (orientUnit != null) {
+            out.writeFieldBegin(orientUnitField);
+            out.writeI32(orientUnit.getValue());
+            out.writeFieldEnd();
+        }
+        if (hasPos) {
+            out.writeFieldBegin(posField);
+            writeDoubles(out, 0, 3);
+            out.writeFieldEnd();
+        }
+        if (orientRep != null) {
+            out.writeFieldBegin(orientField);
+            writeOrient(out);
+            out.writeFieldEnd();
+        }
+        if (jointCount > 0) {
+            out.writeFieldBegin(jointsField);
+            writeDoubles(out, jointOffset, jointCount);
+            out.writeFieldEnd();
+        }
+        if (closureCount >= 0) {
+            out.writeFieldBegin(closureField);
+            out.writeListBegin(new TList(TType.I64, closureCount));
+            for(int i=0; i<closureCount; i++)
+                out.writeI64(closure[i]);
+            out.writeListEnd();
+            out.writeFieldEnd();
+        }
+        out.writeFieldStop();
+        out.writeStructEnd();
+    }
+
+
+    protected void readOrient(TProtocol in) throws TException
+    {
+        orientRep = OrientationRepresentation.EulerRPY;
+        orientCount = 0;
+        in.readStructBegin();
+        while (true) {
+            var field = in.readFieldBegin();
+            if (field.type == TType.STOP)
+                break;
+            if (field.id == 1 && field.type == TType.I32)
+                orientRep = OrientationRepresentation.findByValue(in.readI32());
+            else if (field.id == 2 && field.type == TType.LIST)
+                orientCount = readDoubles(in, orientOffset, 9);
+            else if (field.id == 3 && field.type == TType.STRUCT)
+                orientCount = readMatrix(in);
+            else
+                TProtocolUtil.skip(in, field.type);
+            in.readFieldEnd();
+        }
+        in.readStructEnd();
+    }
+
+    protected void writeOrient(TProtocol out) throws TException
+    {
+        out.writeStructBegin(orientStruct);
+        out.writeFieldBegin(repField);
+        out.writeI32(orientRep.getValue());
+        out.writeFieldEnd();
+        if (orientRep == OrientationRepresentation.Matrix) {
+            out.writeFieldBegin(matrixField);
+            out.writeStructBegin(matrixStruct);
+            out.writeFieldBegin(rowsField);
+            out.writeI64(3);
+            out.writeFieldEnd();
+            out.writeFieldBegin(colsField);
+            out.writeI64(3);
+            out.writeFieldEnd();
+            out.writeFieldBegin(elementsField);
+            out.writeListBegin(new TList(TType.LIST, 3));
+            for(int r=0; r<3; r++)
+                writeDoubles(out, orientOffset + 3*r, 3);
+            out.writeListEnd();
+            out.writeFieldEnd();
+            out.writeFieldStop();
+            out.writeStructEnd();
+        }
+        else {
+            out.writeFieldBegin(vField);
+            writeDoubles(out, orientOffset, orientCount);
+        }
+        out.writeFieldEnd();
+        out.writeFieldStop();
+        out.writeStructEnd();
+    }
+
+    // matrix rows flattened into the orientation components, returns count
+    protected int readMatrix(TProtocol in) throws TException
+    {
+        int count = 0;
+        in.readStructBegin();
+        while (true) {
+            var field = in.readFieldBegin();
+            if (field.type == TType.STOP)
+                break;
+            if (field.id == 3 && field.type == TType.LIST) {
+                var rows = in.readListBegin();
+                for(int r=0; r<rows.size; r++)
+                    count += readDoubles(in, orientOffset + count, 9 - count);
+                in.readListEnd();
+            }
+            else
+                TProtocolUtil.skip(in, field.type);
+            in.readFieldEnd();
+        }
+        in.readStructEnd();
+        return count;
+    }
+
+    // read list<double> into values[offset..offset+max), skipping any excess; returns count stored
+    protected int readDoubles(TProtocol in, int offset, int max) throws TException
+    {
+        var list = in.readListBegin();
+        int n = Math.min(list.size, max);
+        for(int i=0; i<list.size; i++) {
+            double v = in.readDouble();
+            if (i < n)
+                values[offset+i] = v;
+        }
+        in.readListEnd();
+        return n;
+    }
+
+    protected int readJoints(TProtocol in) throws TException
+    {
+        var list = in.readListBegin();
+        ensureJoints(list.size);
+        for(int i=0; i<list.size; i++)
+            values[jointOffset+i] = in.readDouble();
+        in.readListEnd();
+        return list.size;
+    }
+
+    protected void readClosure(TProtocol in) throws TException
+    {
+        var list = in.readListBegin();
+        if (closure.length < list.size)
+            closure = new long[list.size];
+        for(int i=0; i<list.size; i++)
+            closure[i] = in.readI64();
+        closureCount = list.size;
+        in.readListEnd();
+    }
+
+    protected void writeDoubles(TProtocol out, int offset, int count) throws TException
+    {
+        out.writeListBegin(new TList(TType.DOUBLE, count));
+        for(int i=0; i<count; i++)
+            out.writeDouble(values[offset+i]);
+        out.writeListEnd();
+    }
+
+    protected void ensureJoints(int count)
+    {
+        if (values.length < jointOffset + count)
+            values = Arrays.copyOf(values, jointOffset + count);
+    }
+
+    protected List<Double> list(int offset, int count)
+    {
+        var l = new ArrayList<Double>(count);
+        for(int i=0; i<count; i++)
+            l.add(values[offset+i]);
+        return l;
+    }
+
+    protected static int orientComponents(OrientationRepresentation rep)
+    {
+        switch (rep) {
+            case Quaternion: return 4;
+            case Matrix: return 9;
+            default: return 3;
+        }
+    }
+
+
+    protected static final TStruct positionStruct = new TStruct("Position");
+    protected static final TField frameField = new TField("frame", TType.STRUCT, (short)1);
+    protected static final TField distUnitField = new TField("distUnit", TType.I32, (short)2);
+    protected static final TField orientUnitField = new TField("orientUnit", TType.I32, (short)3);
+    protected static final TField posField = new TField("pos", TType.LIST, (short)4);
+    protected static final TField orientField = new TField("orient", TType.STRUCT, (short)5);
+    protected static final TField jointsField = new TField("joints", TType.LIST, (short)6);
+    protected static final TField closureField = new TField("closure", TType.LIST, (short)7);
+    protected static final TStruct orientStruct = new TStruct("Orient");
+    protected static final TField repField = new TField("rep", TType.I32, (short)1);
+    protected static final TField vField = new TField("v", TType.LIST, (short)2);
+    protected static final TField matrixField = new TField("m", TType.STRUCT, (short)3);
+    protected static final TStruct matrixStruct = new TStruct("Matrix");
+    protected static final TField rowsField = new TField("rows", TType.I64, (short)1);
+    protected static final TField colsField = new TField("cols", TType.I64, (short)2);
+    protected static final TField elementsField = new TField("m", TType.LIST, (short)3);
+
+    protected double[] values;
+    protected CoordinateFrame frame;
+    protected DistanceUnit distUnit;
+    protected OrientationUnit orientUnit = OrientationUnit.None;
+    protected boolean hasPos;
+    protected OrientationRepresentation orientRep;
+    protected int orientCount;
+    protected int jointCount;
+    protected long[] closure = new long[0];
+    protected int closureCount = -1;
+}
@@ -0,0 +1,192 @@
+package yaskawa.ext;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Stream of robot joint & ToolTip positions (see Robot.streamPositions()).
+ *
+ * Samples are received in batches on a dedicated connection & thread and passed to the
+ *  Listener one at a time as primitive arrays.  If the API service doesn't support
+ *  position streaming, positions are polled at the requested rate instead.
+ */
+public class PositionStream implements AutoCloseable
+{
+    public interface Listener
+    {
+        /** Called on the stream thread for each sample.  The arrays are reused, so copy any values to be retained.
+         *  tcp holds x,y,z,rx,ry,rz */
+        void sample(long sequence, double time, double[] joints, double[] tcp);
+    }
+
+    PositionStream(Robot robot, double rate, int decimation, OrientationUnit jointUnit,
+                   CoordinateFrame tcpFrame, int tool, Listener listener) throws TException
+    {
+        this.index = robot.index;
+        this.rate = rate;
+        this.decimation = Math.max(1, decimation);
+        this.jointUnit = jointUnit;
+        this.tcpFrame = tcpFrame;
+        this.tool = tool;
+        this.listener = listener;
+
+        connection = robot.c.extension.openConnection();
+        client = new yaskawa.ext.api.Robot.Client(connection.robotProtocol);
+        try {
+            joints = new double[client.dof(index)];
+            try {
+                streamID = client.subscribePositions(index, rate, this.decimation, jointUnit, tcpFrame, tool);
+            } catch (TApplicationException e) {
+                if (e.getType() != TApplicationException.UNKNOWN_METHOD)
+                    throw e;
+                streamID = -1;
+            }
+        } catch (TException e) {
+            connection.close();
+            throw e;
+        }
+
+        running = true;
+        thread = new Thread(this::run, "PositionStream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stop streaming & close the stream's connection */
+    public void close()
+    {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (streamID >= 0)
+                client.unsubscribePositions(streamID);
+        } catch (TException e) {}
+        connection.close();
+    }
+
+    /** True if the API service is streaming, false if positions are being polled */
+    public boolean streaming() { return streamID >= 0; }
+
+    /** Samples passed to the listener */
+    public long received() { return received; }
+
+    /** Samples dropped by the service (not retrieved in time) or missed while polling */
+    public long dropped() { return dropped; }
+
+    /** Exception that terminated the stream, if any */
+    public Exception failure() { return failure; }
+
+
+    protected void run()
+    {
+        try {
+            if (streaming())
+                receive();
+            else
+                poll();
+        } catch (TException e) {
+            if (running)
+                failure = e;
+        }
+    }
+
+    protected void receive() throws TException
+    {
+        long nextSequence = -1; // (the service's stream needn't start at 0)
+        while (running) {
+            var batch = client.positionSamples(streamID, maxBatchSamples, batchTimeout);
+            int count = batch.getSampleCount();
+            if (count == 0)
+                continue;
+            if (nextSequence >= 0 && batch.getFirstSequence() > nextSequence)
+                dropped += batch.getFirstSequence() - nextSequence;
+            if (batch.getDof() != joints.length)
+                joints = new double[batch.getDof()];
+
+            // field access avoids the copy made by bufferForSamples()
+            ByteBuffer samples = batch.samples.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            long sequence = batch.getFirstSequence();
+            for(int s=0; s<count; s++) {
+                double time = samples.getDouble();
+                for(int j=0; j<joints.length; j++)
+                    joints[j] = samples.getDouble();
+                for(int k=0; k<tcp.length; k++)
+                    tcp[k] = samples.getDouble();
+                listener.sample(sequence++, time, joints, tcp);
+                received++;
+            }
+            nextSequence = sequence;
+        }
+    }
+
+    protected void poll() throws TException
+    {
+        long period = (long)(1e9 * decimation / rate);
+        long deadline = System.nanoTime();
+        long sequence = 0;
+        int tool = (this.tool < 0) ? client.activeTool(index) : this.tool;
+        // polls via a Robot on this stream's connection, for its boxing-free position calls
+        var robot = new Robot(connection.controller(), connection.robotProtocol, index);
+        var jointPosition = new PositionD(joints.length);
+        var tcpPosition = new PositionD();
+        while (running) {
+            long now = System.nanoTime();
+            if (deadline > now)
+                LockSupport.parkNanos(deadline - now);
+
+            double time = System.nanoTime() / 1e9;
+            robot.jointPosition(jointUnit, jointPosition);
+            RobotStateSampler.storeJoints(jointPosition, joints, 0, joints.length);
+            robot.toolTipPosition(tcpFrame, tool, tcpPosition);
+            RobotStateSampler.storeTcp(tcpPosition, tcp, 0);
+            listener.sample(sequence++, time, joints, tcp);
+            received++;
+
+            deadline += period;
+            long behind = System.nanoTime() - deadline;
+            if (behind > period) {
+                long missed = behind / period;
+                dropped += missed;
+                sequence += missed;
+                deadline += missed * period;
+            }
+        }
+    }
+
+
+    // batch retrieval limits (timeout in millisecs)
+    public static int maxBatchSamples = 1024;
+    public static int batchTimeout = 100;
+
+    protected final int index;
+    protected final double rate;
+    protected final int decimation;
+    protected final OrientationUnit jointUnit;
+    protected final CoordinateFrame tcpFrame;
+    protected final int tool;
+    protected final Listener listener;
+
+    protected Extension connection;
+    protected yaskawa.ext.api.Robot.Client client;
+    protected long streamID;
+
+    protected double[] joints;
+    protected final double[] tcp = new double[6];
+
+    protected Thread thread;
+    protected volatile boolean running;
+    protected volatile long received;
+    protected volatile long dropped;
+    protected volatile Exception failure;
+}
@@ -0,0 +1,108 @@
+package yaskawa.ext;
+
+import java.util.*;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Reusable builder of the List<PropValues> sent by Pendant setProperties(), grouping
+ *  properties directly into a PropValues per item as they are set (in the order items are
+ *  first set), rather than via a List<PropValue>.
+ *
+ * reset() clears the batch for reuse (e.g. each frame), keeping its PropValues and their
+ *  maps, so a batch of similar updates is built without allocating (other than Any values).
+ *
+ *   batch.reset();
+ *   batch.set("speed", "text", speedText).set("speed", "color", color);
+ *   pendant.setProperties(batch);
+ *
+ * Not thread-safe.  The PropValues are reused, so must not be retained after reset(), and
+ *  their Any values may be shared constants, so must not be modified.
+ */
+public class PropertyBatch
+{
+    public PropertyBatch()
+    {
+        this(16);
+    }
+
+    /** Batch expected to hold about items items */
+    public PropertyBatch(int items)
+    {
+        byItem = new HashMap<String, PropValues>(Math.max(16, items * 4 / 3 + 1));
+        batch = new ArrayList<PropValues>(items);
+        free = new ArrayList<PropValues>(items);
+    }
+
+    /** Set property name of item itemID (replacing any value already set in the batch) */
+    public PropertyBatch set(String itemID, String name, Any value)
+    {
+        var pvs = byItem.get(itemID);
+        if (pvs == null) {
+            if (free.isEmpty()) {
+                pvs = new PropValues();
+                pvs.setProps(new LinkedHashMap<String, Any>());
+            }
+            else
+                pvs = free.remove(free.size() - 1);
+            pvs.setItemID(itemID);
+            byItem.put(itemID, pvs);
+            batch.add(pvs);
+        }
+        var props = pvs.getProps();
+        int size = props.size();
+        props.put(name, value);
+        count += props.size() - size;
+        return this;
+    }
+    // convenience overloads
+    public PropertyBatch set(String itemID, String name, boolean value) { return set(itemID, name, AnyConverter.shared(value)); }
+    public PropertyBatch set(String itemID, String name, int value) { return set(itemID, name, AnyConverter.shared((long)value)); }
+    public PropertyBatch set(String itemID, String name, long value) { return set(itemID, name, AnyConverter.shared(value)); }
+    public PropertyBatch set(String itemID, String name, double value) { return set(itemID, name, AnyConverter.toAny(value)); }
+    public PropertyBatch set(String itemID, String name, String value) { return set(itemID, name, AnyConverter.shared(value)); }
+    public PropertyBatch set(String itemID, String name, Object value) { return set(itemID, name, AnyConverter.toAny(value)); }
+
+    public PropertyBatch add(Pendant.PropValue propValue)
+    {
+        return set(propValue.itemID, propValue.name, propValue.value);
+    }
+
+    public PropertyBatch addAll(List<Pendant.PropValue> propValues)
+    {
+        for(var propValue : propValues)
+            set(propValue.itemID, propValue.name, propValue.value);
+        return this;
+    }
+
+    /** Number of items with properties set */
+    public int items() { return batch.size(); }
+
+    /** Number of (distinct) properties set */
+    public int size() { return count; }
+
+    public boolean isEmpty() { return count == 0; }
+
+    /** The properties set, grouped by item (valid until reset()) */
+    public List<PropValues> propValues() { return batch; }
+
+    /** Clear for reuse, keeping the PropValues & maps allocated */
+    public void reset()
+    {
+        for(int i=batch.size()-1; i>=0; i--) {
+            var pvs = batch.get(i);
+            pvs.getProps().clear();
+            free.add(pvs);
+        }
+        batch.clear();
+        byItem.clear();
+        count = 0;
+    }
+
+
+    protected final Map<String, PropValues> byItem;
+    protected final List<PropValues> batch;
+    protected final List<PropValues> free;
+    protected int count;
+}
@@ -0,0 +1,237 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.thrift.TException;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Write-combines Pendant setProperty() calls.
+ *
+ * Properties set are accumulated (a later value for the same item property replacing the
+ *  earlier) and sent as a single oneway setProperties() call, either each frame (if
+ *  constructed with a frame rate) or when flush() is called.  Each item's properties are sent
+ *  together, with items in the order first set since the last flush.
+ *
+ *   var batcher = new PropertyBatcher(pendant, 30);
+ *   batcher.setProperty("speed", "text", speedText);  // no RPC
+ *   ...
+ *   batcher.close(); // flushes
+ */
+public class PropertyBatcher implements AutoCloseable
+{
+    /** Batch until flush() is called */
+    public PropertyBatcher(Pendant pendant)
+    {
+        this.pendant = pendant;
+        pending = new LinkedHashMap<String, Map<String, Any>>();
+        resetStats();
+    }
+
+    /** Batch and flush automatically frameRate times per second */
+    public PropertyBatcher(Pendant pendant, double frameRate)
+    {
+        this(pendant);
+        periodNanos = (long)(1e9 / frameRate);
+        running = true;
+        thread = new Thread(this::run, "PropertyBatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    public void setProperty(String itemID, String name, Any value)
+    {
+        synchronized(this) {
+            if (pendingCount == 0)
+                firstPending = System.nanoTime();
+            var props = pending.get(itemID);
+            if (props == null) {
+                props = new LinkedHashMap<String, Any>();
+                pending.put(itemID, props);
+            }
+            int size = props.size();
+            props.put(name, value);
+            if (props.size() > size)
+                pendingCount++;
+            else
+                coalesced++;
+        }
+    }
+    // convenience overloads
+    public void setProperty(String itemID, String name, boolean value) { setProperty(itemID, name, Any.bValue(value)); }
+    public void setProperty(String itemID, String name, int value) { setProperty(itemID, name, Any.iValue((long)value)); }
+    public void setProperty(String itemID, String name, long value) { setProperty(itemID, name, Any.iValue(value)); }
+    public void setProperty(String itemID, String name, double value) { setProperty(itemID, name, Any.rValue(value)); }
+    public void setProperty(String itemID, String name, String value) { setProperty(itemID, name, Any.sValue(value)); }
+    public void setProperty(String itemID, String name, Object value) { setProperty(itemID, name, Extension.toAny(value)); }
+
+    /** Number of distinct item properties waiting to be sent */
+    public synchronized int pending() { return pendingCount; }
+
+    /**
+     * Send pending properties now (if any).
+     * If sending fails, the batch is merged back into those pending (behind any values set
+     *  since), so is sent by the next flush.
+     */
+    public void flush() throws TException
+    {
+        List<PropValues> batch;
+        int count;
+        long since;
+        long latency;
+        synchronized(sending) { // keep batches in order across concurrent flushes
+            synchronized(this) {
+                if (pendingCount == 0)
+                    return;
+                batch = new ArrayList<PropValues>(pending.size());
+                for(var entry : pending.entrySet()) {
+                    var pvs = new PropValues();
+                    pvs.setItemID(entry.getKey());
+                    pvs.setProps(entry.getValue());
+                    batch.add(pvs);
+                }
+                count = pendingCount;
+                since = firstPending;
+                pending = new LinkedHashMap<String, Map<String, Any>>();
+                pendingCount = 0;
+            }
+
+            try {
+                pendant.sendPropValues(batch);
+            } catch (TException | RuntimeException e) {
+                restore(batch, since);
+                throw e;
+            }
+            latency = System.nanoTime() - since;
+        }
+
+        synchronized(this) {
+            batches++;
+            properties += count;
+            maxBatchSize = Math.max(maxBatchSize, count);
+            totalLatency += latency;
+            maxLatency = Math.max(maxLatency, latency);
+        }
+    }
+
+    /** Stop automatic flushing (if any) and flush */
+    public void close() throws TException
+    {
+        Thread t;
+        synchronized(this) {
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /** Most recent exception from automatic flushing, if any (flushing continues, retrying the batch) */
+    public synchronized Exception failure() { return failure; }
+
+    /** Automatic flushes that failed */
+    public synchronized long failures() { return failures; }
+
+
+    // metrics
+
+    /** setProperties() calls made */
+    public synchronized long batches() { return batches; }
+    /** Item properties sent */
+    public synchronized long properties() { return properties; }
+    /** setProperty() calls replaced by a later value before being sent */
+    public synchronized long coalesced() { return coalesced; }
+    public synchronized double meanBatchSize() { return (batches == 0) ? 0 : (double)properties / batches; }
+    public synchronized int maxBatchSize() { return maxBatchSize; }
+    /** Time from first property set in a batch until it was sent (nanosecs) */
+    public synchronized double meanFlushLatency() { return (batches == 0) ? 0 : (double)totalLatency / batches; }
+    public synchronized long maxFlushLatency() { return maxLatency; }
+
+    public synchronized void resetStats()
+    {
+        batches = properties = coalesced = 0;
+        maxBatchSize = 0;
+        totalLatency = maxLatency = 0;
+    }
+
+
+    // return unsent batch to pending, keeping any values set since it was taken
+    protected synchronized void restore(List<PropValues> batch, long since)
+    {
+        var later = pending;
+        pending = new LinkedHashMap<String, Map<String, Any>>();
+        for(var pvs : batch)
+            pending.put(pvs.getItemID(), pvs.getProps());
+        for(var entry : later.entrySet()) {
+            var props = pending.get(entry.getKey());
+            if (props == null)
+                pending.put(entry.getKey(), entry.getValue());
+            else
+                props.putAll(entry.getValue());
+        }
+        pendingCount = 0;
+        for(var props : pending.values())
+            pendingCount += props.size();
+        if (!later.isEmpty())
+            since = Math.min(since, firstPending);
+        firstPending = since;
+    }
+
+    protected void run()
+    {
+        long deadline = System.nanoTime();
+        while (running) {
+            deadline += periodNanos;
+            long now = System.nanoTime();
+            if (deadline > now)
+                LockSupport.parkNanos(deadline - now);
+            else
+                deadline = now; // behind; don't try to catch up
+            if (!running)
+                break;
+            try {
+                flush();
+            } catch (TException | RuntimeException e) {
+                failed(e);
+            }
+        }
+    }
+
+    protected synchronized void failed(Exception e)
+    {
+        failure = e;
+        failures++;
+    }
+
+
+    protected final Pendant pendant;
+    protected Map<String, Map<String, Any>> pending;
+    protected int pendingCount;
+    protected long firstPending;
+    protected final Object sending = new Object();
+
+    protected long periodNanos;
+    protected volatile boolean running;
+    protected Thread thread;
+    protected Exception failure;
+    protected long failures;
+
+    protected long batches;
+    protected long properties;
+    protected long coalesced;
+    protected int maxBatchSize;
+    protected long totalLatency;
+    protected long maxLatency;
+}
@@ -21,22 +21,33 @@ public class Robot
         this.c = c;
         this.index = index;
         client = new yaskawa.ext.api.Robot.Client(protocol);
+        direct = new DirectCall(protocol);
     }
 
     public String model() throws TException
     {
-        synchronized(c.extension) {
-            return client.model(index);
+        var m = model;
+        if (m == null) {
+            synchronized(c.extension) {
+                m = model = client.model(index);
+            }
         }
+        return m;
     }
 
     public int dof() throws TException
     {
-        synchronized(c.extension) {
-            return client.dof(index);
+        int d = dof;
+        if (d < 0) {
+            synchronized(c.extension) {
+                d = dof = client.dof(index);
+            }
         }
+        return d;
     }
 
+    public int index() { return index; }
+
     public Position jointPosition(OrientationUnit unit) throws TException
     {
         synchronized(c.extension) {
@@ -51,12 +62,43 @@ public class Robot
         }
     }
 
+    /** As jointPosition(unit), decoded into the given (reusable) PositionD without boxing */
+    public PositionD jointPosition(OrientationUnit unit, PositionD into) throws TException
+    {
+        synchronized(c.extension) {
+            direct.begin("jointPosition");
+            direct.i32(1, index);
+            direct.i32(2, unit.getValue());
+            direct.send();
+            direct.receivePosition("jointPosition", into);
+            return into;
+        }
+    }
+
+    /** As toolTipPosition(frame, tool), decoded into the given (reusable) PositionD without boxing */
+    public PositionD toolTipPosition(CoordinateFrame frame, int tool, PositionD into) throws TException
+    {
+        synchronized(c.extension) {
+            direct.begin("toolTipPosition");
+            direct.i32(1, index);
+            direct.struct(2, frame);
+            direct.i32(3, tool);
+            direct.send();
+            direct.receivePosition("toolTipPosition", into);
+            return into;
+        }
+    }
+
 
     public boolean forceLimitingAvailable() throws TException
     {
-        synchronized(c.extension) {
-            return client.forceLimitingAvailable(index);
+        int a = forceLimitingAvailable;
+        if (a < 0) {
+            synchronized(c.extension) {
+                a = forceLimitingAvailable = client.forceLimitingAvailable(index) ? 1 : 0;
+            }
         }
+        return a == 1;
     }
 
     public boolean forceLimitingActive() throws TException
@@ -75,9 +117,13 @@ public class Robot
 
     public boolean switchBoxAvailable() throws TException
     {
-        synchronized(c.extension) {
-            return client.switchBoxAvailable(index);
+        int a = switchBoxAvailable;
+        if (a < 0) {
+            synchronized(c.extension) {
+                a = switchBoxAvailable = client.switchBoxAvailable(index) ? 1 : 0;
+            }
         }
+        return a == 1;
     }
 
     public int activeTool() throws TException
@@ -95,8 +141,42 @@ public class Robot
     }
 
 
+    /** Stream joint & ToolTip positions sampled at rate (Hz), passing every decimation-th sample to listener.
+        Runs on its own connection & thread until the returned stream is closed. */
+    public PositionStream streamPositions(double rate, int decimation, OrientationUnit jointUnit,
+                                          CoordinateFrame tcpFrame, int tool, PositionStream.Listener listener) throws TException
+    {
+        return new PositionStream(this, rate, decimation, jointUnit, tcpFrame, tool, listener);
+    }
+
+    /** Stream joint positions (radians) & ToolTip in the World frame for the active tool */
+    public PositionStream streamPositions(double rate, int decimation, PositionStream.Listener listener) throws TException
+    {
+        return streamPositions(rate, decimation, OrientationUnit.Radian, RobotStateSampler.worldFrame(), -1, listener);
+    }
+
+
+    // forget memoized properties (only feature availability if featuresOnly)
+    void invalidate(boolean featuresOnly)
+    {
+        forceLimitingAvailable = -1;
+        switchBoxAvailable = -1;
+        if (!featuresOnly) {
+            model = null;
+            dof = -1;
+        }
+    }
+
+
     protected Controller c;
     protected yaskawa.ext.api.Robot.Client client;
+    protected DirectCall direct;
     protected int index;
+
+    // memoized (-1 unknown)
+    protected volatile String model;
+    protected volatile int dof = -1;
+    protected volatile int forceLimitingAvailable = -1;
+    protected volatile int switchBoxAvailable = -1;
 }
 
@@ -0,0 +1,345 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import java.lang.invoke.VarHandle;
+
+import org.apache.thrift.TException;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Samples robot joint and ToolTip (TCP) positions at a target rate on a dedicated
+ *  thread & connection (so it neither contends for, nor holds, the extension lock).
+ *
+ * Samples are stored in preallocated ring buffers of primitive doubles, time-stamped
+ *  with System.nanoTime().  snapshot() returns a View that reads the ring buffers
+ *  directly without copying; since the sampler keeps writing, a View should be checked
+ *  with valid() after reading (samples older than capacity are overwritten).
+ *
+ * Per robot, each sample holds maxDof joint values (unused axes 0) and 6 TCP values
+ *  (x,y,z position followed by the orientation vector, typically Euler roll,pitch,yaw).
+ */
+public class RobotStateSampler implements AutoCloseable
+{
+    public RobotStateSampler(Extension extension, int[] robots, CoordinateFrame tcpFrame, int tool,
+                             double rateHz, int capacity) throws TException
+    {
+        this.robots = robots.clone();
+        this.tcpFrame = tcpFrame;
+        this.tool = tool;
+        this.periodNanos = (long)(1e9 / rateHz);
+        this.capacity = capacity;
+
+        connection = extension.openConnection();
+        robotClients = new Robot[robots.length];
+        dof = new int[robots.length];
+        int max = 0;
+        try {
+            var controller = connection.controller();
+            for(int r=0; r<robots.length; r++) {
+                robotClients[r] = new Robot(controller, connection.robotProtocol, robots[r]);
+                dof[r] = robotClients[r].dof();
+                max = Math.max(max, dof[r]);
+            }
+        } catch (TException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        maxDof = max;
+
+        times = new long[capacity];
+        joints = new double[robots.length][capacity*maxDof];
+        tcp = new double[robots.length][capacity*tcpStride];
+    }
+
+    /** Sample a single robot's joints (radians) and TCP in the World frame with the active tool */
+    public RobotStateSampler(Extension extension, int robot, double rateHz, int capacity) throws TException
+    {
+        this(extension, new int[] { robot }, worldFrame(), extension.controller().robot(robot).activeTool(), rateHz, capacity);
+    }
+
+
+    public synchronized void start()
+    {
+        if (thread != null)
+            return;
+        running = true;
+        thread = new Thread(this::sample, "RobotStateSampler");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public void stop()
+    {
+        Thread t;
+        synchronized(this) {
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public void close()
+    {
+        stop();
+        connection.close();
+    }
+
+    /** Exception that stopped sampling, if any */
+    public Exception failure() { return failure; }
+
+
+    public int robotCount() { return robots.length; }
+    public int robot(int r) { return robots[r]; }
+    public int dof(int r) { return dof[r]; }
+    public int maxDof() { return maxDof; }
+    public int capacity() { return capacity; }
+
+    /** Total samples taken since start (including those since overwritten) */
+    public long sampleCount() { return written; }
+
+
+    /**
+     * View of the samples currently held (oldest first) - upto capacity-1, as the oldest
+     *  slot is the next overwritten
+     */
+    public View snapshot()
+    {
+        long end = written;
+        return new View(Math.max(0, end - (capacity - 1)), end);
+    }
+
+    /** View of (upto) the most recent n samples (at most capacity-1) */
+    public View latest(int n)
+    {
+        long end = written;
+        return new View(Math.max(0, end - Math.min(n, capacity - 1)), end);
+    }
+
+    public class View
+    {
+        View(long first, long end)
+        {
+            this.first = first;
+            this.end = end;
+        }
+
+        public int size() { return (int)(end - first); }
+
+        /** Sequence number of sample i (i.e. count of samples taken before it) */
+        public long sequence(int i) { return first + i; }
+
+        public long nanoTime(int i) { return times[slot(i)]; }
+
+        public double joint(int robot, int i, int axis) { return joints[robot][slot(i)*maxDof + axis]; }
+
+        /** TCP component (0..2 x,y,z; 3..5 orientation) */
+        public double tcp(int robot, int i, int component) { return tcp[robot][slot(i)*tcpStride + component]; }
+
+        public void joints(int robot, int i, double[] out)
+        {
+            System.arraycopy(joints[robot], slot(i)*maxDof, out, 0, Math.min(out.length, maxDof));
+        }
+
+        public void tcp(int robot, int i, double[] out)
+        {
+            System.arraycopy(tcp[robot], slot(i)*tcpStride, out, 0, Math.min(out.length, tcpStride));
+        }
+
+        /** True if none of the samples in view have (yet) been overwritten; check after reading */
+        public boolean valid()
+        {
+            VarHandle.acquireFence(); // (order the sample reads before reading writing)
+            return writing - capacity <= first;
+        }
+
+        protected int slot(int i)
+        {
+            if (i < 0 || i >= size())
+                throw new IndexOutOfBoundsException("Sample "+i+" of "+size());
+            return (int)((first + i) % capacity);
+        }
+
+        protected final long first;
+        protected final long end;
+    }
+
+
+    public static class Stats
+    {
+        public long samples;
+        public long overruns;        // periods skipped because sampling fell behind
+        public double targetRate;    // Hz
+        public double achievedRate;  // Hz
+        public double meanInterval;  // secs between samples
+        public double jitter;        // std. deviation of interval (secs)
+        public double minInterval;
+        public double maxInterval;
+
+        public String toString()
+        {
+            return String.format("%d samples, %.1f/%.1f Hz, interval mean %.3fms jitter %.3fms (min %.3fms max %.3fms), %d overruns",
+                                 samples, achievedRate, targetRate, meanInterval*1e3, jitter*1e3, minInterval*1e3, maxInterval*1e3, overruns);
+        }
+    }
+
+    public synchronized Stats stats()
+    {
+        var s = new Stats();
+        s.samples = written;
+        s.overruns = overruns;
+        s.targetRate = 1e9 / periodNanos;
+        if (intervals > 0) {
+            s.meanInterval = intervalMean / 1e9;
+            s.jitter = Math.sqrt(intervalM2 / intervals) / 1e9;
+            s.minInterval = intervalMin / 1e9;
+            s.maxInterval = intervalMax / 1e9;
+            s.achievedRate = intervals / ((lastTime - firstTime) / 1e9);
+        }
+        return s;
+    }
+
+    public synchronized void resetStats()
+    {
+        intervals = 0;
+        intervalMean = intervalM2 = 0;
+        intervalMin = Long.MAX_VALUE;
+        intervalMax = 0;
+        overruns = 0;
+        timing = false;
+    }
+
+
+    protected void sample()
+    {
+        resetStats();
+        long deadline = System.nanoTime();
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                if (deadline > now)
+                    LockSupport.parkNanos(deadline - now);
+                if (!running)
+                    break;
+
+                int slot = (int)(written % capacity);
+                writing = written + 1;  // slot now being overwritten
+                VarHandle.storeStoreFence(); // (so writing is seen before any of the slot writes)
+                long t = System.nanoTime();
+                for(int r=0; r<robots.length; r++) {
+                    robotClients[r].jointPosition(OrientationUnit.Radian, jointPosition);
+                    storeJoints(jointPosition, joints[r], slot*maxDof, maxDof);
+                    robotClients[r].toolTipPosition(tcpFrame, tool, tcpPosition);
+                    storeTcp(tcpPosition, tcp[r], slot*tcpStride);
+                }
+                times[slot] = t;
+                recordInterval(t);
+                written++;
+
+                deadline += periodNanos;
+                long behind = System.nanoTime() - deadline;
+                if (behind > periodNanos) {
+                    synchronized(this) {
+                        overruns += behind / periodNanos;
+                    }
+                    deadline += (behind / periodNanos) * periodNanos;
+                }
+            }
+        } catch (TException | RuntimeException e) {
+            failure = e;
+        }
+    }
+
+    protected static void storeJoints(PositionD p, double[] into, int offset, int count)
+    {
+        int n = Math.min(count, p.jointCount());
+        System.arraycopy(p.values(), PositionD.jointOffset, into, offset, n);
+        Arrays.fill(into, offset+n, offset+count, 0);
+    }
+
+    // x,y,z & first 3 orientation components
+    protected static void storeTcp(PositionD p, double[] into, int offset)
+    {
+        if (p.hasPos())
+            System.arraycopy(p.values(), 0, into, offset, 3);
+        else
+            Arrays.fill(into, offset, offset+3, 0);
+        int n = Math.min(3, p.orientCount());
+        System.arraycopy(p.values(), PositionD.orientOffset, into, offset+3, n);
+        Arrays.fill(into, offset+3+n, offset+6, 0);
+    }
+
+    protected synchronized void recordInterval(long t)
+    {
+        if (timing) {
+            long interval = t - lastTime;
+            intervals++;
+            double delta = interval - intervalMean;
+            intervalMean += delta / intervals;
+            intervalM2 += delta * (interval - intervalMean);
+            intervalMin = Math.min(intervalMin, interval);
+            intervalMax = Math.max(intervalMax, interval);
+        }
+        else {
+            firstTime = t;
+            timing = true;
+        }
+        lastTime = t;
+    }
+
+    protected static CoordinateFrame worldFrame()
+    {
+        var f = new CoordinateFrame();
+        f.setRep(CoordFrameRepresentation.Implicit);
+        f.setPredefined(PredefinedCoordFrameType.World);
+        return f;
+    }
+
+
+    protected static final int tcpStride = 6;
+
+    protected final int[] robots;
+    protected final CoordinateFrame tcpFrame;
+    protected final int tool;
+    protected final long periodNanos;
+    protected final int capacity;
+    protected final int maxDof;
+    protected final int[] dof;
+
+    protected Extension connection;
+    protected Robot[] robotClients;
+    protected final PositionD jointPosition = new PositionD();
+    protected final PositionD tcpPosition = new PositionD();
+
+    protected final long[] times;
+    protected final double[][] joints;
+    protected final double[][] tcp;
+    protected volatile long written;
+    protected volatile long writing;
+
+    protected volatile boolean running;
+    protected Thread thread;
+    protected volatile Exception failure;
+
+    // interval statistics (Welford)
+    protected long intervals;
+    protected double intervalMean;
+    protected double intervalM2;
+    protected long intervalMin = Long.MAX_VALUE;
+    protected long intervalMax;
+    protected long overruns;
+    protected long firstTime;
+    protected long lastTime;
+    protected boolean timing;
+}
@@ -0,0 +1,269 @@
+package yaskawa.ext;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+
+/**
+ * Gorilla-style block compression of multi-channel time series (see TrajectoryRecorder).
+ *
+ * A block starts with a header (start time, end time, sample count, payload bytes) followed by
+ *  a bit stream: the first sample raw, then per sample the delta-of-delta of the timestamp
+ *  ('0', '10'+7, '110'+9, '1110'+12 or '1111'+64 bits) and for each channel the XOR with the
+ *  previous value ('0' if equal, '10' + bits within the previous leading/trailing zero window,
+ *  else '11' + 5 bits leading zeros + 6 bits length + meaningful bits).
+ */
+class TrajectoryCodec
+{
+    static final int blockHeaderBytes = 24;
+
+    /** Upper bound of encoded block size */
+    static int maxBlockBytes(int channels, int samples)
+    {
+        long bits = 64 + 64L*channels + (samples-1L)*(68 + 77L*channels);
+        return blockHeaderBytes + (int)((bits + 7) / 8);
+    }
+
+
+    static class Encoder
+    {
+        Encoder(int channels, int maxSamples)
+        {
+            this.channels = channels;
+            buffer = new byte[maxBlockBytes(channels, maxSamples)];
+            prevBits = new long[channels];
+            prevLead = new int[channels];
+            prevTrail = new int[channels];
+        }
+
+        void reset()
+        {
+            Arrays.fill(buffer, 0, (int)((bitPos + 7) / 8), (byte)0);
+            bitPos = 0;
+            count = 0;
+        }
+
+        void add(long time, double[] values, int offset)
+        {
+            if (count == 0) {
+                startTime = time;
+                write(time, 64);
+                for(int c=0; c<channels; c++) {
+                    long bits = Double.doubleToRawLongBits(values[offset+c]);
+                    write(bits, 64);
+                    prevBits[c] = bits;
+                    prevLead[c] = -1;
+                }
+                prevDelta = 0;
+            }
+            else {
+                long delta = time - prevTime;
+                long dod = delta - prevDelta;
+                if (dod == 0)
+                    write(0, 1);
+                else if (dod >= -63 && dod <= 64) {
+                    write(0b10, 2);
+                    write(dod + 63, 7);
+                }
+                else if (dod >= -255 && dod <= 256) {
+                    write(0b110, 3);
+                    write(dod + 255, 9);
+                }
+                else if (dod >= -2047 && dod <= 2048) {
+                    write(0b1110, 4);
+                    write(dod + 2047, 12);
+                }
+                else {
+                    write(0b1111, 4);
+                    write(dod, 64);
+                }
+                prevDelta = delta;
+
+                for(int c=0; c<channels; c++) {
+                    long bits = Double.doubleToRawLongBits(values[offset+c]);
+                    long xor = bits ^ prevBits[c];
+                    prevBits[c] = bits;
+                    if (xor == 0) {
+                        write(0, 1);
+                        continue;
+                    }
+                    int lead = Math.min(31, Long.numberOfLeadingZeros(xor));
+                    int trail = Long.numberOfTrailingZeros(xor);
+                    if (prevLead[c] >= 0 && lead >= prevLead[c] && trail >= prevTrail[c]) {
+                        write(0b10, 2);
+                        write(xor >>> prevTrail[c], 64 - prevLead[c] - prevTrail[c]);
+                    }
+                    else {
+                        int length = 64 - lead - trail;
+                        write(0b11, 2);
+                        write(lead, 5);
+                        write(length - 1, 6);
+                        write(xor >>> trail, length);
+                        prevLead[c] = lead;
+                        prevTrail[c] = trail;
+                    }
+                }
+            }
+            prevTime = time;
+            endTime = time;
+            count++;
+        }
+
+        int payloadBytes() { return (int)((bitPos + 7) / 8); }
+
+        /** Write header & payload at buffer position (which is advanced) */
+        void writeTo(ByteBuffer out)
+        {
+            out.putLong(startTime);
+            out.putLong(endTime);
+            out.putInt(count);
+            out.putInt(payloadBytes());
+            out.put(buffer, 0, payloadBytes());
+        }
+
+        // write low n bits of value, most significant first
+        protected void write(long value, int n)
+        {
+            while (n > 0) {
+                int index = (int)(bitPos >>> 3);
+                int space = 8 - (int)(bitPos & 7);
+                int take = Math.min(space, n);
+                int bits = (int)((value >>> (n - take)) & ((1 << take) - 1));
+                buffer[index] |= (byte)(bits << (space - take));
+                bitPos += take;
+                n -= take;
+            }
+        }
+
+        final int channels;
+        final byte[] buffer;
+        long bitPos;
+        int count;
+        long startTime, endTime;
+
+        protected final long[] prevBits;
+        protected final int[] prevLead, prevTrail;
+        protected long prevTime, prevDelta;
+    }
+
+
+    /** Decodes the samples of one block, in sequence */
+    static class Decoder
+    {
+        Decoder(int channels)
+        {
+            this.channels = channels;
+            prevBits = new long[channels];
+            prevLead = new int[channels];
+            prevTrail = new int[channels];
+        }
+
+        /** Start decoding block whose header is at offset in buffer */
+        void start(ByteBuffer buffer, int offset)
+        {
+            this.buffer = buffer;
+            count = buffer.getInt(offset + 16);
+            base = offset + blockHeaderBytes;
+            bitPos = 0;
+            decoded = 0;
+        }
+
+        boolean hasNext() { return decoded < count; }
+
+        /** Decode next sample's values into values[offset..], returning its time */
+        long next(double[] values, int offset)
+        {
+            if (decoded == 0) {
+                prevTime = read(64);
+                prevDelta = 0;
+                for(int c=0; c<channels; c++) {
+                    prevBits[c] = read(64);
+                    prevLead[c] = -1;
+                    values[offset+c] = Double.longBitsToDouble(prevBits[c]);
+                }
+            }
+            else {
+                long dod;
+                if (read(1) == 0)
+                    dod = 0;
+                else if (read(1) == 0)
+                    dod = read(7) - 63;
+                else if (read(1) == 0)
+                    dod = read(9) - 255;
+                else if (read(1) == 0)
+                    dod = read(12) - 2047;
+                else
+                    dod = read(64);
+                prevDelta += dod;
+                prevTime += prevDelta;
+
+                for(int c=0; c<channels; c++) {
+                    if (read(1) != 0) {
+                        long xor;
+                        if (read(1) == 0)
+                            xor = read(64 - prevLead[c] - prevTrail[c]) << prevTrail[c];
+                        else {
+                            int lead = (int)read(5);
+                            int length = (int)read(6) + 1;
+                            int trail = 64 - lead - length;
+                            xor = read(length) << trail;
+                            prevLead[c] = lead;
+                            prevTrail[c] = trail;
+                        }
+                        prevBits[c] ^= xor;
+                    }
+                    values[offset+c] = Double.longBitsToDouble(prevBits[c]);
+                }
+            }
+            decoded++;
+            return prevTime;
+        }
+
+        protected long read(int n)
+        {
+            long result = 0;
+            while (n > 0) {
+                int index = base + (int)(bitPos >>> 3);
+                int available = 8 - (int)(bitPos & 7);
+                int take = Math.min(available, n);
+                int b = buffer.get(index) & 0xff;
+                result = (result << take) | ((b >>> (available - take)) & ((1 << take) - 1));
+                bitPos += take;
+                n -= take;
+            }
+            return result;
+        }
+
+        final int channels;
+        protected ByteBuffer buffer;
+        protected int base;
+        protected long bitPos;
+        protected int count;
+        protected int decoded;
+        protected final long[] prevBits;
+        protected final int[] prevLead, prevTrail;
+        protected long prevTime, prevDelta;
+    }
+
+
+    // segment header: magic, version, channels, blockSamples, committed bytes (release/acquire)
+    static final int magic = 0x59545247; // "YTRG"
+    static final int version = 1;
+    static final int segmentHeaderBytes = 64;
+    static final int committedOffset = 16;
+
+    static final VarHandle longs = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    static void setCommitted(ByteBuffer segment, long bytes)
+    {
+        longs.setRelease(segment, committedOffset, bytes);
+    }
+
+    static long committed(ByteBuffer segment)
+    {
+        return (long)longs.getAcquire(segment, committedOffset);
+    }
+}
@@ -0,0 +1,262 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Queries trajectories written by a TrajectoryRecorder (which may still be recording,
+ *  in this or another process).
+ *
+ * Segments are memory-mapped read-only and their blocks indexed by time as they are committed,
+ *  so time-range queries decode only the blocks overlapping the range.
+ */
+public class TrajectoryReader implements AutoCloseable
+{
+    public TrajectoryReader(Path directory) throws IOException
+    {
+        this.directory = directory;
+        segments = new ArrayList<Segment>();
+        existing = new TreeSet<Integer>(segmentNumbers(directory));
+        if (!existing.isEmpty())
+            nextSegment = existing.first();
+        refresh();
+    }
+
+    public interface Visitor
+    {
+        /** Sample at time (microsecs); values array is reused */
+        void sample(long time, double[] values);
+    }
+
+    public enum Downsample { First, Mean }
+
+
+    /** Pick up blocks & segments committed since last refreshed (done by each query) */
+    public synchronized void refresh() throws IOException
+    {
+        // newly created segments (skipping numbers missing when opened, e.g. segments deleted)
+        while (true) {
+            var file = directory.resolve(segmentName(nextSegment));
+            if (!Files.exists(file)) {
+                var later = existing.higher(nextSegment);
+                if (later == null)
+                    break;
+                nextSegment = later;
+                continue;
+            }
+            if (Files.size(file) < TrajectoryCodec.segmentHeaderBytes)
+                break;
+            var segment = new Segment(file);
+            if (segment.buffer.getInt(0) != TrajectoryCodec.magic)
+                break; // header not yet written
+            if (channels == 0) {
+                channels = segment.buffer.getInt(8);
+                values = new double[channels];
+                sums = new double[channels];
+                decoder = new TrajectoryCodec.Decoder(channels);
+            }
+            segments.add(segment);
+            nextSegment++;
+        }
+        for(var s : segments)
+            s.scan();
+    }
+
+    public synchronized int channels() { return channels; }
+
+    public synchronized long samples()
+    {
+        long n = 0;
+        for(var s : segments)
+            n += s.samples;
+        return n;
+    }
+
+    /** Time of first sample (microsecs), or Long.MAX_VALUE if none */
+    public synchronized long startTime()
+    {
+        for(var s : segments)
+            if (s.blocks > 0)
+                return s.starts[0];
+        return Long.MAX_VALUE;
+    }
+
+    /** Time of last committed sample (microsecs), or Long.MIN_VALUE if none */
+    public synchronized long endTime()
+    {
+        for(int i=segments.size()-1; i>=0; i--) {
+            var s = segments.get(i);
+            if (s.blocks > 0)
+                return s.ends[s.blocks-1];
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /** Visit samples with from <= time <= to; returns count visited */
+    public synchronized long read(long from, long to, Visitor visitor) throws IOException
+    {
+        refresh();
+        long visited = 0;
+        for(var s : segments) {
+            for(int b=s.firstBlockEndingAfter(from); b<s.blocks && s.starts[b] <= to; b++) {
+                decoder.start(s.buffer, s.offsets[b]);
+                while (decoder.hasNext()) {
+                    long t = decoder.next(values, 0);
+                    if (t > to)
+                        break;
+                    if (t >= from) {
+                        visitor.sample(t, values);
+                        visited++;
+                    }
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Visit samples with from <= time <= to downsampled to one per interval (microsecs):
+     *  the first sample in each interval, or the mean of its samples (at the interval start time)
+     */
+    public synchronized long read(long from, long to, long interval, Downsample mode, Visitor visitor) throws IOException
+    {
+        var state = new long[] { Long.MIN_VALUE, 0, 0 }; // current bucket, samples in bucket, emitted
+        read(from, to, (t, v) -> {
+            long bucket = (t - from) / interval;
+            if (bucket != state[0]) {
+                if (state[1] > 0 && mode == Downsample.Mean)
+                    emitMean(from + state[0]*interval, state, visitor);
+                state[0] = bucket;
+                state[1] = 0;
+                if (mode == Downsample.First) {
+                    visitor.sample(t, v);
+                    state[2]++;
+                }
+                Arrays.fill(sums, 0);
+            }
+            if (mode == Downsample.Mean)
+                for(int c=0; c<channels; c++)
+                    sums[c] += v[c];
+            state[1]++;
+        });
+        if (state[1] > 0 && mode == Downsample.Mean)
+            emitMean(from + state[0]*interval, state, visitor);
+        return state[2];
+    }
+
+    protected void emitMean(long time, long[] state, Visitor visitor)
+    {
+        for(int c=0; c<channels; c++)
+            sums[c] /= state[1];
+        visitor.sample(time, sums);
+        state[2]++;
+    }
+
+    public synchronized void close() throws IOException
+    {
+        for(var s : segments)
+            s.channel.close();
+        segments.clear();
+    }
+
+
+    protected class Segment
+    {
+        Segment(Path file) throws IOException
+        {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            scanned = TrajectoryCodec.segmentHeaderBytes;
+        }
+
+        // index blocks committed since last scan
+        void scan()
+        {
+            long committed = TrajectoryCodec.committed(buffer);
+            while (scanned < committed) {
+                if (blocks == starts.length) {
+                    int n = Math.max(16, 2*blocks);
+                    starts = Arrays.copyOf(starts, n);
+                    ends = Arrays.copyOf(ends, n);
+                    offsets = Arrays.copyOf(offsets, n);
+                }
+                int offset = (int)scanned;
+                starts[blocks] = buffer.getLong(offset);
+                ends[blocks] = buffer.getLong(offset + 8);
+                offsets[blocks] = offset;
+                samples += buffer.getInt(offset + 16);
+                scanned += TrajectoryCodec.blockHeaderBytes + buffer.getInt(offset + 20);
+                blocks++;
+            }
+        }
+
+        int firstBlockEndingAfter(long time)
+        {
+            int lo = 0, hi = blocks;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ends[mid] < time)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        long scanned;
+        int blocks;
+        long samples;
+        long[] starts = new long[0];
+        long[] ends = new long[0];
+        int[] offsets = new int[0];
+    }
+
+
+    static String segmentName(int number)
+    {
+        return String.format("trajectory-%06d.seg", number);
+    }
+
+    /** Number of segment file, or -1 if not a segment */
+    static int segmentNumber(Path file)
+    {
+        var name = file.getFileName().toString();
+        if (!name.startsWith("trajectory-") || !name.endsWith(".seg"))
+            return -1;
+        try {
+            return Integer.parseInt(name.substring(11, name.length()-4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Numbers of the segment files in directory (ascending) */
+    static List<Integer> segmentNumbers(Path directory) throws IOException
+    {
+        var numbers = new ArrayList<Integer>();
+        if (!Files.isDirectory(directory))
+            return numbers;
+        try (var files = Files.list(directory)) {
+            files.mapToInt(TrajectoryReader::segmentNumber).filter(n -> n >= 0).sorted().forEach(numbers::add);
+        }
+        return numbers;
+    }
+
+
+    protected final Path directory;
+    protected final List<Segment> segments;
+    protected final TreeSet<Integer> existing; // segment numbers present when opened
+    protected int nextSegment;
+    protected int channels;
+    protected double[] values;
+    protected double[] sums;
+    protected TrajectoryCodec.Decoder decoder;
+}
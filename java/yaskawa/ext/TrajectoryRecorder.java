@@ -0,0 +1,153 @@
+package yaskawa.ext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Records joint & ToolTip trajectories into compressed, memory-mapped segment files,
+ *  so hours of history take little heap (or disk).
+ *
+ * Samples (timestamp in microsecs plus a fixed number of double channels) are compressed in
+ *  blocks using delta-of-delta timestamps and XOR floats (see TrajectoryCodec).  Completed
+ *  blocks are appended to the current segment file in directory, and published by updating
+ *  the segment's committed length, so a TrajectoryReader can query while recording continues.
+ *  When a segment is full, recording continues in the next.
+ *
+ * As a PositionStream.Listener, records dof joint values followed by the 6 ToolTip values:
+ *   robot.streamPositions(rate, 1, recorder)
+ */
+public class TrajectoryRecorder implements PositionStream.Listener, AutoCloseable
+{
+    public TrajectoryRecorder(Path directory, int channels) throws IOException
+    {
+        this(directory, channels, 1024, 64L*1024*1024);
+    }
+
+    public TrajectoryRecorder(Path directory, int channels, int blockSamples, long segmentBytes) throws IOException
+    {
+        this.directory = directory;
+        this.channels = channels;
+        this.blockSamples = blockSamples;
+        this.segmentBytes = Math.max(segmentBytes, TrajectoryCodec.segmentHeaderBytes + TrajectoryCodec.maxBlockBytes(channels, blockSamples));
+        encoder = new TrajectoryCodec.Encoder(channels, blockSamples);
+        values = new double[channels];
+        Files.createDirectories(directory);
+
+        // continue after any existing segments (which must hold the same channels)
+        var existing = TrajectoryReader.segmentNumbers(directory);
+        for(int number : existing)
+            checkChannels(directory.resolve(TrajectoryReader.segmentName(number)));
+        segmentNumber = existing.isEmpty() ? 0 : existing.get(existing.size()-1) + 1;
+        openSegment();
+    }
+
+    /** Record a sample of channels values from values[offset..] at time (microsecs, increasing) */
+    public synchronized void record(long time, double[] values, int offset)
+    {
+        encoder.add(time, values, offset);
+        samples++;
+        if (encoder.count >= blockSamples)
+            commitBlock();
+    }
+
+    /** Records joints (then zero padded to channels-6) & tcp values; time in secs */
+    public void sample(long sequence, double time, double[] joints, double[] tcp)
+    {
+        synchronized(this) {
+            int jointChannels = channels - tcp.length;
+            int n = Math.min(joints.length, jointChannels);
+            System.arraycopy(joints, 0, values, 0, n);
+            for(int i=n; i<jointChannels; i++)
+                values[i] = 0;
+            System.arraycopy(tcp, 0, values, jointChannels, tcp.length);
+            record(Math.round(time * 1e6), values, 0);
+        }
+    }
+
+    /** Commit any partial block, making all recorded samples visible to readers */
+    public synchronized void flush()
+    {
+        if (encoder.count > 0)
+            commitBlock();
+        segment.force();
+    }
+
+    public synchronized void close() throws IOException
+    {
+        flush();
+        channel.close();
+    }
+
+    public int channels() { return channels; }
+
+    public synchronized long samples() { return samples; }
+
+    /** Compressed bytes written (excluding the current, uncommitted block) */
+    public synchronized long bytesWritten() { return bytesWritten; }
+
+
+    protected void commitBlock()
+    {
+        int size = TrajectoryCodec.blockHeaderBytes + encoder.payloadBytes();
+        if (segment.position() + size > segmentBytes) {
+            try {
+                channel.close();
+                segmentNumber++;
+                openSegment();
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to open next trajectory segment", e);
+            }
+        }
+        encoder.writeTo(segment);
+        TrajectoryCodec.setCommitted(segment, segment.position());
+        bytesWritten += size;
+        encoder.reset();
+    }
+
+    protected void checkChannels(Path file) throws IOException
+    {
+        var header = ByteBuffer.allocate(12);
+        try (var existing = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && existing.read(header) >= 0)
+                ;
+        }
+        if (header.hasRemaining() || header.getInt(0) != TrajectoryCodec.magic)
+            return; // (header never written)
+        int existingChannels = header.getInt(8);
+        if (existingChannels != channels)
+            throw new IOException("Existing trajectory segment "+file+" has "+existingChannels+" channels, not "+channels);
+    }
+
+    protected void openSegment() throws IOException
+    {
+        var file = directory.resolve(TrajectoryReader.segmentName(segmentNumber));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segment.putInt(0, TrajectoryCodec.magic);
+        segment.putInt(4, TrajectoryCodec.version);
+        segment.putInt(8, channels);
+        segment.putInt(12, blockSamples);
+        segment.position(TrajectoryCodec.segmentHeaderBytes);
+        TrajectoryCodec.setCommitted(segment, TrajectoryCodec.segmentHeaderBytes);
+    }
+
+
+    protected final Path directory;
+    protected final int channels;
+    protected final int blockSamples;
+    protected final long segmentBytes;
+    protected final TrajectoryCodec.Encoder encoder;
+    protected final double[] values;
+
+    protected int segmentNumber;
+    protected FileChannel channel;
+    protected MappedByteBuffer segment;
+    protected long samples;
+    protected long bytesWritten;
+}
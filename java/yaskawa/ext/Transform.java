@@ -0,0 +1,370 @@
+package yaskawa.ext;
+
+import java.util.*;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Rigid 3D transform as a 4x4 homogeneous matrix (row-major, bottom row 0,0,0,1).
+ *
+ * All operations write into existing instances or arrays and return this, so transforms
+ *  can be composed & applied without allocation.  Orientation conversions follow
+ *  OrientationRepresentation: Quaternion (x,y,z,w), row-major 3x3 Matrix and EulerRPY
+ *  (roll,pitch,yaw about the fixed x,y,z axes, i.e. R = Rz(yaw) Ry(pitch) Rx(roll)).
+ */
+public class Transform
+{
+    public Transform()
+    {
+        identity();
+    }
+
+    public Transform(Transform t)
+    {
+        set(t);
+    }
+
+
+    public Transform identity()
+    {
+        Arrays.fill(m, 0);
+        m[0] = m[5] = m[10] = m[15] = 1;
+        return this;
+    }
+
+    public Transform set(Transform t)
+    {
+        System.arraycopy(t.m, 0, m, 0, 16);
+        return this;
+    }
+
+    /** Element at row r, column c */
+    public double get(int r, int c) { return m[4*r + c]; }
+
+    /** Backing row-major 4x4 array */
+    public double[] matrix() { return m; }
+
+    public double x() { return m[3]; }
+    public double y() { return m[7]; }
+    public double z() { return m[11]; }
+
+    public Transform setTranslation(double x, double y, double z)
+    {
+        m[3] = x;
+        m[7] = y;
+        m[11] = z;
+        return this;
+    }
+
+
+    /** Set rotation from roll, pitch, yaw (radians) */
+    public Transform setRPY(double roll, double pitch, double yaw)
+    {
+        double ca = Math.cos(roll), sa = Math.sin(roll);
+        double cb = Math.cos(pitch), sb = Math.sin(pitch);
+        double cc = Math.cos(yaw), sc = Math.sin(yaw);
+        m[0] = cc*cb;  m[1] = cc*sb*sa - sc*ca;  m[2] = cc*sb*ca + sc*sa;
+        m[4] = sc*cb;  m[5] = sc*sb*sa + cc*ca;  m[6] = sc*sb*ca - cc*sa;
+        m[8] = -sb;    m[9] = cb*sa;             m[10] = cb*ca;
+        return this;
+    }
+
+    /** Roll, pitch, yaw (radians) into out[offset..offset+2] */
+    public void getRPY(double[] out, int offset)
+    {
+        double cb = Math.sqrt(m[0]*m[0] + m[4]*m[4]);
+        if (cb > 1e-9) {
+            out[offset] = Math.atan2(m[9], m[10]);
+            out[offset+1] = Math.atan2(-m[8], cb);
+            out[offset+2] = Math.atan2(m[4], m[0]);
+        }
+        else {
+            // gimbal lock (pitch +/-90deg): roll & yaw not separable, so put all into yaw
+            out[offset] = 0;
+            out[offset+1] = Math.atan2(-m[8], cb);
+            out[offset+2] = Math.atan2(-m[1], m[5]);
+        }
+    }
+
+    /** Set rotation from unit quaternion x,y,z,w */
+    public Transform setQuaternion(double x, double y, double z, double w)
+    {
+        double n = Math.sqrt(x*x + y*y + z*z + w*w);
+        if (n > 0) {
+            x /= n; y /= n; z /= n; w /= n;
+        }
+        m[0] = 1 - 2*(y*y + z*z);  m[1] = 2*(x*y - z*w);      m[2] = 2*(x*z + y*w);
+        m[4] = 2*(x*y + z*w);      m[5] = 1 - 2*(x*x + z*z);  m[6] = 2*(y*z - x*w);
+        m[8] = 2*(x*z - y*w);      m[9] = 2*(y*z + x*w);      m[10] = 1 - 2*(x*x + y*y);
+        return this;
+    }
+
+    /** Quaternion x,y,z,w into out[offset..offset+3] */
+    public void getQuaternion(double[] out, int offset)
+    {
+        double trace = m[0] + m[5] + m[10];
+        double x, y, z, w;
+        if (trace > 0) {
+            double s = 2*Math.sqrt(trace + 1);
+            w = s/4;
+            x = (m[9] - m[6]) / s;
+            y = (m[2] - m[8]) / s;
+            z = (m[4] - m[1]) / s;
+        }
+        else if (m[0] > m[5] && m[0] > m[10]) {
+            double s = 2*Math.sqrt(1 + m[0] - m[5] - m[10]);
+            w = (m[9] - m[6]) / s;
+            x = s/4;
+            y = (m[1] + m[4]) / s;
+            z = (m[2] + m[8]) / s;
+        }
+        else if (m[5] > m[10]) {
+            double s = 2*Math.sqrt(1 + m[5] - m[0] - m[10]);
+            w = (m[2] - m[8]) / s;
+            x = (m[1] + m[4]) / s;
+            y = s/4;
+            z = (m[6] + m[9]) / s;
+        }
+        else {
+            double s = 2*Math.sqrt(1 + m[10] - m[0] - m[5]);
+            w = (m[4] - m[1]) / s;
+            x = (m[2] + m[8]) / s;
+            y = (m[6] + m[9]) / s;
+            z = s/4;
+        }
+        out[offset] = x;
+        out[offset+1] = y;
+        out[offset+2] = z;
+        out[offset+3] = w;
+    }
+
+    /** Set rotation from row-major 3x3 matrix at v[offset..offset+8] */
+    public Transform setRotationMatrix(double[] v, int offset)
+    {
+        for(int r=0; r<3; r++)
+            for(int c=0; c<3; c++)
+                m[4*r + c] = v[offset + 3*r + c];
+        return this;
+    }
+
+    /** Row-major 3x3 rotation matrix into out[offset..offset+8] */
+    public void getRotationMatrix(double[] out, int offset)
+    {
+        for(int r=0; r<3; r++)
+            for(int c=0; c<3; c++)
+                out[offset + 3*r + c] = m[4*r + c];
+    }
+
+    /** Set rotation from components v[offset..] in the given representation (angles in radians) */
+    public Transform setOrientation(OrientationRepresentation rep, double[] v, int offset)
+    {
+        switch (rep) {
+            case Quaternion: return setQuaternion(v[offset], v[offset+1], v[offset+2], v[offset+3]);
+            case Matrix: return setRotationMatrix(v, offset);
+            default: return setRPY(v[offset], v[offset+1], v[offset+2]);
+        }
+    }
+
+    /** Rotation components in the given representation into out[offset..] (angles in radians); returns count */
+    public int getOrientation(OrientationRepresentation rep, double[] out, int offset)
+    {
+        switch (rep) {
+            case Quaternion: getQuaternion(out, offset); return 4;
+            case Matrix: getRotationMatrix(out, offset); return 9;
+            default: getRPY(out, offset); return 3;
+        }
+    }
+
+
+    /** this = a * b (a or b may be this) */
+    public Transform multiply(Transform a, Transform b)
+    {
+        var x = a.m;
+        var y = b.m;
+        double r00 = x[0]*y[0] + x[1]*y[4] + x[2]*y[8];
+        double r01 = x[0]*y[1] + x[1]*y[5] + x[2]*y[9];
+        double r02 = x[0]*y[2] + x[1]*y[6] + x[2]*y[10];
+        double r03 = x[0]*y[3] + x[1]*y[7] + x[2]*y[11] + x[3];
+        double r10 = x[4]*y[0] + x[5]*y[4] + x[6]*y[8];
+        double r11 = x[4]*y[1] + x[5]*y[5] + x[6]*y[9];
+        double r12 = x[4]*y[2] + x[5]*y[6] + x[6]*y[10];
+        double r13 = x[4]*y[3] + x[5]*y[7] + x[6]*y[11] + x[7];
+        double r20 = x[8]*y[0] + x[9]*y[4] + x[10]*y[8];
+        double r21 = x[8]*y[1] + x[9]*y[5] + x[10]*y[9];
+        double r22 = x[8]*y[2] + x[9]*y[6] + x[10]*y[10];
+        double r23 = x[8]*y[3] + x[9]*y[7] + x[10]*y[11] + x[11];
+        m[0] = r00; m[1] = r01; m[2] = r02; m[3] = r03;
+        m[4] = r10; m[5] = r11; m[6] = r12; m[7] = r13;
+        m[8] = r20; m[9] = r21; m[10] = r22; m[11] = r23;
+        m[12] = m[13] = m[14] = 0;
+        m[15] = 1;
+        return this;
+    }
+
+    /** this = this * t */
+    public Transform multiply(Transform t)
+    {
+        return multiply(this, t);
+    }
+
+    /** this = inverse of t (rigid: R^T, -R^T p) (t may be this) */
+    public Transform invert(Transform t)
+    {
+        var x = t.m;
+        double px = x[3], py = x[7], pz = x[11];
+        double r01 = x[1], r02 = x[2], r12 = x[6];
+        m[0] = x[0];  m[5] = x[5];  m[10] = x[10];
+        m[1] = x[4];  m[4] = r01;
+        m[2] = x[8];  m[8] = r02;
+        m[6] = x[9];  m[9] = r12;
+        m[3] = -(m[0]*px + m[1]*py + m[2]*pz);
+        m[7] = -(m[4]*px + m[5]*py + m[6]*pz);
+        m[11] = -(m[8]*px + m[9]*py + m[10]*pz);
+        m[12] = m[13] = m[14] = 0;
+        m[15] = 1;
+        return this;
+    }
+
+    public Transform invert()
+    {
+        return invert(this);
+    }
+
+    /** Transform point p[offset..offset+2] into out[outOffset..] (p & out may be the same) */
+    public void apply(double[] p, int offset, double[] out, int outOffset)
+    {
+        double x = p[offset], y = p[offset+1], z = p[offset+2];
+        out[outOffset]   = m[0]*x + m[1]*y + m[2]*z + m[3];
+        out[outOffset+1] = m[4]*x + m[5]*y + m[6]*z + m[7];
+        out[outOffset+2] = m[8]*x + m[9]*y + m[10]*z + m[11];
+    }
+
+
+    /** Set from a Cartesian position, with distances scaled to millimeters */
+    public Transform set(PositionD p)
+    {
+        identity();
+        var v = p.values();
+        double scale = millimeters(p.distUnit());
+        setTranslation(v[0]*scale, v[1]*scale, v[2]*scale);
+        if (p.orientRep() != null) {
+            if (p.orientRep() == OrientationRepresentation.EulerRPY && p.orientUnit() == OrientationUnit.Degree)
+                setRPY(Math.toRadians(v[PositionD.orientOffset]), Math.toRadians(v[PositionD.orientOffset+1]), Math.toRadians(v[PositionD.orientOffset+2]));
+            else
+                setOrientation(p.orientRep(), v, PositionD.orientOffset);
+        }
+        return this;
+    }
+
+    /** Write translation & rotation into Cartesian position p, in its distUnit (mm if unset) and given orientation rep & unit */
+    public void get(PositionD p, OrientationRepresentation rep, OrientationUnit unit)
+    {
+        if (p.distUnit() == null)
+            p.setDistUnit(DistanceUnit.Millimeter);
+        double scale = 1 / millimeters(p.distUnit());
+        p.setPos(m[3]*scale, m[7]*scale, m[11]*scale);
+        var v = p.values();
+        int count = getOrientation(rep, v, PositionD.orientOffset);
+        if (rep == OrientationRepresentation.EulerRPY && unit == OrientationUnit.Degree)
+            for(int i=0; i<count; i++)
+                v[PositionD.orientOffset+i] = Math.toDegrees(v[PositionD.orientOffset+i]);
+        p.setOrientRep(rep, count);
+        p.setOrientUnit(unit);
+    }
+
+    /**
+     * Set from an explicit CoordinateFrame (Transform, OffsetOrient or OriginPlane rep),
+     *  with frame offsets in millimeters & OffsetOrient Euler angles in angleUnit.
+     * Implicit frames can't be resolved locally (see FrameConverter).
+     */
+    public Transform set(CoordinateFrame f, OrientationUnit angleUnit)
+    {
+        identity();
+        switch (f.getRep()) {
+            case Transform: {
+                var rows = f.getTransform().getM();
+                for(int r=0; r<Math.min(3, rows.size()); r++) {
+                    var row = rows.get(r);
+                    for(int c=0; c<Math.min(4, row.size()); c++)
+                        m[4*r + c] = row.get(c);
+                }
+                return this;
+            }
+            case OffsetOrient: {
+                var vo = f.getVecorient();
+                var v = vo.getV();
+                setTranslation(v.get(0), v.get(1), v.get(2));
+                var o = vo.getO();
+                if (o.getRep() == OrientationRepresentation.Matrix) {
+                    var rows = o.getM().getM();
+                    for(int r=0; r<3; r++)
+                        for(int c=0; c<3; c++)
+                            m[4*r + c] = rows.get(r).get(c);
+                }
+                else if (o.getRep() == OrientationRepresentation.Quaternion)
+                    setQuaternion(o.getV().get(0), o.getV().get(1), o.getV().get(2), o.getV().get(3));
+                else {
+                    double k = (angleUnit == OrientationUnit.Degree) ? Math.PI/180 : 1;
+                    setRPY(o.getV().get(0)*k, o.getV().get(1)*k, o.getV().get(2)*k);
+                }
+                return this;
+            }
+            case OriginPlane: {
+                var pp = f.getPointplane();
+                return setOriginPlane(pp.getOrigin().get(0), pp.getOrigin().get(1), pp.getOrigin().get(2),
+                                      pp.getXx().get(0), pp.getXx().get(1), pp.getXx().get(2),
+                                      pp.getXy().get(0), pp.getXy().get(1), pp.getXy().get(2));
+            }
+            default:
+                throw new IllegalArgumentException("Implicit coordinate frame has no explicit transform");
+        }
+    }
+
+    /** Frame with origin o, x-axis towards point xx and xy-plane containing point xy */
+    public Transform setOriginPlane(double ox, double oy, double oz,
+                                    double xx, double xy, double xz,
+                                    double yx, double yy, double yz)
+    {
+        // x axis
+        double ax = xx-ox, ay = xy-oy, az = xz-oz;
+        double n = Math.sqrt(ax*ax + ay*ay + az*az);
+        ax /= n; ay /= n; az /= n;
+        // z = x cross (xy - o)
+        double bx = yx-ox, by = yy-oy, bz = yz-oz;
+        double zx = ay*bz - az*by, zy = az*bx - ax*bz, zz = ax*by - ay*bx;
+        n = Math.sqrt(zx*zx + zy*zy + zz*zz);
+        zx /= n; zy /= n; zz /= n;
+        // y = z cross x
+        double yax = zy*az - zz*ay, yay = zz*ax - zx*az, yaz = zx*ay - zy*ax;
+        m[0] = ax;  m[1] = yax;  m[2] = zx;   m[3] = ox;
+        m[4] = ay;  m[5] = yay;  m[6] = zy;   m[7] = oy;
+        m[8] = az;  m[9] = yaz;  m[10] = zz;  m[11] = oz;
+        m[12] = m[13] = m[14] = 0;
+        m[15] = 1;
+        return this;
+    }
+
+
+    public static double millimeters(DistanceUnit unit)
+    {
+        if (unit == null)
+            return 1;
+        switch (unit) {
+            case Meter: return 1000;
+            case Inch: return 25.4;
+            default: return 1;
+        }
+    }
+
+    public String toString()
+    {
+        var s = new StringBuilder();
+        for(int r=0; r<4; r++)
+            s.append(r == 0 ? "[" : " ").append(String.format("%10.4f %10.4f %10.4f %10.4f", m[4*r], m[4*r+1], m[4*r+2], m[4*r+3])).append(r == 3 ? "]" : "\n");
+        return s.toString();
+    }
+
+
+    protected final double[] m = new double[16];
+}
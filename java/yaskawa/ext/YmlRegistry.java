@@ -0,0 +1,292 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.thrift.TException;
+
+
+/**
+ * Registers a set of YML files with a Pendant, only (re-)registering files whose content
+ *  has changed since last registered - e.g. to pick up edits during development or on-site
+ *  tuning without restarting the extension.
+ *
+ * Each file's content is hashed (SHA-256).  A file is sent by registerYML() only if its hash
+ *  differs from that last registered; if it matches the content that last failed, the errors
+ *  cached from that attempt are reported again without re-sending it.
+ *
+ * watch() re-registers files as they change on disk (from a background thread):
+ *
+ *   var yml = new YmlRegistry(pendant);
+ *   yml.addDirectory(Paths.get("."));
+ *   yml.registerChanged(); // initial registration
+ *   yml.watch((file, errors) -> ...);
+ */
+public class YmlRegistry implements AutoCloseable
+{
+    public interface Listener
+    {
+        /** file registered (errors empty on success, or cached errors if unchanged) */
+        void registered(Path file, List<String> errors);
+
+        /** file couldn't be read or registered (e.g. removed while being saved); watching continues */
+        default void failed(Path file, Exception e) {}
+    }
+
+    public YmlRegistry(Pendant pendant)
+    {
+        this.pendant = pendant;
+        files = new LinkedHashMap<Path, FileState>();
+        directories = new LinkedHashSet<Path>();
+    }
+
+    /** Track file (registered in the order added) */
+    public synchronized void add(Path file)
+    {
+        file = file.toAbsolutePath().normalize();
+        if (!files.containsKey(file))
+            files.put(file, new FileState());
+    }
+
+    /** Track the .yml files in directory (including those later created, if watched) */
+    public synchronized void addDirectory(Path directory) throws IOException
+    {
+        directory = directory.toAbsolutePath().normalize();
+        directories.add(directory);
+        var found = new ArrayList<Path>();
+        try (var stream = Files.newDirectoryStream(directory, "*.yml")) {
+            for(var file : stream)
+                found.add(file);
+        }
+        Collections.sort(found);
+        for(var file : found)
+            add(file);
+    }
+
+    public synchronized List<Path> files() { return new ArrayList<Path>(files.keySet()); }
+
+
+    /**
+     * Register the tracked files that have changed since last registered, returning the
+     *  errors of each file with errors (empty if none)
+     */
+    public synchronized Map<Path, List<String>> registerChanged() throws TException, IOException
+    {
+        var errors = new LinkedHashMap<Path, List<String>>();
+        for(var file : files.keySet()) {
+            var e = register(file, null);
+            if (e != null && !e.isEmpty())
+                errors.put(file, e);
+        }
+        return errors;
+    }
+
+    /** As registerChanged(), but throws on errors (reporting them as registerYMLFile() does) */
+    public void registerChangedOrThrow() throws TException, IOException, Exception
+    {
+        var errors = registerChanged();
+        if (errors.isEmpty())
+            return;
+        for(var entry : errors.entrySet()) {
+            System.out.println(entry.getKey()+" YML Errors encountered:");
+            for(var e : entry.getValue())
+                System.out.println("  "+e);
+        }
+        throw new Exception("YML Error in "+errors.keySet().iterator().next());
+    }
+
+    /**
+     * Register file if changed (notifying listener, if any), returning its errors (empty
+     *  if registered without error), or null if unchanged since registered
+     */
+    protected synchronized List<String> register(Path file, Listener listener) throws TException, IOException
+    {
+        var state = files.get(file);
+        if (state == null || !Files.exists(file))
+            return null;
+
+        var content = Files.readAllBytes(file);
+        var hash = sha256.digest(content);
+        if (Arrays.equals(hash, state.registered)) {
+            unchanged++;
+            return null;
+        }
+
+        List<String> errors;
+        if (Arrays.equals(hash, state.failed)) {
+            errors = state.errors; // already known invalid
+            cachedErrors++;
+        }
+        else {
+            errors = pendant.registerYML(new String(content, StandardCharsets.UTF_8));
+            registrations++;
+            if (errors.isEmpty()) {
+                state.registered = hash;
+                state.failed = null;
+                state.errors = null;
+            }
+            else {
+                state.registered = null; // pendant's state for the file uncertain
+                state.failed = hash;
+                state.errors = List.copyOf(errors);
+            }
+        }
+        if (listener != null)
+            listener.registered(file, errors);
+        return errors;
+    }
+
+    /** Forget what has been registered (e.g. after reconnecting), so all are re-registered */
+    public synchronized void invalidate()
+    {
+        for(var state : files.values()) {
+            state.registered = null;
+            state.failed = null;
+            state.errors = null;
+        }
+    }
+
+
+    /**
+     * Watch the directories of the tracked files, re-registering files as they change (or,
+     *  for directories added, as .yml files are created), notifying listener
+     */
+    public synchronized void watch(Listener listener) throws IOException
+    {
+        if (watcher != null)
+            return;
+        this.listener = listener;
+        watcher = FileSystems.getDefault().newWatchService();
+        var watched = new LinkedHashSet<Path>(directories);
+        for(var file : files.keySet())
+            watched.add(file.getParent());
+        for(var dir : watched)
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        thread = new Thread(this::run, "YmlRegistry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void close() throws IOException
+    {
+        Thread t;
+        WatchService w;
+        synchronized(this) {
+            t = thread;
+            w = watcher;
+            thread = null;
+            watcher = null;
+        }
+        if (w != null)
+            w.close();
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Most recent exception registering a changed file while watching, if any */
+    public Exception failure() { return failure; }
+
+    /** Files that failed to register while watching (watching continuing regardless) */
+    public synchronized long failures() { return failures; }
+
+
+    // statistics
+
+    /** Files sent by registerYML() */
+    public synchronized long registrations() { return registrations; }
+    /** Files not sent as unchanged since registered */
+    public synchronized long unchanged() { return unchanged; }
+    /** Files not sent as unchanged since failing (errors reported from cache) */
+    public synchronized long cachedErrors() { return cachedErrors; }
+
+
+    protected void run()
+    {
+        var w = watcher;
+        var changed = new LinkedHashSet<Path>();
+        try {
+            while (true) {
+                var key = w.take();
+                // editors often save in several steps, so collect changes until quiet
+                do {
+                    var dir = (Path)key.watchable();
+                    for(var event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                            continue;
+                        changed.add(dir.resolve((Path)event.context()));
+                    }
+                    key.reset();
+                    key = w.poll(settleMillis, java.util.concurrent.TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                synchronized(this) {
+                    for(var file : changed) {
+                        if (!files.containsKey(file) && directories.contains(file.getParent())
+                            && file.getFileName().toString().endsWith(".yml"))
+                            files.put(file, new FileState());
+                    }
+                    for(var file : files.keySet()) {
+                        if (!changed.contains(file))
+                            continue;
+                        try {
+                            register(file, listener);
+                        } catch (TException | IOException | RuntimeException e) {
+                            failure = e;
+                            failures++;
+                            if (listener != null)
+                                listener.failed(file, e);
+                        }
+                    }
+                }
+                changed.clear();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed
+        }
+    }
+
+    protected static MessageDigest sha256()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected static class FileState
+    {
+        byte[] registered; // hash of content last registered
+        byte[] failed;     // hash of content last failing
+        List<String> errors;
+    }
+
+
+    // time without further changes before registering changed files (ms)
+    public int settleMillis = 100;
+
+    protected final Pendant pendant;
+    protected final Map<Path, FileState> files;
+    protected final Set<Path> directories;
+    protected final MessageDigest sha256 = sha256();
+
+    protected WatchService watcher;
+    protected Thread thread;
+    protected Listener listener;
+    protected volatile Exception failure;
+
+    protected long registrations;
+    protected long unchanged;
+    protected long cachedErrors;
+    protected long failures;
+}
@@ -0,0 +1,478 @@
+package yaskawa.ext;
+
+import java.util.*;
+import java.io.IOException;
+
+import org.apache.thrift.TException;
+
+import yaskawa.ext.api.*;
+
+
+/**
+ * Local containment & proximity queries against the controller's Zones.
+ *
+ * Zones come from Controller.configSnapshot() and the index is rebuilt (on the next query)
+ *  after a ZonesChanged event, or once configSnapshot() returns a different snapshot (e.g. the
+ *  fresh one loaded in the background after one read from a cache file).  Cartesian zones are grouped by frame, each group indexed by a
+ *  bounding volume hierarchy over its minPos/maxPos boxes; joint-space zones are indexed the
+ *  same way over their joint ranges.  Query positions in another frame are transformed into each
+ *  zone frame locally (see FrameConverter).
+ *
+ * Results for zones are bitmasks of zone indices (bit i for zone index i, see
+ *  ControllerConfigSnapshot.maxZones).  Distances are in millimeters (Cartesian) or radians
+ *  (joint space), 0 when inside.  Queries don't allocate, but an engine must not be used by
+ *  multiple threads concurrently.
+ */
+public class ZoneEngine
+{
+    public ZoneEngine(Controller c) throws TException, IOException
+    {
+        this.c = c;
+        var snapshot = c.configSnapshot();
+        converter = new FrameConverter(snapshot);
+        c.addEventConsumer(ControllerEventType.ZonesChanged, e -> stale = true);
+        c.addEventConsumer(ControllerEventType.UserFramesChanged, e -> stale = true);
+        build(snapshot);
+    }
+
+    /** Zones (enabled only, unless includeDisabled) containing Cartesian or joint position p */
+    public long containing(PositionD p) throws IllegalArgument, TException, IOException
+    {
+        refresh();
+        if (isJoint(p))
+            return (jointTree == null) ? 0 : jointTree.containing(jointPoint(p), 0);
+
+        long zones = 0;
+        for(int g=0; g<groups.length; g++)
+            zones |= groups[g].tree.containing(groupPoint(p, g), 0);
+        return zones;
+    }
+
+    public boolean inside(PositionD p) throws IllegalArgument, TException, IOException
+    {
+        return containing(p) != 0;
+    }
+
+    /** Zones within distance of p (including those containing it) */
+    public long within(PositionD p, double distance) throws IllegalArgument, TException, IOException
+    {
+        refresh();
+        if (isJoint(p))
+            return (jointTree == null) ? 0 : jointTree.within(jointPoint(p), 0, distance);
+
+        long zones = 0;
+        for(int g=0; g<groups.length; g++)
+            zones |= groups[g].tree.within(groupPoint(p, g), 0, distance);
+        return zones;
+    }
+
+    /** Distance to the nearest zone (infinite if none); its index is then nearestZone() */
+    public double nearest(PositionD p) throws IllegalArgument, TException, IOException
+    {
+        refresh();
+        nearestZone = -1;
+        double best = Double.POSITIVE_INFINITY;
+        if (isJoint(p)) {
+            if (jointTree != null) {
+                best = jointTree.nearest(jointPoint(p), 0, best);
+                nearestZone = jointTree.nearestId;
+            }
+            return best;
+        }
+        for(int g=0; g<groups.length; g++) {
+            var tree = groups[g].tree;
+            double d = tree.nearest(groupPoint(p, g), 0, best);
+            if (d < best) {
+                best = d;
+                nearestZone = tree.nearestId;
+            }
+        }
+        return best;
+    }
+
+    /** Zone index found by the last nearest() query, or -1 */
+    public int nearestZone() { return nearestZone; }
+
+    /**
+     * Containment for a stream of count Cartesian points, x,y,z at points[offset + i*stride],
+     *  all in the given frame & unit, into zones[i]
+     */
+    public void containing(double[] points, int offset, int stride, int count,
+                           CoordinateFrame frame, DistanceUnit unit, long[] zones) throws IllegalArgument, TException, IOException
+    {
+        refresh();
+        double scale = Transform.millimeters(unit);
+        Arrays.fill(zones, 0, count, 0);
+        for(int g=0; g<groups.length; g++) {
+            var group = groups[g];
+            converter.toWorld(frame, toGroup).multiply(group.fromWorld, toGroup);
+            for(int i=0; i<count; i++) {
+                int o = offset + i*stride;
+                point[0] = points[o]*scale;
+                point[1] = points[o+1]*scale;
+                point[2] = points[o+2]*scale;
+                toGroup.apply(point, 0, point, 0);
+                zones[i] |= group.tree.containing(point, 0);
+            }
+        }
+    }
+
+    /** Rebuild from the current zones now (otherwise done on the query following a change) */
+    public void refresh() throws IllegalArgument, TException, IOException
+    {
+        var current = c.configSnapshot();
+        if (stale || current != snapshot) {
+            stale = false; // (before building, so a change while building isn't missed)
+            try {
+                build(current);
+            } catch (IllegalArgument | RuntimeException e) {
+                stale = true;
+                throw e;
+            }
+        }
+    }
+
+
+    protected void build(ControllerConfigSnapshot snapshot) throws IllegalArgument
+    {
+        converter.update(snapshot);
+
+        // group Cartesian zones by frame, keyed by frame type & user frame index
+        var cartesian = new LinkedHashMap<Integer, List<Integer>>();
+        var frames = new HashMap<Integer, CoordinateFrame>();
+        var joint = new ArrayList<Integer>();
+        int dof = 0;
+        for(int i : snapshot.zones()) {
+            var z = snapshot.zone(i);
+            if (!z.isSetMinPos() || !z.isSetMaxPos())
+                continue;
+            if (!includeDisabled && z.isSetEnabled() && !z.isEnabled())
+                continue;
+            var min = new PositionD(z.getMinPos());
+            if (isJoint(min)) {
+                joint.add(i);
+                dof = Math.max(dof, min.jointCount());
+            }
+            else {
+                var f = min.frame();
+                int key = (f.getPredefined() == PredefinedCoordFrameType.User) ? f.getUserFrame() : -1;
+                cartesian.computeIfAbsent(key, k -> new ArrayList<Integer>()).add(i);
+                frames.putIfAbsent(key, f);
+            }
+        }
+
+        var built = new Group[cartesian.size()];
+        int g = 0;
+        for(var e : cartesian.entrySet()) {
+            var ids = e.getValue();
+            var lo = new double[3*ids.size()];
+            var hi = new double[3*ids.size()];
+            for(int k=0; k<ids.size(); k++) {
+                var z = snapshot.zone(ids.get(k));
+                cartesianBounds(new PositionD(z.getMinPos()), new PositionD(z.getMaxPos()), lo, hi, 3*k);
+            }
+            var group = new Group();
+            group.frame = frames.get(e.getKey());
+            group.fromWorld = converter.toWorld(group.frame, new Transform()).invert();
+            group.tree = new BoxTree(3, lo, hi, ids.stream().mapToInt(Integer::intValue).toArray());
+            built[g++] = group;
+        }
+        groups = built;
+
+        if (joint.isEmpty())
+            jointTree = null;
+        else {
+            var lo = new double[dof*joint.size()];
+            var hi = new double[dof*joint.size()];
+            for(int k=0; k<joint.size(); k++) {
+                var z = snapshot.zone(joint.get(k));
+                jointBounds(new PositionD(z.getMinPos()), new PositionD(z.getMaxPos()), dof, lo, hi, dof*k);
+            }
+            jointTree = new BoxTree(dof, lo, hi, joint.stream().mapToInt(Integer::intValue).toArray());
+        }
+        jointQuery = new double[dof];
+        this.snapshot = snapshot;
+    }
+
+    protected static boolean isJoint(PositionD p)
+    {
+        return p.jointCount() > 0 && !p.hasPos();
+    }
+
+    // box corners in mm (min/max per axis, in case corners given swapped)
+    protected static void cartesianBounds(PositionD min, PositionD max, double[] lo, double[] hi, int offset)
+    {
+        double smin = Transform.millimeters(min.distUnit());
+        double smax = Transform.millimeters(max.distUnit());
+        for(int d=0; d<3; d++) {
+            double a = min.values()[d]*smin, b = max.values()[d]*smax;
+            lo[offset+d] = Math.min(a, b);
+            hi[offset+d] = Math.max(a, b);
+        }
+    }
+
+    // joint ranges in radians; axes beyond the zone's dof are unbounded
+    protected static void jointBounds(PositionD min, PositionD max, int dof, double[] lo, double[] hi, int offset)
+    {
+        double smin = radians(min.orientUnit());
+        double smax = radians(max.orientUnit());
+        for(int d=0; d<dof; d++) {
+            if (d < min.jointCount() && d < max.jointCount()) {
+                double a = min.joint(d)*smin, b = max.joint(d)*smax;
+                lo[offset+d] = Math.min(a, b);
+                hi[offset+d] = Math.max(a, b);
+            }
+            else {
+                lo[offset+d] = Double.NEGATIVE_INFINITY;
+                hi[offset+d] = Double.POSITIVE_INFINITY;
+            }
+        }
+    }
+
+    protected static double radians(OrientationUnit unit)
+    {
+        return (unit == OrientationUnit.Degree) ? Math.PI/180 : 1;
+    }
+
+    protected double[] jointPoint(PositionD p)
+    {
+        double scale = radians(p.orientUnit());
+        int n = Math.min(p.jointCount(), jointQuery.length);
+        for(int d=0; d<n; d++)
+            jointQuery[d] = p.joint(d)*scale;
+        Arrays.fill(jointQuery, n, jointQuery.length, 0);
+        return jointQuery;
+    }
+
+    // p's x,y,z in mm, in the frame of group g
+    protected double[] groupPoint(PositionD p, int g) throws IllegalArgument
+    {
+        double scale = Transform.millimeters(p.distUnit());
+        point[0] = p.x()*scale;
+        point[1] = p.y()*scale;
+        point[2] = p.z()*scale;
+        converter.toWorld(p.frame(), toGroup).multiply(groups[g].fromWorld, toGroup);
+        toGroup.apply(point, 0, point, 0);
+        return point;
+    }
+
+
+    protected static class Group
+    {
+        CoordinateFrame frame;
+        Transform fromWorld;
+        BoxTree tree;
+    }
+
+    /**
+     * Bounding volume hierarchy over axis-aligned boxes in dims dimensions, each with an id (< 64).
+     * Nodes are stored in flat arrays; leaves hold upto leafSize boxes.
+     */
+    protected static class BoxTree
+    {
+        BoxTree(int dims, double[] lo, double[] hi, int[] ids)
+        {
+            this.dims = dims;
+            this.lo = lo;
+            this.hi = hi;
+            this.ids = ids;
+            int count = ids.length;
+            order = new int[count];
+            for(int i=0; i<count; i++)
+                order[i] = i;
+            int maxNodes = Math.max(1, 2*count);
+            nodeLo = new double[maxNodes*dims];
+            nodeHi = new double[maxNodes*dims];
+            first = new int[maxNodes];
+            size = new int[maxNodes];
+            right = new int[maxNodes];
+            stack = new int[maxNodes];
+            centers = new double[count];
+            if (count > 0)
+                build(0, count);
+        }
+
+        // subtree over order[start..end), returns node index
+        protected int build(int start, int end)
+        {
+            int node = nodes++;
+            Arrays.fill(nodeLo, node*dims, (node+1)*dims, Double.POSITIVE_INFINITY);
+            Arrays.fill(nodeHi, node*dims, (node+1)*dims, Double.NEGATIVE_INFINITY);
+            for(int i=start; i<end; i++) {
+                int b = order[i];
+                for(int d=0; d<dims; d++) {
+                    nodeLo[node*dims+d] = Math.min(nodeLo[node*dims+d], lo[b*dims+d]);
+                    nodeHi[node*dims+d] = Math.max(nodeHi[node*dims+d], hi[b*dims+d]);
+                }
+            }
+            first[node] = start;
+            size[node] = end - start;
+            if (end - start <= leafSize)
+                return node;
+
+            // split at median box center along the widest (finite) axis
+            int axis = 0;
+            double widest = -1;
+            for(int d=0; d<dims; d++) {
+                double w = nodeHi[node*dims+d] - nodeLo[node*dims+d];
+                if (Double.isFinite(w) && w > widest) {
+                    widest = w;
+                    axis = d;
+                }
+            }
+            for(int i=start; i<end; i++) {
+                int b = order[i];
+                centers[b] = center(lo[b*dims+axis], hi[b*dims+axis]);
+            }
+            var sorted = Arrays.stream(order, start, end).boxed().sorted(Comparator.comparingDouble(b -> centers[b])).mapToInt(Integer::intValue).toArray();
+            System.arraycopy(sorted, 0, order, start, sorted.length);
+
+            int mid = (start + end) / 2;
+            size[node] = 0; // interior
+            build(start, mid);
+            right[node] = build(mid, end);
+            return node;
+        }
+
+        protected static double center(double a, double b)
+        {
+            if (Double.isInfinite(a) || Double.isInfinite(b))
+                return Double.isInfinite(a) ? (Double.isInfinite(b) ? 0 : b) : a;
+            return (a + b) / 2;
+        }
+
+        long containing(double[] p, int offset)
+        {
+            if (nodes == 0)
+                return 0;
+            long result = 0;
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                int node = stack[--top];
+                if (!contains(nodeLo, nodeHi, node, p, offset))
+                    continue;
+                if (size[node] > 0) {
+                    for(int i=first[node]; i<first[node]+size[node]; i++) {
+                        int b = order[i];
+                        if (contains(lo, hi, b, p, offset))
+                            result |= 1L << ids[b];
+                    }
+                }
+                else {
+                    stack[top++] = node+1;
+                    stack[top++] = right[node];
+                }
+            }
+            return result;
+        }
+
+        long within(double[] p, int offset, double distance)
+        {
+            if (nodes == 0)
+                return 0;
+            double d2 = distance*distance;
+            long result = 0;
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                int node = stack[--top];
+                if (distance2(nodeLo, nodeHi, node, p, offset) > d2)
+                    continue;
+                if (size[node] > 0) {
+                    for(int i=first[node]; i<first[node]+size[node]; i++) {
+                        int b = order[i];
+                        if (distance2(lo, hi, b, p, offset) <= d2)
+                            result |= 1L << ids[b];
+                    }
+                }
+                else {
+                    stack[top++] = node+1;
+                    stack[top++] = right[node];
+                }
+            }
+            return result;
+        }
+
+        /** Distance to nearest box if less than bound (else bound); sets nearestId */
+        double nearest(double[] p, int offset, double bound)
+        {
+            nearestId = -1;
+            if (nodes == 0)
+                return bound;
+            double best2 = bound*bound;
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                int node = stack[--top];
+                if (distance2(nodeLo, nodeHi, node, p, offset) >= best2)
+                    continue;
+                if (size[node] > 0) {
+                    for(int i=first[node]; i<first[node]+size[node]; i++) {
+                        int b = order[i];
+                        double d2 = distance2(lo, hi, b, p, offset);
+                        if (d2 < best2) {
+                            best2 = d2;
+                            nearestId = ids[b];
+                        }
+                    }
+                }
+                else {
+                    stack[top++] = node+1;
+                    stack[top++] = right[node];
+                }
+            }
+            return (nearestId < 0) ? bound : Math.sqrt(best2);
+        }
+
+        protected boolean contains(double[] boxLo, double[] boxHi, int box, double[] p, int offset)
+        {
+            for(int d=0; d<dims; d++) {
+                double v = p[offset+d];
+                if (v < boxLo[box*dims+d] || v > boxHi[box*dims+d])
+                    return false;
+            }
+            return true;
+        }
+
+        protected double distance2(double[] boxLo, double[] boxHi, int box, double[] p, int offset)
+        {
+            double sum = 0;
+            for(int d=0; d<dims; d++) {
+                double v = p[offset+d];
+                double e = Math.max(0, Math.max(boxLo[box*dims+d] - v, v - boxHi[box*dims+d]));
+                sum += e*e;
+            }
+            return sum;
+        }
+
+        protected static final int leafSize = 2;
+
+        final int dims;
+        final double[] lo, hi;
+        final int[] ids;
+        final int[] order;
+        final double[] nodeLo, nodeHi;
+        final int[] first, size, right;
+        final int[] stack;
+        final double[] centers;
+        int nodes;
+        int nearestId = -1;
+    }
+
+
+    // include zones whose enabled flag is false
+    public boolean includeDisabled = false;
+
+    protected Controller c;
+    protected FrameConverter converter;
+    protected ControllerConfigSnapshot snapshot; // built from
+    protected volatile boolean stale;
+    protected Group[] groups = new Group[0];
+    protected BoxTree jointTree;
+    protected double[] jointQuery = new double[0];
+    protected int nearestZone = -1;
+
+    protected final double[] point = new double[3];
+    protected final Transform toGroup = new Transform();
+}